@@ -0,0 +1,443 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import myfileio.MyFileIO;
+
+/**
+ * The Class BatchCompressor. Compresses a list of text files on a bounded pool
+ * of worker threads. Each file is handled start to finish (weights, encode, write)
+ * by one worker, using its own GenWeights and EncodeDecode instances, so no
+ * compression state is shared between threads.
+ *
+ * Backpressure: at most maxInFlight files are queued or running at any time -
+ * the submitting thread blocks until a worker finishes, so memory use does not
+ * grow with the length of the file list.
+ *
+ * With virtual threads enabled, each file runs on its own virtual thread and
+ * the blocking reads and writes are left to overlap freely; only the CPU-bound
+ * part (counting, tree building and encoding in memory) is limited to numThreads
+ * files at a time by a semaphore. This suits very many small files, where the
+ * time goes on file system latency rather than encoding. Files larger than
+ * maxInMemory are still streamed, as on the platform pool, so that the files
+ * in flight cannot fill the heap.
+ *
+ * Output files are named after the input's base name, so two inputs with the
+ * same base name (a/x.txt and b/x.txt) would write the same files; the later
+ * ones fail with OUTPUT_ERROR instead of being run.
+ *
+ * No HuffCompAlerts are raised; every file gets a BatchResult instead.
+ */
+public class BatchCompressor {
+
+	/** Constant representing the number of ASCII characters. */
+	private final int NUM_ASCII = 128;
+
+	/** The number of worker threads. */
+	private int numThreads;
+
+	/** The maximum number of files queued or running at once; 0 selects a default for the thread mode. */
+	private int maxInFlight = 0;
+
+	/** The default largest file that the virtual thread mode reads into memory. */
+	static final long DEFAULT_MAX_IN_MEMORY = 16 << 20;
+
+	/** The largest file that the virtual thread mode reads into memory; larger files are streamed. */
+	private long maxInMemory = DEFAULT_MAX_IN_MEMORY;
+
+	/** If true, run each file on a virtual thread, limiting only the encoding to numThreads. */
+	private boolean virtualThreads = false;
+
+	/** The directory the compressed files are written to. */
+	private String encodeDir = "encode/";
+
+	/** The directory the weights files are written to. */
+	private String weightsDir = "weights/";
+
+	/** If true, only leaf nodes with non-zero weights are added to the tree. */
+	private boolean optimize = true;
+
+	/** If true, the generated weights are saved (needed to decode the file later). */
+	private boolean saveWeights = true;
+
+	/** If true, existing output files are overwritten; otherwise the file is skipped with OUTPUT_ERROR. */
+	private boolean overwrite = false;
+
+	/** Instance of MyFileIO used for the file status checks. */
+	private MyFileIO fio;
+
+	/**
+	 * Instantiates a new batch compressor with one worker per available processor.
+	 */
+	public BatchCompressor() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Instantiates a new batch compressor.
+	 *
+	 * @param numThreads the number of worker threads
+	 */
+	public BatchCompressor(int numThreads) {
+		this.numThreads = Math.max(1, numThreads);
+		fio = new MyFileIO();
+	}
+
+	/**
+	 * Sets the maximum number of files that may be queued or running at once.
+	 *
+	 * The default is twice the thread count for platform threads, and 64 times the
+	 * thread count for virtual threads.
+	 *
+	 * @param maxInFlight the new max in flight; values below the thread count are raised to it
+	 */
+	void setMaxInFlight(int maxInFlight) {
+		this.maxInFlight = Math.max(numThreads, maxInFlight);
+	}
+
+	/**
+	 * Selects virtual threads (one per file, encoding limited to numThreads at once)
+	 * or a fixed pool of numThreads platform threads.
+	 *
+	 * @param virtualThreads if true, use virtual threads
+	 */
+	void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * Sets the largest file that the virtual thread mode encodes in memory.
+	 * Larger files are encoded from the file, as with platform threads, so at
+	 * most maxInFlight times this many bytes are held at once.
+	 *
+	 * @param maxInMemory the largest size, in bytes
+	 */
+	void setMaxInMemory(long maxInMemory) {
+		this.maxInMemory = maxInMemory;
+	}
+
+	/**
+	 * Sets the output directories. Each should end with a "/".
+	 *
+	 * @param encodeDir the directory for the compressed files
+	 * @param weightsDir the directory for the weights files
+	 */
+	void setOutputDirs(String encodeDir, String weightsDir) {
+		this.encodeDir = encodeDir;
+		this.weightsDir = weightsDir;
+	}
+
+	/**
+	 * Sets the optimize flag.
+	 *
+	 * @param optimize if true, exclude 0-weight nodes from the tree
+	 */
+	void setOptimize(boolean optimize) {
+		this.optimize = optimize;
+	}
+
+	/**
+	 * Sets the save weights flag.
+	 *
+	 * @param saveWeights if true, write a weights file for each compressed file
+	 */
+	void setSaveWeights(boolean saveWeights) {
+		this.saveWeights = saveWeights;
+	}
+
+	/**
+	 * Sets the overwrite flag.
+	 *
+	 * @param overwrite if true, replace existing output files
+	 */
+	void setOverwrite(boolean overwrite) {
+		this.overwrite = overwrite;
+	}
+
+	/**
+	 * Compresses each of the files in fileNames. The results are returned in
+	 * the same order as fileNames. If the calling thread is interrupted, files
+	 * that have not been started are reported as CANCELLED.
+	 *
+	 * @param fileNames the names of the text files to compress
+	 * @return the per-file results
+	 */
+	List<BatchResult> compress(List<String> fileNames) {
+		ExecutorService pool = virtualThreads ? Executors.newVirtualThreadPerTaskExecutor()
+				                              : Executors.newFixedThreadPool(numThreads);
+		try {
+			return runAll(pool, fileNames);
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Submits every file to pool, blocking whenever maxInFlight files are
+	 * outstanding, and then collects the results in order.
+	 *
+	 * @param pool the executor to run the files on
+	 * @param fileNames the names of the text files to compress
+	 * @return the per-file results
+	 */
+	private List<BatchResult> runAll(ExecutorService pool, List<String> fileNames) {
+		int inFlight = maxInFlight;
+		if (inFlight == 0)
+			inFlight = (virtualThreads ? 64 : 2) * numThreads;
+		Semaphore permits = new Semaphore(inFlight);
+		Semaphore cpuPermits = new Semaphore(numThreads);
+		List<Future<BatchResult>> futures = new ArrayList<Future<BatchResult>>();
+		BatchResult[] clashes = findNameClashes(fileNames);
+		boolean interrupted = false;
+		for (int i = 0; i < fileNames.size(); i++) {
+			String name = fileNames.get(i);
+			if (clashes[i] != null) {
+				futures.add(null);
+				continue;
+			}
+			try {
+				permits.acquire();
+			} catch (InterruptedException e) {
+				interrupted = true;
+				break;
+			}
+			futures.add(pool.submit(() -> {
+				try {
+					return virtualThreads ? compressFileInMemory(name, cpuPermits) : compressFile(name);
+				} finally {
+					permits.release();
+				}
+			}));
+		}
+
+		List<BatchResult> results = new ArrayList<BatchResult>();
+		for (int i = 0; i < fileNames.size(); i++) {
+			String name = fileNames.get(i);
+			if (clashes[i] != null) {
+				results.add(clashes[i]);
+				continue;
+			}
+			Future<BatchResult> f = (i < futures.size()) ? futures.get(i) : null;
+			if (f != null && interrupted && !f.isDone())
+				f.cancel(true);
+			if (f == null || f.isCancelled()) {
+				results.add(BatchResult.failed(name, binFileName(name), BatchResult.Status.CANCELLED, "Batch interrupted"));
+				continue;
+			}
+			try {
+				results.add(f.get());
+			} catch (InterruptedException e) {
+				interrupted = true;
+				f.cancel(true);
+				results.add(BatchResult.failed(name, binFileName(name), BatchResult.Status.CANCELLED, "Batch interrupted"));
+			} catch (ExecutionException e) {
+				results.add(BatchResult.failed(name, binFileName(name), BatchResult.Status.IO_ERROR,
+						                       String.valueOf(e.getCause())));
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+		return results;
+	}
+
+	/**
+	 * Finds the files whose output files are the same as an earlier file's in
+	 * the list (the same base name, or the same file listed twice). Running
+	 * both would write the same files at once.
+	 *
+	 * @param fileNames the names of the text files to compress
+	 * @return the failed result for each clashing file, and null for the rest
+	 */
+	private BatchResult[] findNameClashes(List<String> fileNames) {
+		BatchResult[] clashes = new BatchResult[fileNames.size()];
+		Map<String, String> owners = new HashMap<String, String>();
+		for (int i = 0; i < fileNames.size(); i++) {
+			String name = fileNames.get(i);
+			String binName = binFileName(name);
+			String owner = owners.putIfAbsent(binName, name);
+			if (owner != null)
+				clashes[i] = BatchResult.failed(name, binName, BatchResult.Status.OUTPUT_ERROR,
+						                        "Same output file as " + owner + ": " + binName);
+		}
+		return clashes;
+	}
+
+	/**
+	 * Compresses one file: checks the input and output files, counts the weights,
+	 * optionally saves them, and writes the encoded file.
+	 *
+	 * @param fName the name of the text file
+	 * @return the result for this file
+	 */
+	BatchResult compressFile(String fName) {
+		long start = System.nanoTime();
+		String binName = binFileName(fName);
+		String wtsName = weightsFileName(fName);
+		File inf = fio.getFileHandle(fName);
+		File binf = fio.getFileHandle(binName);
+		File wtsf = fio.getFileHandle(wtsName);
+		BatchResult error = checkFiles(fName, inf, binf, wtsf);
+		if (error != null)
+			return error;
+
+		try {
+			// hca is never used on these code paths - errors come back as exceptions
+			GenWeights gw = new GenWeights(null);
+			int[] wts = gw.countWeights(inf, new int[NUM_ASCII]);
+			if (saveWeights)
+				gw.writeWeights(wtsf, wts);
+			EncodeDecode encdec = new EncodeDecode(gw, null);
+			encdec.encodeFile(inf, binf, wts, optimize);
+		} catch (IOException | RuntimeException e) {
+			return BatchResult.failed(fName, binName, BatchResult.Status.IO_ERROR, String.valueOf(e));
+		}
+		return new BatchResult(fName, binName, BatchResult.Status.OK, "", inf.length(), binf.length(),
+				               System.nanoTime() - start);
+	}
+
+	/**
+	 * Compresses one file on a virtual thread. The file is read and written with
+	 * plain blocking calls; the counting and encoding are done in memory while
+	 * holding one of the cpuPermits. A file larger than maxInMemory is passed to
+	 * compressFile instead, also while holding a permit.
+	 *
+	 * @param fName the name of the text file
+	 * @param cpuPermits limits the number of files being encoded at once
+	 * @return the result for this file
+	 */
+	BatchResult compressFileInMemory(String fName, Semaphore cpuPermits) {
+		long start = System.nanoTime();
+		String binName = binFileName(fName);
+		File inf = fio.getFileHandle(fName);
+		File binf = fio.getFileHandle(binName);
+		File wtsf = fio.getFileHandle(weightsFileName(fName));
+		BatchResult error = checkFiles(fName, inf, binf, wtsf);
+		if (error != null)
+			return error;
+
+		try {
+			if (inf.length() > maxInMemory) {
+				cpuPermits.acquire();
+				try {
+					return compressFile(fName);
+				} finally {
+					cpuPermits.release();
+				}
+			}
+			byte[] text = Files.readAllBytes(inf.toPath());
+			GenWeights gw = new GenWeights(null);
+			int[] wts;
+			byte[] encoded;
+			cpuPermits.acquire();
+			try {
+				wts = gw.countWeights(text, text.length, new int[NUM_ASCII]);
+				encoded = new EncodeDecode(gw, null).encodeBytes(text, text.length, wts, optimize);
+			} finally {
+				cpuPermits.release();
+			}
+			if (saveWeights)
+				gw.writeWeights(wtsf, wts);
+			Files.write(binf.toPath(), encoded);
+			return new BatchResult(fName, binName, BatchResult.Status.OK, "", text.length, encoded.length,
+					               System.nanoTime() - start);
+		} catch (InterruptedException e) {
+			return BatchResult.failed(fName, binName, BatchResult.Status.CANCELLED, "Batch interrupted");
+		} catch (IOException | RuntimeException e) {
+			return BatchResult.failed(fName, binName, BatchResult.Status.IO_ERROR, String.valueOf(e));
+		}
+	}
+
+	/**
+	 * Checks the input file can be read and the output files can be written.
+	 *
+	 * @param fName the name of the text file
+	 * @param inf the text file
+	 * @param binf the compressed file
+	 * @param wtsf the weights file
+	 * @return null if all is well, otherwise the failed result for this file
+	 */
+	private BatchResult checkFiles(String fName, File inf, File binf, File wtsf) {
+		int status = fio.checkFileStatus(inf, true);
+		if (status != MyFileIO.FILE_OK)
+			return BatchResult.failed(fName, binf.getPath(), BatchResult.Status.INPUT_ERROR, statusMessage(status));
+		String outError = checkOutput(binf);
+		if (outError == null && saveWeights)
+			outError = checkOutput(wtsf);
+		if (outError != null)
+			return BatchResult.failed(fName, binf.getPath(), BatchResult.Status.OUTPUT_ERROR, outError);
+		return null;
+	}
+
+	/**
+	 * Checks that an output file can be written.
+	 *
+	 * @param outf the output file
+	 * @return null if the file can be written, otherwise the reason it cannot
+	 */
+	private String checkOutput(File outf) {
+		int status = fio.checkFileStatus(outf, false);
+		if (status == MyFileIO.FILE_OK || (status == MyFileIO.WRITE_EXISTS && overwrite))
+			return null;
+		if (status == MyFileIO.WRITE_EXISTS)
+			return "File exists: " + outf.getPath();
+		return statusMessage(status) + ": " + outf.getPath();
+	}
+
+	/**
+	 * Converts a MyFileIO status into a short message.
+	 *
+	 * @param status the status
+	 * @return the message
+	 */
+	private String statusMessage(int status) {
+		switch (status) {
+		case MyFileIO.EMPTY_NAME: return "Empty file name";
+		case MyFileIO.FILE_DOES_NOT_EXIST: return "File does not exist";
+		case MyFileIO.NOT_A_FILE: return "Not a file";
+		case MyFileIO.READ_ZERO_LENGTH: return "Zero length";
+		case MyFileIO.NO_READ_ACCESS: return "Not readable";
+		case MyFileIO.NO_WRITE_ACCESS: return "Cannot write";
+		}
+		return "File status " + status;
+	}
+
+	/**
+	 * Gets the base name of a file, without its directory or .txt extension.
+	 *
+	 * @param fName the file name
+	 * @return the base name
+	 */
+	private String baseName(String fName) {
+		String name = new File(fName).getName();
+		return name.endsWith(".txt") ? name.substring(0, name.length() - 4) : name;
+	}
+
+	/**
+	 * Gets the name of the compressed file for fName.
+	 *
+	 * @param fName the text file name
+	 * @return the bin file name
+	 */
+	String binFileName(String fName) {
+		return encodeDir + baseName(fName) + ".bin";
+	}
+
+	/**
+	 * Gets the name of the weights file for fName.
+	 *
+	 * @param fName the text file name
+	 * @return the weights file name
+	 */
+	String weightsFileName(String fName) {
+		return weightsDir + baseName(fName) + ".csv";
+	}
+}
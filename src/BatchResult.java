@@ -0,0 +1,163 @@
+/**
+ * The Class BatchResult. Records the outcome of compressing one file as part
+ * of a BatchCompressor run. Batch jobs do not raise HuffCompAlerts - each file
+ * gets one of these instead, so the caller can decide what to report.
+ */
+public class BatchResult {
+
+	/**
+	 * The Enum Status - the possible outcomes for a single file
+	 */
+	public enum Status {
+		/** The file was compressed successfully. */
+		OK,
+		/** The input file could not be read. */
+		INPUT_ERROR,
+		/** The output (binary or weights) file could not be written. */
+		OUTPUT_ERROR,
+		/** An IOException occurred while compressing. */
+		IO_ERROR,
+		/** The file was not processed because the batch was interrupted. */
+		CANCELLED
+	}
+
+	/** The name of the text file that was compressed. */
+	private String fileName;
+
+	/** The name of the compressed file that was written. */
+	private String binFileName;
+
+	/** The status of this file. */
+	private Status status;
+
+	/** A short description of the status - empty when OK. */
+	private String message;
+
+	/** The length of the input file in bytes. */
+	private long inputBytes;
+
+	/** The length of the compressed file in bytes. */
+	private long outputBytes;
+
+	/** The time taken to compress the file, in nanoseconds. */
+	private long elapsedNanos;
+
+	/**
+	 * Instantiates a new batch result.
+	 *
+	 * @param fileName the name of the text file
+	 * @param binFileName the name of the compressed file
+	 * @param status the status
+	 * @param message the status message
+	 * @param inputBytes the input file length
+	 * @param outputBytes the compressed file length
+	 * @param elapsedNanos the time taken
+	 */
+	BatchResult(String fileName, String binFileName, Status status, String message,
+			    long inputBytes, long outputBytes, long elapsedNanos) {
+		this.fileName = fileName;
+		this.binFileName = binFileName;
+		this.status = status;
+		this.message = message;
+		this.inputBytes = inputBytes;
+		this.outputBytes = outputBytes;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * Creates a result for a file that could not be compressed.
+	 *
+	 * @param fileName the name of the text file
+	 * @param binFileName the name of the compressed file
+	 * @param status the failure status
+	 * @param message the failure message
+	 * @return the batch result
+	 */
+	static BatchResult failed(String fileName, String binFileName, Status status, String message) {
+		return new BatchResult(fileName, binFileName, status, message, 0, 0, 0);
+	}
+
+	/**
+	 * Gets the name of the text file.
+	 *
+	 * @return the file name
+	 */
+	public String getFileName() {
+		return fileName;
+	}
+
+	/**
+	 * Gets the name of the compressed file.
+	 *
+	 * @return the bin file name
+	 */
+	public String getBinFileName() {
+		return binFileName;
+	}
+
+	/**
+	 * Gets the status.
+	 *
+	 * @return the status
+	 */
+	public Status getStatus() {
+		return status;
+	}
+
+	/**
+	 * Checks if the file was compressed successfully.
+	 *
+	 * @return true, if the status is OK
+	 */
+	public boolean isOk() {
+		return status == Status.OK;
+	}
+
+	/**
+	 * Gets the status message.
+	 *
+	 * @return the message
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	/**
+	 * Gets the input file length.
+	 *
+	 * @return the input bytes
+	 */
+	public long getInputBytes() {
+		return inputBytes;
+	}
+
+	/**
+	 * Gets the compressed file length.
+	 *
+	 * @return the output bytes
+	 */
+	public long getOutputBytes() {
+		return outputBytes;
+	}
+
+	/**
+	 * Gets the time taken to compress the file.
+	 *
+	 * @return the elapsed time in nanoseconds
+	 */
+	public long getElapsedNanos() {
+		return elapsedNanos;
+	}
+
+	/**
+	 * To string.
+	 *
+	 * @return the string
+	 */
+	@Override
+	public String toString() {
+		if (status != Status.OK)
+			return fileName + ": " + status + " (" + message + ")";
+		return fileName + ": " + inputBytes + " -> " + outputBytes + " bytes";
+	}
+}
@@ -1,11 +1,43 @@
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
 
 /**
  * The Class BinaryIO.
  */
 public class BinaryIO {
 	
+	/** The magic bytes at the start of a binary weights file. */
+	static final byte[] WEIGHTS_MAGIC = {'H', 'F', 'W'};
+	
+	/** The binary weights file format version. */
+	static final int WEIGHTS_VERSION = 1;
+	
+	/** The largest alphabet a weights file may hold. */
+	static final int MAX_WEIGHTS = 1 << 16;
+	
+	/** The binary string of each byte value, MSB first ("00000000" to "11111111"). */
+	private static final String[] BIN_STRS = new String[256];
+	
+	/** The same binary strings as chars, 8 per byte value, for bulk conversion. */
+	private static final char[] BIN_CHARS = new char[256 * 8];
+	
+	static {
+		for (int b = 0; b < 256; b++) {
+			for (int bit = 0; bit < 8; bit++) {
+				BIN_CHARS[b * 8 + bit] = (((b >>> (7 - bit)) & 1) == 0) ? '0' : '1';
+			}
+			BIN_STRS[b] = new String(BIN_CHARS, b * 8, 8);
+		}
+	}
+	
 	/**
 	 * Instantiates a new binary IO.
 	 */
@@ -21,30 +53,92 @@ public class BinaryIO {
 	 * @return the int generated from the binary string
 	 */
 	int convStrToBin(String binStr) {
+		return convStrToBin(binStr, 0, binStr.length());
+		
+	}
+	
+	/**
+	 * Converts len characters of 1's and 0's, starting at off, to an int (MSB first).
+	 * Any character other than '1' counts as a 0.
+	 *
+	 * @param bits the binary string
+	 * @param off the index of the first bit
+	 * @param len the number of bits, at most 32
+	 * @return the int generated from the bits
+	 */
+	private int convStrToBin(CharSequence bits, int off, int len) {
 		int aByte = 0;
-		for (int i = 0; i < binStr.length(); i++) {
-			aByte = aByte << 1;
-			if (binStr.charAt(i) == '1') {
-				aByte++;
-			}			
+		for (int i = off; i < off + len; i++) {
+			aByte = (aByte << 1) | ((bits.charAt(i) == '1') ? 1 : 0);
 		}
 		return aByte;
-		
 	}
 	
 	/**
 	 * Convert a byte value into a string of eight 1's and 0's (MSB to LSB).
+	 * The strings are precomputed, so no String is built per call.
 	 *
-	 * @param aByte the byte to convert
+	 * @param aByte the byte to convert; only the low 8 bits are used
 	 * @return the binary string of 1's and 0's that represents aByte
 	 */
 	String convBinToStr(int aByte) {
-		String str = "";
-		while (str.length() < 8) {
-			str = (aByte % 2 == 0) ? "0" + str : "1" + str;
-			aByte = aByte >> 1;
+		return BIN_STRS[aByte & 0xff];
+	}
+	
+	/**
+	 * Converts len bytes to their binary strings, 8 chars per byte (MSB first),
+	 * into a caller-provided array.
+	 *
+	 * @param src the bytes
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @param dst the array to write to; needs room for len * 8 chars
+	 * @param dstOff the index of the first char to write
+	 * @return the index after the last char written
+	 */
+	int convBinToChars(byte[] src, int off, int len, char[] dst, int dstOff) {
+		for (int i = off; i < off + len; i++) {
+			System.arraycopy(BIN_CHARS, (src[i] & 0xff) << 3, dst, dstOff, 8);
+			dstOff += 8;
 		}
-		return str;
+		return dstOff;
+	}
+	
+	/**
+	 * Appends the binary strings of len bytes, 8 chars per byte (MSB first), to sb.
+	 *
+	 * @param src the bytes
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @param sb the builder to append to
+	 * @return sb
+	 */
+	StringBuilder appendBinString(byte[] src, int off, int len, StringBuilder sb) {
+		sb.ensureCapacity(sb.length() + len * 8);
+		for (int i = off; i < off + len; i++) {
+			sb.append(BIN_CHARS, (src[i] & 0xff) << 3, 8);
+		}
+		return sb;
+	}
+	
+	/**
+	 * Converts a string of 1's and 0's to bytes, 8 bits per byte (MSB first),
+	 * into a caller-provided array. Only whole bytes are converted; the caller
+	 * keeps any remaining bits.
+	 *
+	 * @param bits the binary string
+	 * @param off the index of the first bit
+	 * @param dst the array to write to
+	 * @param dstOff the index of the first byte to write
+	 * @param nBytes the number of bytes to convert; bits must hold nBytes * 8 chars from off
+	 * @return the index after the last byte written
+	 */
+	int convStrToBin(CharSequence bits, int off, byte[] dst, int dstOff, int nBytes) {
+		for (int k = 0; k < nBytes; k++) {
+			dst[dstOff++] = (byte) convStrToBin(bits, off, 8);
+			off += 8;
+		}
+		return dstOff;
 	}
 	
 	/**
@@ -70,16 +164,315 @@ public class BinaryIO {
 	 * @throws IOException Signals that an I/O exception has occurred.
 	 */
 	 String writeBinString(BufferedOutputStream bos, String binStr) throws IOException {
-		 int aByte;
-		 String byteStr;
-		while (binStr.length() >= 8) {
-			byteStr = binStr.substring(0, 8);
-			aByte = convStrToBin(byteStr);
-			bos.write(aByte);
-			binStr = binStr.substring(8, binStr.length());
-		}
-		 return binStr;
+		 // convert in place and cut the string once, rather than a substring per byte
+		int i = 0;
+		while (binStr.length() - i >= 8) {
+			bos.write(convStrToBin(binStr, i, 8));
+			i += 8;
+		}
+		 return (i == 0) ? binStr : binStr.substring(i);
 	 }
 	
-}
+	/**
+	 * Writes a non-negative value as a varint: 7 bits per byte, least significant
+	 * group first, with the top bit of each byte set if more bytes follow.
+	 *
+	 * @param os the stream to write to
+	 * @param value the value; must not be negative
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void writeVarint(OutputStream os, long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			os.write((int) ((value & 0x7f) | 0x80));
+			value >>>= 7;
+		}
+		os.write((int) value);
+	}
+
+	/**
+	 * Reads a varint written by writeVarint.
+	 *
+	 * @param is the stream to read from
+	 * @return the value
+	 * @throws IOException if the stream ends inside the varint, or the varint is too long
+	 */
+	long readVarint(InputStream is) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = is.read();
+			if (b < 0)
+				throw new EOFException("End of stream inside varint");
+			value |= (long) (b & 0x7f) << shift;
+			if (b < 0x80)
+				return value;
+		}
+		throw new IOException("Varint too long");
+	}
 
+	/**
+	 * Reads a varint written by writeVarint from a buffer, advancing its position.
+	 *
+	 * @param bb the buffer to read from
+	 * @return the value
+	 * @throws IOException if the buffer ends inside the varint, or the varint is too long
+	 */
+	long readVarint(ByteBuffer bb) throws IOException {
+		long value = 0;
+		try {
+			for (int shift = 0; shift < 64; shift += 7) {
+				int b = bb.get() & 0xff;
+				value |= (long) (b & 0x7f) << shift;
+				if (b < 0x80)
+					return value;
+			}
+		} catch (BufferUnderflowException e) {
+			throw new EOFException("End of buffer inside varint");
+		}
+		throw new IOException("Varint too long");
+	}
+
+	/**
+	 * Writes a frequency table in sparse form: the number of non-zero entries,
+	 * then for each one the gap from the previous index and the weight, all as varints.
+	 *
+	 * @param os the stream to write to
+	 * @param wts the weights
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void writeSparseWeights(OutputStream os, int[] wts) throws IOException {
+		int nonZero = 0;
+		for (int w : wts) {
+			if (w != 0)
+				nonZero++;
+		}
+		writeVarint(os, nonZero);
+		int prev = -1;
+		for (int i = 0; i < wts.length; i++) {
+			if (wts[i] != 0) {
+				writeVarint(os, i - prev - 1);
+				writeVarint(os, wts[i]);
+				prev = i;
+			}
+		}
+	}
+
+	/**
+	 * Writes long weights in the same sparse form as writeSparseWeights.
+	 *
+	 * @param os the stream to write to
+	 * @param wts the weights; none may be negative
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void writeSparseWeights(OutputStream os, long[] wts) throws IOException {
+		int nonZero = 0;
+		for (long w : wts) {
+			if (w != 0)
+				nonZero++;
+		}
+		writeVarint(os, nonZero);
+		int prev = -1;
+		for (int i = 0; i < wts.length; i++) {
+			if (wts[i] != 0) {
+				writeVarint(os, i - prev - 1);
+				writeVarint(os, wts[i]);
+				prev = i;
+			}
+		}
+	}
+
+	/**
+	 * Reads a frequency table written by writeSparseWeights.
+	 *
+	 * @param bb the buffer to read from
+	 * @param size the alphabet size
+	 * @return the weights
+	 * @throws IOException if the table is truncated or does not fit the alphabet
+	 */
+	int[] readSparseWeights(ByteBuffer bb, int size) throws IOException {
+		return toIntWeights(readSparseLongWeights(bb, size));
+	}
+
+	/**
+	 * Reads a frequency table written by writeSparseWeights, as long weights.
+	 *
+	 * @param bb the buffer to read from
+	 * @param size the alphabet size
+	 * @return the weights
+	 * @throws IOException if the table is truncated or does not fit the alphabet
+	 */
+	long[] readSparseLongWeights(ByteBuffer bb, int size) throws IOException {
+		long[] wts = new long[size];
+		long nonZero = readVarint(bb);
+		if (nonZero > size)
+			throw new IOException("Bad weights table: "+nonZero+" entries");
+		int i = -1;
+		for (long n = 0; n < nonZero; n++) {
+			long idx = i + 1 + readVarint(bb);
+			long w = readVarint(bb);
+			if (idx < 0 || idx >= size || w <= 0)
+				throw new IOException("Bad weights table entry at index "+idx);
+			i = (int) idx;
+			wts[i] = w;
+		}
+		return wts;
+	}
+
+	/**
+	 * Narrows long weights to ints.
+	 *
+	 * @param wts the weights
+	 * @return the int weights
+	 * @throws IOException if a weight does not fit in an int
+	 */
+	private int[] toIntWeights(long[] wts) throws IOException {
+		int[] narrow = new int[wts.length];
+		for (int i = 0; i < wts.length; i++) {
+			if (wts[i] > Integer.MAX_VALUE)
+				throw new IOException("Weight too large at index "+i+": "+wts[i]);
+			narrow[i] = (int) wts[i];
+		}
+		return narrow;
+	}
+
+	
+	/**
+	 * Writes weights in the binary weights file format: the magic "HFW", a
+	 * version byte, the alphabet size (varint), the weights (sparse varints, as
+	 * writeSparseWeights), and a CRC32 of everything before it (4 bytes, big-endian).
+	 *
+	 * @param os the stream to write to
+	 * @param wts the weights
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void writeWeightsFile(OutputStream os, int[] wts) throws IOException {
+		long[] wide = new long[wts.length];
+		for (int i = 0; i < wts.length; i++) {
+			wide[i] = wts[i];
+		}
+		writeWeightsFile(os, wide);
+	}
+
+	/**
+	 * Writes long weights in the binary weights file format. The format is the
+	 * same as for int weights; the varints simply run longer.
+	 *
+	 * @param os the stream to write to
+	 * @param wts the weights
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void writeWeightsFile(OutputStream os, long[] wts) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream(wts.length * 2 + 16);
+		bos.write(WEIGHTS_MAGIC);
+		bos.write(WEIGHTS_VERSION);
+		writeVarint(bos, wts.length);
+		writeSparseWeights(bos, wts);
+		CRC32 crc = new CRC32();
+		crc.update(bos.toByteArray());
+		long sum = crc.getValue();
+		for (int shift = 24; shift >= 0; shift -= 8) {
+			bos.write((int) (sum >>> shift));
+		}
+		bos.writeTo(os);
+	}
+	
+	/**
+	 * Parses the whole contents of a weights file, in either format: binary
+	 * (recognized by its magic) or the original "index,weight," text lines.
+	 * The caller reads the file in one go, so no per-line reads are needed.
+	 *
+	 * @param buf the file contents
+	 * @param size the alphabet size to return when the file is in the text format
+	 * @return the weights; for a binary file, as many as the file holds
+	 * @throws IOException if the file is not a valid weights file
+	 */
+	int[] parseWeights(byte[] buf, int size) throws IOException {
+		return toIntWeights(parseLongWeights(buf, size));
+	}
+
+	/**
+	 * Parses the whole contents of a weights file, in either format, as long
+	 * weights, for tables counted over corpora too large for int counts.
+	 *
+	 * @param buf the file contents
+	 * @param size the alphabet size to return when the file is in the text format
+	 * @return the weights; for a binary file, as many as the file holds
+	 * @throws IOException if the file is not a valid weights file
+	 */
+	long[] parseLongWeights(byte[] buf, int size) throws IOException {
+		if (buf.length >= WEIGHTS_MAGIC.length
+				&& Arrays.equals(buf, 0, WEIGHTS_MAGIC.length, WEIGHTS_MAGIC, 0, WEIGHTS_MAGIC.length))
+			return parseBinaryWeights(buf);
+		return parseTextWeights(buf, size);
+	}
+	
+	/**
+	 * Parses a binary weights file.
+	 *
+	 * @param buf the file contents
+	 * @return the weights
+	 * @throws IOException if the file is not valid or its checksum does not match
+	 */
+	private long[] parseBinaryWeights(byte[] buf) throws IOException {
+		if (buf.length < WEIGHTS_MAGIC.length + 5)
+			throw new IOException("Truncated weights file");
+		CRC32 crc = new CRC32();
+		crc.update(buf, 0, buf.length - 4);
+		ByteBuffer bb = ByteBuffer.wrap(buf, 0, buf.length);
+		if ((bb.getInt(buf.length - 4) & 0xffffffffL) != crc.getValue())
+			throw new IOException("Weights file checksum mismatch");
+		bb.position(WEIGHTS_MAGIC.length);
+		int version = bb.get() & 0xff;
+		if (version != WEIGHTS_VERSION)
+			throw new IOException("Unsupported weights file version "+version);
+		bb.limit(buf.length - 4);
+		long size = readVarint(bb);
+		if (size > MAX_WEIGHTS)
+			throw new IOException("Bad weights file alphabet size "+size);
+		long[] wts = readSparseLongWeights(bb, (int) size);
+		if (bb.hasRemaining())
+			throw new IOException("Bad weights file: "+bb.remaining()+" extra bytes");
+		return wts;
+	}
+	
+	/**
+	 * Parses the text weights format: one "index,weight," line per character.
+	 *
+	 * @param buf the file contents
+	 * @param size the alphabet size
+	 * @return the weights
+	 * @throws IOException if a line is not valid
+	 */
+	private long[] parseTextWeights(byte[] buf, int size) throws IOException {
+		long[] wts = new long[size];
+		int i = 0;
+		int line = 1;
+		while (i < buf.length) {
+			if (buf[i] == '\n' || buf[i] == '\r') {
+				if (buf[i++] == '\n')
+					line++;
+				continue;
+			}
+			long idx = 0;
+			long w = 0;
+			int start = i;
+			while (i < buf.length && buf[i] >= '0' && buf[i] <= '9' && i - start < 10) {
+				idx = idx * 10 + buf[i++] - '0';
+			}
+			if (i == start || i >= buf.length || buf[i++] != ',' || idx >= size)
+				throw new IOException("Bad weights file line "+line);
+			start = i;
+			while (i < buf.length && buf[i] >= '0' && buf[i] <= '9') {
+				if (w > (Long.MAX_VALUE - (buf[i] - '0')) / 10)
+					throw new IOException("Bad weights file line "+line);
+				w = w * 10 + buf[i++] - '0';
+			}
+			if (i == start)
+				throw new IOException("Bad weights file line "+line);
+			while (i < buf.length && buf[i] != '\n') {
+				i++;
+			}
+			wts[(int) idx] = w;
+		}
+		return wts;
+	}
+}
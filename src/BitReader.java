@@ -0,0 +1,214 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * The Class BitReader. The counterpart of BitWriter - reads bits MSB first from
+ * a byte array (or an InputStream, through a byte array buffer) using a 64-bit
+ * bit buffer that is refilled up to 7 bytes at a time with a single long load.
+ *
+ * Decoders look at the upcoming bits with peek(n) and then consume(n) only as
+ * many as the code they matched. Past the end of the data the reader supplies
+ * 0 bits, so a decoder can always peek a full window; isOverrun() reports whether
+ * any of those padding bits were actually consumed.
+ */
+public class BitReader {
+
+	/** The most bits that can be peeked or read in one call. */
+	static final int MAX_BITS = 56;
+
+	/** Reads a big-endian long from a byte array at any offset. */
+	private static final VarHandle LONG_BE = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+
+	/** The bit buffer - the next bit to be read is the MSB. Bits below count are 0. */
+	private long acc;
+
+	/** The number of bits in the bit buffer. */
+	private int count;
+
+	/** The number of bits at the bottom of the bit buffer that are end-of-stream padding. */
+	private int pad;
+
+	/** Set if padding bits have been consumed. */
+	private boolean overrun;
+
+	/** The bytes being read. */
+	private byte[] buf;
+
+	/** The index of the next byte to load into the bit buffer. */
+	private int pos;
+
+	/** The index after the last valid byte in buf. */
+	private int limit;
+
+	/** The stream buf is refilled from, or null when reading a fixed array. */
+	private InputStream in;
+
+	/** Set when there is no more input. */
+	private boolean eof;
+
+	/** The total number of bits consumed. */
+	private long bitsRead;
+
+	/**
+	 * Instantiates a new bit reader over len bytes of data, starting at off.
+	 *
+	 * @param data the encoded data
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 */
+	BitReader(byte[] data, int off, int len) {
+		buf = data;
+		pos = off;
+		limit = off + len;
+		in = null;
+		eof = false;
+	}
+
+	/**
+	 * Instantiates a new bit reader over an InputStream, read bufferSize bytes at a time.
+	 *
+	 * @param in the input stream
+	 * @param bufferSize the size of the read buffer
+	 */
+	BitReader(InputStream in, int bufferSize) {
+		buf = new byte[Math.max(16, bufferSize)];
+		pos = 0;
+		limit = 0;
+		this.in = in;
+		eof = false;
+	}
+
+	/**
+	 * Tops up the bit buffer to at least MAX_BITS bits. When 8 bytes of input are
+	 * available this is one long load; near the end of the input it falls back to
+	 * single bytes, and once the input is exhausted it pads with 0 bits.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred in the stream.
+	 */
+	private void refill() throws IOException {
+		while (count < MAX_BITS) {
+			if (limit - pos < 8 && in != null && !eof)
+				fill();
+			if (limit - pos >= 8) {
+				int take = (63 - count) >>> 3;
+				long w = (long) LONG_BE.get(buf, pos);
+				acc |= (w >>> count) & (-1L << (64 - count - take * 8));
+				pos += take;
+				count += take * 8;
+			} else if (pos < limit) {
+				acc |= (buf[pos++] & 0xffL) << (56 - count);
+				count += 8;
+			} else {
+				eof = true;
+				pad += 64 - count;
+				count = 64;
+			}
+		}
+	}
+
+	/**
+	 * Refills buf from the stream, keeping any bytes not yet loaded.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred in the stream.
+	 */
+	private void fill() throws IOException {
+		int left = limit - pos;
+		System.arraycopy(buf, pos, buf, 0, left);
+		pos = 0;
+		limit = left;
+		int n = in.read(buf, left, buf.length - left);
+		if (n < 0)
+			eof = true;
+		else
+			limit += n;
+	}
+
+	/**
+	 * Returns the next n bits without consuming them.
+	 *
+	 * @param n the number of bits, 1 to MAX_BITS
+	 * @return the bits, right-aligned
+	 * @throws IOException Signals that an I/O exception has occurred in the stream.
+	 */
+	long peek(int n) throws IOException {
+		if (count < n)
+			refill();
+		return acc >>> (64 - n);
+	}
+
+	/**
+	 * Consumes n bits. The bits must have been made available by a prior peek of at least n bits.
+	 *
+	 * @param n the number of bits
+	 */
+	void consume(int n) {
+		acc <<= n;
+		count -= n;
+		bitsRead += n;
+		if (count < pad) {
+			pad = count;
+			overrun = true;
+		}
+	}
+
+	/**
+	 * Reads and consumes the next n bits.
+	 *
+	 * @param n the number of bits, 1 to MAX_BITS
+	 * @return the bits, right-aligned
+	 * @throws IOException Signals that an I/O exception has occurred in the stream.
+	 */
+	long readBits(int n) throws IOException {
+		long bits = peek(n);
+		consume(n);
+		return bits;
+	}
+
+	/**
+	 * Reads and consumes one bit.
+	 *
+	 * @return the bit, 0 or 1
+	 * @throws IOException Signals that an I/O exception has occurred in the stream.
+	 */
+	int readBit() throws IOException {
+		if (count == 0)
+			refill();
+		int bit = (int) (acc >>> 63);
+		consume(1);
+		return bit;
+	}
+
+	/**
+	 * Skips to the next byte boundary.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred in the stream.
+	 */
+	void alignToByte() throws IOException {
+		int skip = (int) (-bitsRead & 7);
+		if (skip > 0) {
+			peek(skip);
+			consume(skip);
+		}
+	}
+
+	/**
+	 * Checks whether any padding bits past the end of the data have been consumed.
+	 *
+	 * @return true, if the reader ran off the end of the data
+	 */
+	boolean isOverrun() {
+		return overrun;
+	}
+
+	/**
+	 * Gets the total number of bits consumed.
+	 *
+	 * @return the number of bits read
+	 */
+	long getBitsRead() {
+		return bitsRead;
+	}
+}
@@ -0,0 +1,239 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The Class BitWriter. Packs variable-length codes into bytes, MSB first - the
+ * same bit order as BinaryIO.writeBinString - using a 64-bit accumulator that is
+ * stored into a ByteBuffer a whole word at a time.
+ *
+ * When the buffer fills, it is handed to a BufferSink, which writes it out (or
+ * queues it for another thread) and returns an empty buffer to continue with.
+ */
+public class BitWriter {
+
+	/** The longest bit string that can be passed to writeBits in one call. */
+	static final int MAX_BITS = 57;
+
+	/**
+	 * The vector kernel for writeSymbols, or null if it is not available. It is
+	 * only available if the build included VectorBitPacker (gradle -Pvector),
+	 * the jdk.incubator.vector module is present (the JVM was started with
+	 * --add-modules jdk.incubator.vector), and it has not been turned off with
+	 * -Dhuff.vector=false.
+	 */
+	private static final SymbolPacker VECTOR_PACKER = loadVectorPacker();
+
+	/** True if writeSymbols can use the vector kernel. */
+	static final boolean VECTOR_AVAILABLE = VECTOR_PACKER != null;
+
+	/** writeSymbols calls shorter than this are not worth the vector kernel. */
+	private static final int VECTOR_MIN = 64;
+
+	/**
+	 * The Interface BufferSink - receives each full buffer from the BitWriter.
+	 */
+	interface BufferSink {
+		/**
+		 * Takes a full buffer (position = number of bytes written) and returns
+		 * an empty buffer with at least 8 bytes remaining. The returned buffer
+		 * may be the same one, after its contents have been written out.
+		 *
+		 * @param full the full buffer
+		 * @return the buffer to continue writing into
+		 * @throws IOException Signals that an I/O exception has occurred.
+		 */
+		ByteBuffer drain(ByteBuffer full) throws IOException;
+	}
+
+	/**
+	 * The Interface SymbolPacker - writes the codes of a run of bytes in bulk.
+	 */
+	interface SymbolPacker {
+		/**
+		 * Writes the codes of a prefix of data[off, off + len). The caller
+		 * writes the remaining bytes, if any.
+		 *
+		 * @param bw the writer
+		 * @param codes the code table
+		 * @param data the data
+		 * @param off the offset of the first byte
+		 * @param len the number of bytes
+		 * @return the number of bytes written
+		 * @throws IOException if a byte has no code, or an I/O exception occurred in the sink
+		 */
+		int pack(BitWriter bw, CodeTable codes, byte[] data, int off, int len) throws IOException;
+	}
+
+	/** The accumulator - holds the last count bits written, right-aligned. */
+	private long acc;
+
+	/** The number of bits in the accumulator. */
+	private int count;
+
+	/** The buffer being filled. */
+	private ByteBuffer buf;
+
+	/** The sink that full buffers are passed to. */
+	private BufferSink sink;
+
+	/** The total number of bits written. */
+	private long totalBits;
+
+	/** True if writeSymbols uses the vector kernel. */
+	private boolean vectorized;
+
+	/**
+	 * Instantiates a new bit writer.
+	 *
+	 * @param buf the first buffer to write into; must have at least 8 bytes remaining
+	 * @param sink the sink that full buffers are passed to
+	 */
+	BitWriter(ByteBuffer buf, BufferSink sink) {
+		this.buf = buf;
+		this.sink = sink;
+		acc = 0;
+		count = 0;
+		totalBits = 0;
+		vectorized = VECTOR_AVAILABLE;
+	}
+
+	/**
+	 * Loads the vector kernel, if it was built and can be used. It is looked up
+	 * by name so that the default build has no dependency on the incubating
+	 * Vector API.
+	 *
+	 * @return the kernel, or null
+	 */
+	private static SymbolPacker loadVectorPacker() {
+		if ("false".equals(System.getProperty("huff.vector"))
+				|| ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty())
+			return null;
+		try {
+			return (SymbolPacker) Class.forName("VectorBitPacker").getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Turns the vector kernel used by writeSymbols on or off. It cannot be
+	 * turned on if VECTOR_AVAILABLE is false. The output is the same either way.
+	 *
+	 * @param on true to use the vector kernel
+	 */
+	void setVectorized(boolean on) {
+		vectorized = on && VECTOR_AVAILABLE;
+	}
+
+	/**
+	 * Writes the low len bits of bits, most significant first.
+	 *
+	 * @param bits the bits to write, right-aligned; the bits above len must be 0
+	 * @param len the number of bits, 0 to MAX_BITS
+	 * @throws IOException Signals that an I/O exception has occurred in the sink.
+	 */
+	void writeBits(long bits, int len) throws IOException {
+		int free = 64 - count;
+		totalBits += len;
+		if (len < free) {
+			acc = (acc << len) | bits;
+			count += len;
+			return;
+		}
+		int spill = len - free;
+		if (buf.remaining() < 8)
+			buf = sink.drain(buf);
+		buf.putLong((acc << free) | (bits >>> spill));
+		acc = bits & ((1L << spill) - 1);
+		count = spill;
+	}
+
+	/**
+	 * Writes a code given as a String of 1's and 0's, of any length.
+	 *
+	 * @param code the code
+	 * @throws IOException Signals that an I/O exception has occurred in the sink.
+	 */
+	void writeBitString(String code) throws IOException {
+		int i = 0;
+		while (i < code.length()) {
+			int n = Math.min(MAX_BITS, code.length() - i);
+			long b = 0;
+			for (int j = 0; j < n; j++) {
+				b = (b << 1) | (code.charAt(i + j) - '0');
+			}
+			writeBits(b, n);
+			i += n;
+		}
+	}
+
+	/**
+	 * Writes the Huffman code for character c.
+	 *
+	 * @param codes the code table
+	 * @param c the character
+	 * @throws IOException if c has no code, or an I/O exception occurred in the sink
+	 */
+	void writeSymbol(CodeTable codes, int c) throws IOException {
+		if (c >= codes.size())
+			throw new IOException("Character out of range: " + c);
+		int len = codes.getLength(c);
+		if (len < 0 || len > MAX_BITS) {
+			if (len < 0)
+				throw new IOException("No Huffman code for character " + c);
+			writeBitString(codes.getCode(c));
+		} else {
+			writeBits(codes.getBits(c), len);
+		}
+	}
+
+	/**
+	 * Writes the Huffman codes of len bytes of data - the same as calling
+	 * writeSymbol for each byte, but using the vector kernel when it is available.
+	 *
+	 * @param codes the code table
+	 * @param data the data
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @throws IOException if a byte has no code, or an I/O exception occurred in the sink
+	 */
+	void writeSymbols(CodeTable codes, byte[] data, int off, int len) throws IOException {
+		int i = off;
+		if (vectorized && len >= VECTOR_MIN)
+			i += VECTOR_PACKER.pack(this, codes, data, off, len);
+		for (; i < off + len; i++) {
+			writeSymbol(codes, data[i] & 0xff);
+		}
+	}
+
+	/**
+	 * Writes any bits left in the accumulator, padding the last byte with 0's,
+	 * and passes the buffer to the sink. The writer can be reused afterwards.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred in the sink.
+	 */
+	void flush() throws IOException {
+		if (count > 0) {
+			if (buf.remaining() < 8)
+				buf = sink.drain(buf);
+			long v = acc << (64 - count);
+			for (int n = (count + 7) / 8; n > 0; n--) {
+				buf.put((byte) (v >>> 56));
+				v <<= 8;
+			}
+			totalBits += (8 - (count & 7)) & 7;
+		}
+		acc = 0;
+		count = 0;
+		buf = sink.drain(buf);
+	}
+
+	/**
+	 * Gets the total number of bits written, including any padding added by flush.
+	 *
+	 * @return the bit count
+	 */
+	long getBitCount() {
+		return totalBits;
+	}
+}
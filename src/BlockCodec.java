@@ -0,0 +1,38 @@
+import java.io.IOException;
+
+/**
+ * The Interface BlockCodec. One compression method for the blocks of the
+ * container format (see HuffContainer). A block is encoded on its own into a
+ * self-contained payload - any tables the decoder needs are part of the payload.
+ * The container records each block's original length, so the codec does not
+ * need an end-of-block marker.
+ *
+ * A codec instance may keep scratch state between blocks, so it must only be
+ * used by one thread at a time.
+ */
+public interface BlockCodec {
+
+	/**
+	 * Encodes len bytes of data, starting at off.
+	 *
+	 * @param data the data to encode
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes; at least 1
+	 * @return the encoded payload
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	byte[] encodeBlock(byte[] data, int off, int len) throws IOException;
+
+	/**
+	 * Decodes a payload produced by encodeBlock.
+	 *
+	 * @param payload the buffer holding the payload
+	 * @param off the offset of the payload
+	 * @param len the length of the payload
+	 * @param out the buffer to decode into
+	 * @param outOff the offset in out of the first decoded byte
+	 * @param rawLen the number of bytes to decode - the original block length
+	 * @throws IOException if the payload is corrupt
+	 */
+	void decodeBlock(byte[] payload, int off, int len, byte[] out, int outOff, int rawLen) throws IOException;
+}
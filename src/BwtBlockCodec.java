@@ -0,0 +1,274 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The Class BwtBlockCodec. A bzip2-like high-ratio mode: each block goes through
+ * the Burrows-Wheeler transform, move-to-front coding and zero-run coding, and
+ * the resulting symbols are Huffman coded.
+ *
+ * The BWT groups bytes that are followed by the same context, so runs of equal
+ * bytes become common; move-to-front turns them into runs of 0's, and each run
+ * of 0's is written as its length in bijective base 2 with the digits RUNA (1)
+ * and RUNB (2). The other move-to-front values 1-255 become symbols 2-256.
+ *
+ * The suffix array for the BWT is built with SA-IS (SuffixArray), in linear time.
+ * Larger blocks give better compression; set the container block size (for
+ * example 900KB, as bzip2 does) and use several threads for large files.
+ *
+ * Payload: BWT primary index (varint), symbol counts (sparse varints), then one bit stream.
+ */
+public class BwtBlockCodec implements BlockCodec {
+
+	/** The run digit worth 1 (times its place value). */
+	static final int RUNA = 0;
+
+	/** The run digit worth 2 (times its place value). */
+	static final int RUNB = 1;
+
+	/** The number of symbols: RUNA, RUNB and move-to-front values 1-255. */
+	static final int NUM_SYMBOLS = 257;
+
+	/** Builds the Huffman tree and codes. */
+	private HuffmanCompressionUtilities huffUtil;
+
+	/** Used to read and write the counts table. */
+	private BinaryIO binUtil;
+
+	/**
+	 * Instantiates a new BWT block codec.
+	 */
+	public BwtBlockCodec() {
+		huffUtil = new HuffmanCompressionUtilities();
+		binUtil = new BinaryIO();
+	}
+
+	/**
+	 * Computes the Burrows-Wheeler transform of len bytes of data. The data is
+	 * given a sentinel that sorts before every byte; the sentinel's row is left
+	 * out of the result and its position is returned instead.
+	 *
+	 * @param data the data
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @param bwt receives the last column of the sorted rotations, len bytes
+	 * @return the primary index - the row where the sentinel was
+	 */
+	static int forward(byte[] data, int off, int len, byte[] bwt) {
+		int[] s = new int[len + 1];
+		for (int i = 0; i < len; i++) {
+			s[i] = (data[off + i] & 0xff) + 1;
+		}
+		s[len] = 0;
+		int[] sa = SuffixArray.build(s, 257);
+		int primary = 0;
+		int j = 0;
+		for (int i = 0; i <= len; i++) {
+			if (sa[i] == 0)
+				primary = i;
+			else
+				bwt[j++] = data[off + sa[i] - 1];
+		}
+		return primary;
+	}
+
+	/**
+	 * Inverts the Burrows-Wheeler transform.
+	 *
+	 * @param bwt the last column, without the sentinel
+	 * @param len the number of bytes
+	 * @param primary the primary index
+	 * @param out receives the original data
+	 * @param outOff the offset of the first byte in out
+	 * @throws IOException if the primary index is out of range
+	 */
+	static void inverse(byte[] bwt, int len, int primary, byte[] out, int outOff) throws IOException {
+		if (primary < 0 || primary > len)
+			throw new IOException("Bad BWT primary index: "+primary);
+		// Row 0 is the rotation starting with the sentinel; the counts of each byte
+		// give where its rows start (after that one row).
+		int[] start = new int[256];
+		for (int i = 0; i < len; i++) {
+			start[bwt[i] & 0xff]++;
+		}
+		int sum = 1;
+		for (int c = 0; c < 256; c++) {
+			int n = start[c];
+			start[c] = sum;
+			sum += n;
+		}
+		// lf[row] = the row of the rotation one character to the left
+		int[] lf = new int[len + 1];
+		for (int row = 0, i = 0; row <= len; row++) {
+			if (row == primary)
+				continue;
+			lf[row] = start[bwt[i++] & 0xff]++;
+		}
+		int row = 0;
+		for (int k = len - 1; k >= 0; k--) {
+			int i = (row < primary) ? row : row - 1;
+			if (row == primary)
+				throw new IOException("Corrupt BWT block");
+			out[outOff + k] = bwt[i];
+			row = lf[row];
+		}
+	}
+
+	/**
+	 * Builds the Huffman codes for the given counts; afterwards huffUtil holds the tree.
+	 *
+	 * @param wts the counts
+	 * @return the code table
+	 */
+	private CodeTable buildCodes(int[] wts) {
+		huffUtil.setWeights(wts);
+		huffUtil.buildHuffmanTree(true);
+		huffUtil.createHuffmanCodes(huffUtil.getTreeRoot(), "", 0);
+		return huffUtil.getCodeTable();
+	}
+
+	/**
+	 * Adds the RUNA/RUNB digits of a run of run zeros to syms.
+	 *
+	 * @param syms the symbols
+	 * @param n the number of symbols so far
+	 * @param run the run length, 1 or more
+	 * @return the new number of symbols
+	 */
+	private static int addRun(int[] syms, int n, int run) {
+		while (run > 0) {
+			if ((run & 1) == 1) {
+				syms[n++] = RUNA;
+				run = (run - 1) >>> 1;
+			} else {
+				syms[n++] = RUNB;
+				run = (run - 2) >>> 1;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Encodes the block.
+	 *
+	 * @param data the data to encode
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @return the payload
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public byte[] encodeBlock(byte[] data, int off, int len) throws IOException {
+		byte[] bwt = new byte[len];
+		int primary = forward(data, off, len, bwt);
+
+		// Move-to-front, with runs of 0's written as RUNA/RUNB digits
+		byte[] order = new byte[256];
+		for (int i = 0; i < 256; i++) {
+			order[i] = (byte) i;
+		}
+		int[] syms = new int[len];
+		int n = 0;
+		int run = 0;
+		for (int i = 0; i < len; i++) {
+			byte b = bwt[i];
+			if (order[0] == b) {
+				run++;
+				continue;
+			}
+			if (run > 0) {
+				n = addRun(syms, n, run);
+				run = 0;
+			}
+			int j = 1;
+			byte moving = order[0];
+			while (order[j] != b) {
+				byte tmp = order[j];
+				order[j] = moving;
+				moving = tmp;
+				j++;
+			}
+			order[j] = moving;
+			order[0] = b;
+			syms[n++] = j + 1;
+		}
+		if (run > 0)
+			n = addRun(syms, n, run);
+
+		int[] counts = new int[NUM_SYMBOLS];
+		for (int i = 0; i < n; i++) {
+			counts[syms[i]]++;
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(len / 3 + 1024);
+		binUtil.writeVarint(out, primary);
+		binUtil.writeSparseWeights(out, counts);
+		CodeTable codes = buildCodes(counts);
+		ByteArraySink sink = new ByteArraySink(len / 3);
+		BitWriter bw = new BitWriter(sink.getBuffer(), sink);
+		for (int i = 0; i < n; i++) {
+			bw.writeSymbol(codes, syms[i]);
+		}
+		bw.flush();
+		out.write(sink.toByteArray());
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes the block.
+	 *
+	 * @param payload the buffer holding the payload
+	 * @param off the offset of the payload
+	 * @param len the length of the payload
+	 * @param dst the buffer to decode into
+	 * @param dstOff the offset in dst of the first decoded byte
+	 * @param rawLen the number of bytes to decode
+	 * @throws IOException if the payload is corrupt
+	 */
+	@Override
+	public void decodeBlock(byte[] payload, int off, int len, byte[] dst, int dstOff, int rawLen) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(payload, off, len);
+		long primary = binUtil.readVarint(bb);
+		if (primary > rawLen)
+			throw new IOException("Bad BWT primary index: "+primary);
+		int[] counts = binUtil.readSparseWeights(bb, NUM_SYMBOLS);
+		CodeTable codes = buildCodes(counts);
+		HuffmanDecodeTable dt = new HuffmanDecodeTable(huffUtil.getTreeRoot(), codes, HuffmanDecodeTable.DEFAULT_TABLE_BITS);
+		BitReader br = new BitReader(payload, bb.position(), bb.remaining());
+
+		byte[] order = new byte[256];
+		for (int i = 0; i < 256; i++) {
+			order[i] = (byte) i;
+		}
+		byte[] bwt = new byte[rawLen];
+		int i = 0;
+		int run = 0;
+		int weight = 1;
+		while (i < rawLen || run > 0) {
+			int sym = (i + run < rawLen) ? dt.decode(br) : -1;
+			if (sym == RUNA || sym == RUNB) {
+				run += weight << sym;
+				weight <<= 1;
+				if (run > rawLen - i || weight <= 0)
+					throw new IOException("Corrupt BWT block: run too long");
+				continue;
+			}
+			if (run > 0) {
+				byte b = order[0];
+				for (; run > 0; run--) {
+					bwt[i++] = b;
+				}
+				weight = 1;
+			}
+			if (sym < 0)
+				break;
+			int j = sym - 1;
+			byte b = order[j];
+			System.arraycopy(order, 0, order, 1, j);
+			order[0] = b;
+			bwt[i++] = b;
+		}
+		if (br.isOverrun() || i != rawLen)
+			throw new IOException("Corrupt BWT block: coded data too short");
+		inverse(bwt, rawLen, (int) primary, dst, dstOff);
+	}
+}
@@ -0,0 +1,63 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The Class ByteArraySink. A BitWriter.BufferSink that collects the output in
+ * memory, doubling its heap buffer whenever it fills.
+ */
+public class ByteArraySink implements BitWriter.BufferSink {
+
+	/** The buffer holding everything written so far. */
+	private ByteBuffer buf;
+
+	/**
+	 * Instantiates a new byte array sink.
+	 *
+	 * @param initialSize the initial buffer size, in bytes
+	 */
+	public ByteArraySink(int initialSize) {
+		buf = ByteBuffer.allocate(Math.max(64, initialSize));
+	}
+
+	/**
+	 * Gets the buffer to start writing into - pass this to the BitWriter constructor.
+	 *
+	 * @return the buffer
+	 */
+	ByteBuffer getBuffer() {
+		return buf;
+	}
+
+	/**
+	 * Grows the buffer if it is nearly full; otherwise returns it unchanged.
+	 *
+	 * @param full the buffer the BitWriter is writing into
+	 * @return the buffer to continue writing into
+	 */
+	@Override
+	public ByteBuffer drain(ByteBuffer full) {
+		if (full.remaining() < 8) {
+			full.flip();
+			buf = ByteBuffer.allocate(full.capacity() * 2).put(full);
+		}
+		return buf;
+	}
+
+	/**
+	 * Gets the number of bytes written.
+	 *
+	 * @return the size
+	 */
+	int size() {
+		return buf.position();
+	}
+
+	/**
+	 * Returns a copy of the bytes written. Call after BitWriter.flush.
+	 *
+	 * @return the bytes
+	 */
+	byte[] toByteArray() {
+		return Arrays.copyOf(buf.array(), buf.position());
+	}
+}
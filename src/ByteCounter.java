@@ -0,0 +1,115 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * The Class ByteCounter. The byte counting kernel behind the weight counters.
+ *
+ * A plain counting loop (counts[b]++) is slow on text: the same few bytes
+ * (spaces, 'e') come round again before the previous increment of their count
+ * has been stored, so each increment waits for the last one. Here the data is
+ * read 8 bytes at a time as a long, and the bytes are spread over 4 separate
+ * sub-histograms, so that repeats of a byte usually land in different counters
+ * and the increments can overlap. The sub-histograms are added together at the
+ * end. The byte order of the long loads does not matter for counting, so the
+ * native order is used.
+ */
+public final class ByteCounter {
+
+	/** The number of sub-histograms. */
+	private static final int LANES = 4;
+
+	/** Inputs shorter than this are counted with the plain loop. */
+	private static final int MIN_BULK = 64;
+
+	/** Reads a long from a byte array at any offset. */
+	private static final VarHandle LONG = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+	/**
+	 * Not instantiated; the methods are static.
+	 */
+	private ByteCounter() {
+	}
+
+	/**
+	 * Adds the byte values in len bytes of data, starting at off, to counts.
+	 *
+	 * @param data the data
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @param counts the counts to add to (256 entries)
+	 * @return counts
+	 */
+	static int[] count(byte[] data, int off, int len, int[] counts) {
+		int end = off + len;
+		if (len < MIN_BULK) {
+			for (int i = off; i < end; i++) {
+				counts[data[i] & 0xff]++;
+			}
+			return counts;
+		}
+		int[] c = new int[LANES * 256];
+		int i = off;
+		for (; i <= end - 8; i += 8) {
+			long v = (long) LONG.get(data, i);
+			c[(int) v & 0xff]++;
+			c[0x100 | ((int) (v >>> 8) & 0xff)]++;
+			c[0x200 | ((int) (v >>> 16) & 0xff)]++;
+			c[0x300 | ((int) (v >>> 24) & 0xff)]++;
+			c[(int) (v >>> 32) & 0xff]++;
+			c[0x100 | ((int) (v >>> 40) & 0xff)]++;
+			c[0x200 | ((int) (v >>> 48) & 0xff)]++;
+			c[0x300 | (int) (v >>> 56)]++;
+		}
+		for (; i < end; i++) {
+			c[data[i] & 0xff]++;
+		}
+		fold(c, counts);
+		return counts;
+	}
+
+	/**
+	 * Adds the byte values in the remaining bytes of a buffer to counts. The
+	 * buffer's position is not changed.
+	 *
+	 * @param buf the buffer (heap or direct)
+	 * @param counts the counts to add to (256 entries)
+	 * @return counts
+	 */
+	static int[] count(ByteBuffer buf, int[] counts) {
+		if (buf.hasArray())
+			return count(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining(), counts);
+		int end = buf.limit();
+		int[] c = new int[LANES * 256];
+		int i = buf.position();
+		for (; i <= end - 8; i += 8) {
+			long v = buf.getLong(i);
+			c[(int) v & 0xff]++;
+			c[0x100 | ((int) (v >>> 8) & 0xff)]++;
+			c[0x200 | ((int) (v >>> 16) & 0xff)]++;
+			c[0x300 | ((int) (v >>> 24) & 0xff)]++;
+			c[(int) (v >>> 32) & 0xff]++;
+			c[0x100 | ((int) (v >>> 40) & 0xff)]++;
+			c[0x200 | ((int) (v >>> 48) & 0xff)]++;
+			c[0x300 | (int) (v >>> 56)]++;
+		}
+		for (; i < end; i++) {
+			c[buf.get(i) & 0xff]++;
+		}
+		fold(c, counts);
+		return counts;
+	}
+
+	/**
+	 * Adds the sub-histograms together into counts.
+	 *
+	 * @param c the sub-histograms, LANES * 256 entries
+	 * @param counts the counts to add to (256 entries)
+	 */
+	private static void fold(int[] c, int[] counts) {
+		for (int b = 0; b < 256; b++) {
+			counts[b] += c[b] + c[0x100 | b] + c[0x200 | b] + c[0x300 | b];
+		}
+	}
+}
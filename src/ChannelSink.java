@@ -0,0 +1,116 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * The Class ChannelSink. A BitWriter.BufferSink that writes to a FileChannel
+ * through a direct ByteBuffer borrowed from a DirectBufferPool. The BitWriter
+ * stores whole 64-bit words straight into the direct buffer, and each full
+ * buffer goes to the channel in one large write - the data is never copied
+ * through a heap array or written a byte at a time.
+ *
+ * Closing the sink returns the buffer to the pool; it does not close the channel.
+ */
+public class ChannelSink implements BitWriter.BufferSink, Closeable {
+
+	/** The channel the data is written to. */
+	private FileChannel ch;
+
+	/** The pool the buffer was borrowed from. */
+	private DirectBufferPool pool;
+
+	/** The direct buffer the BitWriter fills. */
+	private ByteBuffer buf;
+
+	/** The number of bytes written to the channel. */
+	private long bytesWritten;
+
+	/**
+	 * Instantiates a new channel sink.
+	 *
+	 * @param ch the channel to write to
+	 * @param pool the pool to borrow the buffer from
+	 */
+	public ChannelSink(FileChannel ch, DirectBufferPool pool) {
+		this.ch = ch;
+		this.pool = pool;
+		buf = pool.acquire();
+		bytesWritten = 0;
+	}
+
+	/**
+	 * Gets the buffer to start writing into - pass this to the BitWriter constructor.
+	 *
+	 * @return the buffer
+	 */
+	ByteBuffer getBuffer() {
+		return buf;
+	}
+
+	/**
+	 * Writes the contents of the full buffer to the channel, and returns it cleared.
+	 *
+	 * @param full the full buffer
+	 * @return the same buffer, empty
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public ByteBuffer drain(ByteBuffer full) throws IOException {
+		full.flip();
+		while (full.hasRemaining()) {
+			bytesWritten += ch.write(full);
+		}
+		full.clear();
+		return full;
+	}
+
+	/**
+	 * Gets the number of bytes written to the channel.
+	 *
+	 * @return the bytes written
+	 */
+	long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/**
+	 * Returns the buffer to the pool. Any data not yet drained is discarded.
+	 */
+	@Override
+	public void close() {
+		pool.release(buf);
+		buf = null;
+	}
+
+	/**
+	 * Concatenates parts into out using FileChannel.transferTo, which lets the
+	 * operating system copy the data without it passing through the JVM. Used to
+	 * join separately encoded blocks into one file.
+	 *
+	 * @param parts the files to join, in order
+	 * @param out the file to create
+	 * @return the length of out
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	static long concat(List<File> parts, File out) throws IOException {
+		long total = 0;
+		try (FileChannel dst = new FileOutputStream(out).getChannel()) {
+			for (File part : parts) {
+				try (FileChannel src = new FileInputStream(part).getChannel()) {
+					long size = src.size();
+					long pos = 0;
+					while (pos < size) {
+						pos += src.transferTo(pos, size - pos, dst);
+					}
+					total += size;
+				}
+			}
+		}
+		return total;
+	}
+}
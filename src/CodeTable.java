@@ -0,0 +1,205 @@
+/**
+ * The Class CodeTable. A primitive form of the Huffman encodeMap: for each
+ * character, the code length and the code bits packed into a long (MSB first
+ * within the low "length" bits). This lets the encoders write whole codes with
+ * shifts and ors instead of appending Strings of 1's and 0's.
+ *
+ * Codes longer than 64 bits cannot be packed (this can only happen for
+ * zero-weight characters in an unoptimized tree); for those the original
+ * String from the encodeMap is kept and written one bit at a time.
+ */
+public class CodeTable {
+
+	/** The code length of each character; -1 if the character has no code. */
+	private int[] lengths;
+
+	/** The code bits of each character, right-aligned. Only valid when the length is 64 or less. */
+	private long[] bits;
+
+	/** The encodeMap the table was built from - used for codes longer than 64 bits. */
+	private String[] encodeMap;
+
+	/** The length of the longest code in the table. */
+	private int maxLength;
+
+	/** The code bits of each byte value, for VectorBitPacker; 0 where there is no packable code. */
+	private final long[] packBits;
+
+	/**
+	 * The code length of each byte value, for VectorBitPacker. Codes that
+	 * BitWriter.writeBits cannot take (missing, too long, or past the end of
+	 * the table) are given PACK_NONE, which makes any group containing them too
+	 * long to pack, so that they go through writeSymbol instead.
+	 */
+	private final long[] packLengths;
+
+	/** The pack length of a byte value that has no packable code. */
+	static final long PACK_NONE = 64;
+
+	/**
+	 * Instantiates a new code table from an encodeMap, as produced by
+	 * HuffmanCompressionUtilities.createHuffmanCodes.
+	 *
+	 * @param encodeMap the encode map; null entries have no code
+	 */
+	public CodeTable(String[] encodeMap) {
+		this.encodeMap = encodeMap;
+		lengths = new int[encodeMap.length];
+		bits = new long[encodeMap.length];
+		maxLength = 0;
+		for (int i = 0; i < encodeMap.length; i++) {
+			String code = encodeMap[i];
+			if (code == null) {
+				lengths[i] = -1;
+				continue;
+			}
+			lengths[i] = code.length();
+			maxLength = Math.max(maxLength, code.length());
+			if (code.length() <= 64) {
+				long b = 0;
+				for (int j = 0; j < code.length(); j++) {
+					b = (b << 1) | (code.charAt(j) - '0');
+				}
+				bits[i] = b;
+			}
+		}
+		packBits = new long[256];
+		packLengths = new long[256];
+		for (int c = 0; c < 256; c++) {
+			if (c < lengths.length && lengths[c] >= 0 && lengths[c] <= BitWriter.MAX_BITS) {
+				packBits[c] = bits[c];
+				packLengths[c] = lengths[c];
+			} else {
+				packLengths[c] = PACK_NONE;
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of characters in the table.
+	 *
+	 * @return the size
+	 */
+	int size() {
+		return lengths.length;
+	}
+
+	/**
+	 * Gets the code length of character c.
+	 *
+	 * @param c the character
+	 * @return the length, or -1 if c has no code
+	 */
+	int getLength(int c) {
+		return lengths[c];
+	}
+
+	/**
+	 * Gets the code bits of character c. Only valid if getLength(c) is 64 or less.
+	 *
+	 * @param c the character
+	 * @return the code bits, right-aligned
+	 */
+	long getBits(int c) {
+		return bits[c];
+	}
+
+	/**
+	 * Gets the code of character c as a String of 1's and 0's.
+	 *
+	 * @param c the character
+	 * @return the code, or null if c has no code
+	 */
+	String getCode(int c) {
+		return encodeMap[c];
+	}
+
+	/**
+	 * Gets the array of code lengths. The array is shared - do not modify it.
+	 *
+	 * @return the lengths
+	 */
+	int[] getLengths() {
+		return lengths;
+	}
+
+	/**
+	 * Gets the array of code bits. The array is shared - do not modify it.
+	 *
+	 * @return the bits
+	 */
+	long[] getBitsArray() {
+		return bits;
+	}
+
+	/**
+	 * Gets the length of the longest code.
+	 *
+	 * @return the max length
+	 */
+	int getMaxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * Gets the code bits of each byte value (256 entries), as used by VectorBitPacker.
+	 * The array is shared - do not modify it.
+	 *
+	 * @return the bits
+	 */
+	long[] getPackBits() {
+		return packBits;
+	}
+
+	/**
+	 * Gets the code length of each byte value (256 entries) as longs, with
+	 * PACK_NONE for codes that cannot be packed. The array is shared - do not modify it.
+	 *
+	 * @return the lengths
+	 */
+	long[] getPackLengths() {
+		return packLengths;
+	}
+
+	/**
+	 * Computes the exact number of bits these codes take for the given
+	 * character counts: the sum of count times code length. This is known
+	 * before encoding, so it can be used to size the output, or to plan
+	 * capacity without encoding at all.
+	 *
+	 * @param counts the number of times each character is written
+	 * @return the number of bits, or -1 if a counted character has no code
+	 */
+	long encodedBits(long[] counts) {
+		long total = 0;
+		for (int c = 0; c < counts.length; c++) {
+			if (counts[c] == 0)
+				continue;
+			if (c >= lengths.length || lengths[c] < 0)
+				return -1;
+			total += counts[c] * lengths[c];
+		}
+		return total;
+	}
+
+	/**
+	 * Computes the exact number of bits these codes take for the given int counts.
+	 *
+	 * @param counts the number of times each character is written
+	 * @return the number of bits, or -1 if a counted character has no code
+	 * @see #encodedBits(long[])
+	 */
+	long encodedBits(int[] counts) {
+		return encodedBits(WeightHistogram.of(counts).toLongWeights());
+	}
+
+	/**
+	 * Converts a bit count to bytes, as written by BitWriter.flush (the last byte padded).
+	 *
+	 * @param bits the number of bits
+	 * @return the number of bytes
+	 */
+	static long bytesFor(long bits) {
+		return (bits + 7) >>> 3;
+	}
+}
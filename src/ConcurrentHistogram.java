@@ -0,0 +1,155 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+
+/**
+ * The Class ConcurrentHistogram. A weights histogram that many threads can add
+ * to at once, for a table fed by several ingestion threads.
+ *
+ * The counts are striped, in the style of LongAdder: there are several copies
+ * (stripes) of the count array, each thread adds to the stripe picked by its
+ * thread id, and a read sums the stripes. The stripes are padded apart so that
+ * threads on different stripes do not share cache lines. Adds are atomic, so
+ * threads that do share a stripe are still counted correctly. addBytes counts
+ * a chunk privately first and then makes one atomic add per distinct byte
+ * value, so bulk counting touches the shared cells very little.
+ *
+ * Reads do not block writers; a read taken while threads are adding sees each
+ * cell's count at some moment during the read.
+ */
+public class ConcurrentHistogram {
+
+	/** The padding between stripes, in longs (128 bytes - two cache lines). */
+	private static final int PAD = 16;
+
+	/** The most stripes used by default. */
+	private static final int MAX_DEFAULT_STRIPES = 64;
+
+	/** Atomic access to the cells of the counts array. */
+	private static final VarHandle CELL = MethodHandles.arrayElementVarHandle(long[].class);
+
+	/** The counts: stripe s, character c is at PAD + s * stride + c. */
+	private final long[] cells;
+
+	/** The number of characters. */
+	private final int size;
+
+	/** The distance between stripes, in longs. */
+	private final int stride;
+
+	/** The number of stripes minus 1 (the count is a power of 2). */
+	private final int stripeMask;
+
+	/**
+	 * Instantiates a new concurrent histogram with a stripe count based on the
+	 * number of processors.
+	 *
+	 * @param size the number of characters
+	 */
+	public ConcurrentHistogram(int size) {
+		this(size, Math.min(MAX_DEFAULT_STRIPES, 2 * Runtime.getRuntime().availableProcessors()));
+	}
+
+	/**
+	 * Instantiates a new concurrent histogram.
+	 *
+	 * @param size the number of characters
+	 * @param stripes the number of stripes; rounded up to a power of 2
+	 */
+	public ConcurrentHistogram(int size, int stripes) {
+		if (stripes < 1)
+			throw new IllegalArgumentException("Bad stripe count: "+stripes);
+		int n = Integer.highestOneBit(stripes);
+		if (n < stripes)
+			n <<= 1;
+		this.size = size;
+		stride = size + PAD;
+		stripeMask = n - 1;
+		cells = new long[PAD + n * stride];
+	}
+
+	/**
+	 * Gets the offset of the calling thread's stripe.
+	 *
+	 * @return the offset of the stripe in cells
+	 */
+	private int stripeBase() {
+		long id = Thread.currentThread().threadId();
+		int h = (int) (id * 0x9E3779B97F4A7C15L >>> 32);
+		return PAD + (h & stripeMask) * stride;
+	}
+
+	/**
+	 * Gets the number of characters.
+	 *
+	 * @return the size
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of stripes.
+	 *
+	 * @return the stripe count
+	 */
+	int getStripes() {
+		return stripeMask + 1;
+	}
+
+	/**
+	 * Adds n to the count of a character.
+	 *
+	 * @param c the character
+	 * @param n the amount to add
+	 */
+	void add(int c, long n) {
+		if (c < 0 || c >= size)
+			throw new ArrayIndexOutOfBoundsException(c);
+		CELL.getAndAdd(cells, stripeBase() + c, n);
+	}
+
+	/**
+	 * Counts the byte values in len bytes of data. The histogram must have 256 entries.
+	 *
+	 * @param data the data
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 */
+	void addBytes(byte[] data, int off, int len) {
+		int[] local = ByteCounter.count(data, off, len, new int[256]);
+		int base = stripeBase();
+		for (int c = 0; c < 256; c++) {
+			if (local[c] != 0)
+				CELL.getAndAdd(cells, base + c, (long) local[c]);
+		}
+	}
+
+	/**
+	 * Gets the count of a character: the sum over the stripes.
+	 *
+	 * @param c the character
+	 * @return the count
+	 */
+	long get(int c) {
+		long sum = 0;
+		for (int base = PAD; base < cells.length; base += stride) {
+			sum += (long) CELL.getOpaque(cells, base + c);
+		}
+		return sum;
+	}
+
+	/**
+	 * Sums the stripes into a histogram.
+	 *
+	 * @return the counts
+	 */
+	WeightHistogram snapshot() {
+		WeightHistogram h = new WeightHistogram(size);
+		for (int base = PAD; base < cells.length; base += stride) {
+			for (int c = 0; c < size; c++) {
+				h.add(c, (long) CELL.getOpaque(cells, base + c));
+			}
+		}
+		return h;
+	}
+}
@@ -0,0 +1,77 @@
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The Class DirectBufferPool. A small thread-safe pool of direct ByteBuffers
+ * of one fixed size. Direct buffers are expensive to allocate and are only
+ * freed by the garbage collector, so the encoders borrow them from here rather
+ * than allocating one per file.
+ */
+public class DirectBufferPool {
+
+	/** The pool shared by the file encoders - 1MB buffers, at most 16 kept. */
+	static final DirectBufferPool SHARED = new DirectBufferPool(1 << 20, 16);
+
+	/** The capacity of every buffer in the pool. */
+	private final int bufferSize;
+
+	/** The maximum number of idle buffers kept for reuse. */
+	private final int maxPooled;
+
+	/** The idle buffers. */
+	private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<ByteBuffer>();
+
+	/** The number of idle buffers (ConcurrentLinkedQueue.size() is not constant time). */
+	private final AtomicInteger freeCount = new AtomicInteger();
+
+	/**
+	 * Instantiates a new direct buffer pool.
+	 *
+	 * @param bufferSize the capacity of each buffer
+	 * @param maxPooled the maximum number of idle buffers to keep
+	 */
+	public DirectBufferPool(int bufferSize, int maxPooled) {
+		this.bufferSize = bufferSize;
+		this.maxPooled = maxPooled;
+	}
+
+	/**
+	 * Gets the capacity of the buffers in this pool.
+	 *
+	 * @return the buffer size
+	 */
+	int getBufferSize() {
+		return bufferSize;
+	}
+
+	/**
+	 * Takes a cleared buffer from the pool, allocating a new one if the pool is empty.
+	 *
+	 * @return the buffer
+	 */
+	ByteBuffer acquire() {
+		ByteBuffer buf = free.poll();
+		if (buf == null)
+			return ByteBuffer.allocateDirect(bufferSize);
+		freeCount.decrementAndGet();
+		buf.clear();
+		return buf;
+	}
+
+	/**
+	 * Returns a buffer to the pool. Buffers that did not come from this pool,
+	 * or that would take the pool over maxPooled, are left for the garbage collector.
+	 *
+	 * @param buf the buffer
+	 */
+	void release(ByteBuffer buf) {
+		if (buf == null || !buf.isDirect() || buf.capacity() != bufferSize)
+			return;
+		if (freeCount.incrementAndGet() > maxPooled) {
+			freeCount.decrementAndGet();
+			return;
+		}
+		free.offer(buf);
+	}
+}
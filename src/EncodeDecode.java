@@ -1,9 +1,10 @@
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
 
 import myfileio.MyFileIO;
 
@@ -12,9 +13,6 @@ import myfileio.MyFileIO;
  */
 public class EncodeDecode {
 	
-	/** The encodeMap maps each ascii value to its huffman code */
-	private String[] encodeMap;
-	
 	/** Instance of the huffman compression utilites for building the tree and encode man */
 	private HuffmanCompressionUtilities huffUtil;
 	
@@ -32,6 +30,15 @@ public class EncodeDecode {
 	
 	/**  The array for storing the frequency weights. */
 	private int[] weights;	
+	
+	/** Progress is reported every PROGRESS_INTERVAL input bytes (must be a power of 2) */
+	private final int PROGRESS_INTERVAL = 1 << 16;
+	
+	/** Optional listener for progress reporting and cancellation - null if not used */
+	private ProgressListener progress;
+	
+	/** If true, encode uses the PipelinedEncoder (separate reader, encoder and writer threads) */
+	private boolean pipelined = false;
 
 	/**
 	 * Instantiates a new EncodeDecode instance
@@ -47,6 +54,40 @@ public class EncodeDecode {
 		binUtil = new BinaryIO();
 	}
 	
+	/**
+	 * Sets the progress listener used by encode and decode. Pass null to remove it.
+	 *
+	 * @param progress the progress listener
+	 */
+	void setProgressListener(ProgressListener progress) {
+		this.progress = progress;
+	}
+	
+	/**
+	 * Selects the pipelined encoder, which overlaps reading, encoding and writing on
+	 * separate threads. The compressed file is identical either way.
+	 *
+	 * @param pipelined if true, use the PipelinedEncoder
+	 */
+	void setPipelined(boolean pipelined) {
+		this.pipelined = pipelined;
+	}
+	
+	/**
+	 * Reports progress to the listener, if there is one.
+	 *
+	 * @param done the number of input bytes processed
+	 * @param total the input file length
+	 * @throws InterruptedIOException if the listener has cancelled the operation
+	 */
+	private void reportProgress(long done, long total) throws InterruptedIOException {
+		if (progress == null)
+			return;
+		if (progress.isCancelled())
+			throw new InterruptedIOException("Cancelled");
+		progress.progress(done, total);
+	}
+	
 	/**
 	 * Encode. This function will do the following actions:
 	 *         1) Error check the inputs
@@ -66,20 +107,21 @@ public class EncodeDecode {
 	 * @param freqWts 	the name of the file to read for the frequency weights. If blank, or other error,
 	 *                  generate the frequency weights from fName.
 	 * @param optimize 	if true, ONLY add leaf nodes with non-zero weights to the priority queue
+	 * @return true if the binary file was written; false if an error was reported or the encode was cancelled
 	 */
-	void encode(String fName, String bfName, String freqWts, boolean optimize) {
+	boolean encode(String fName, String bfName, String freqWts, boolean optimize) {
 		
 		File f = fio.getFileHandle(fName);
 		File bf = fio.getFileHandle(bfName);
 		File fw = fio.getFileHandle(freqWts);
 		if (errorCheck(fName, bfName, freqWts, false)) {
-			return;
+			return false;
 		}
 		
-		huffUtil.setWeights(huffUtil.readFreqWeights(fw));
+		huffUtil.setWeights(huffUtil.readFreqLongWeights(fw));
 		huffUtil.buildHuffmanTree(optimize);
 		huffUtil.createHuffmanCodes(huffUtil.getTreeRoot(), "", 0);
-		executeEncode(f, bf);
+		return executeEncode(f, bf);
 	}
 	/**
 	 * checks 4 errors
@@ -144,30 +186,148 @@ public class EncodeDecode {
 	 *
 	 * @param inFile the File object that represents the file to be compressed
 	 * @param binFile the File object that represents the compressed output file
+	 * @return true if the file was written
 	 */
-	private void executeEncode(File inFile, File binFile) {
-		// TODO: write this method and any required helper methods
-		encodeMap = huffUtil.getEncodeMap();
-		String binStr = "";
-		BufferedReader br = fio.openBufferedReader(inFile);
-		BufferedOutputStream bo = fio.openBufferedOutputStream(binFile);
-		
-		int c;
+	private boolean executeEncode(File inFile, File binFile) {
 		try {
-			while ((c = br.read()) != -1) {
-				binStr += encodeMap[c];
-				if (binStr.length() >= 8) {
-					binStr = binUtil.writeBinString(bo, binStr);
-				}
-			}
-			binUtil.writeBinString(bo, binStr + encodeMap[0] + "0000000");
-			fio.closeStream(bo);
-			fio.closeFile(br);
+			writeEncodedFile(inFile, binFile);
+			return true;
+		} catch (InterruptedIOException e) {
+			// cancelled by the ProgressListener, which reports it; drop the partial file
+			fio.deleteFile(binFile.getPath());
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		
-		
+		return false;
+	}
+	
+	/**
+	 * Encodes inFile into binFile using the codes currently held by huffUtil.
+	 * The text is read in blocks and the codes are packed by a BitWriter straight
+	 * into a pooled direct buffer, which is written to the file's channel a whole
+	 * buffer at a time. The output is the same as the String based encoder described
+	 * above, without building a String per character. Any IOException is passed
+	 * back to the caller; both files are closed whether or not the encode succeeds.
+	 *
+	 * @param inFile the File object that represents the file to be compressed
+	 * @param binFile the File object that represents the compressed output file
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void writeEncodedFile(File inFile, File binFile) throws IOException {
+		if (pipelined) {
+			PipelinedEncoder pe = new PipelinedEncoder(huffUtil.getCodeTable());
+			pe.setProgressListener(progress);
+			pe.encode(inFile, binFile);
+			return;
+		}
+		CodeTable codes = huffUtil.getCodeTable();
+		FileInputStream fis = fio.openFileInputStream(inFile);
+		if (fis == null)
+			throw new IOException("Could not open "+inFile.getPath());
+		long total = inFile.length();
+		long done = 0;
+		// the weights predict the exact size only when they were counted from this
+		// text; a corpus-wide table would predict a size far beyond the output
+		long predicted = (huffUtil.getTotalWeight() == total + 1) ? huffUtil.predictEncodedBits() : -1;
+		byte[] text = new byte[PROGRESS_INTERVAL];
+		int n;
+		try (fis;
+			 RandomAccessFile raf = new RandomAccessFile(binFile, "rw");
+			 FileChannel ch = raf.getChannel();
+			 ChannelSink sink = new ChannelSink(ch, DirectBufferPool.SHARED)) {
+			// allocate the file at its predicted size up front; a text of the same
+			// length may still code to a different size, so it is cut to the real
+			// size at the end
+			if (predicted > 0)
+				raf.setLength(CodeTable.bytesFor(predicted));
+			BitWriter bw = new BitWriter(sink.getBuffer(), sink);
+			while ((n = fis.read(text)) > 0) {
+				bw.writeSymbols(codes, text, 0, n);
+				done += n;
+				reportProgress(done, total);
+			}
+			bw.writeSymbol(codes, 0);
+			bw.flush();
+			ch.truncate(sink.getBytesWritten());
+		}
+	}
+	
+	/**
+	 * Encodes inFile into binFile using the supplied weights, without any of the
+	 * error checking or alerts performed by encode(). The caller is responsible
+	 * for checking the files; errors are reported by throwing an IOException.
+	 * Used by BatchCompressor, where each worker thread owns its own EncodeDecode.
+	 *
+	 * @param inFile the text file to be compressed
+	 * @param binFile the compressed file to be created
+	 * @param wts the frequency weights to build the Huffman tree from
+	 * @param optimize if true, ONLY add leaf nodes with non-zero weights to the priority queue
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void encodeFile(File inFile, File binFile, int[] wts, boolean optimize) throws IOException {
+		huffUtil.setWeights(wts);
+		huffUtil.buildHuffmanTree(optimize);
+		huffUtil.createHuffmanCodes(huffUtil.getTreeRoot(), "", 0);
+		writeEncodedFile(inFile, binFile);
+	}
+	
+	/**
+	 * Predicts the size of the file encode() would write, without encoding:
+	 * builds the codes from the weights file, counts the characters of the
+	 * text (plus the EOF character), and sums count times code length. For
+	 * capacity planning; no error checking is done and no alerts are raised.
+	 *
+	 * @param inFile the text file to be compressed
+	 * @param freqWts the weights file the codes are built from
+	 * @param optimize if true, ONLY add leaf nodes with non-zero weights to the priority queue
+	 * @return the size in bytes, or -1 if the text has a character with no code
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	long predictEncodedSize(File inFile, File freqWts, boolean optimize) throws IOException {
+		huffUtil.setWeights(huffUtil.readFreqLongWeights(freqWts));
+		huffUtil.buildHuffmanTree(optimize);
+		huffUtil.createHuffmanCodes(huffUtil.getTreeRoot(), "", 0);
+		int[] counts = new int[256];
+		byte[] text = new byte[PROGRESS_INTERVAL];
+		int n;
+		try (FileInputStream fis = new FileInputStream(inFile)) {
+			while ((n = fis.readNBytes(text, 0, text.length)) > 0) {
+				ByteCounter.count(text, 0, n, counts);
+			}
+		}
+		counts[0]++;
+		long bits = huffUtil.getCodeTable().encodedBits(counts);
+		return (bits < 0) ? -1 : CodeTable.bytesFor(bits);
+	}
+	
+	/**
+	 * Encodes the first len bytes of text in memory using the supplied weights, and returns
+	 * the compressed data. The output is identical to what encodeFile would write.
+	 * The output buffer is allocated once, at the exact encoded size (CodeTable.encodedBits).
+	 * Used by BatchCompressor so that file I/O can be kept out of the CPU-bound section.
+	 *
+	 * @param text the text to be compressed
+	 * @param len the number of bytes of text to compress
+	 * @param wts the frequency weights to build the Huffman tree from
+	 * @param optimize if true, ONLY add leaf nodes with non-zero weights to the priority queue
+	 * @return the compressed data
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	byte[] encodeBytes(byte[] text, int len, int[] wts, boolean optimize) throws IOException {
+		huffUtil.setWeights(wts);
+		huffUtil.buildHuffmanTree(optimize);
+		huffUtil.createHuffmanCodes(huffUtil.getTreeRoot(), "", 0);
+		CodeTable codes = huffUtil.getCodeTable();
+		int[] counts = ByteCounter.count(text, 0, len, new int[256]);
+		counts[0]++;
+		long bits = codes.encodedBits(counts);
+		// the exact size, plus room for BitWriter's last 8-byte store; the sink never has to grow
+		ByteArraySink sink = new ByteArraySink((bits < 0) ? len / 2 : (int) CodeTable.bytesFor(bits) + 16);
+		BitWriter bw = new BitWriter(sink.getBuffer(), sink);
+		bw.writeSymbols(codes, text, 0, len);
+		bw.writeSymbol(codes, 0);
+		bw.flush();
+		return sink.toByteArray();
 	}
 	
 	// DO NOT CODE THIS METHOD UNTIL EXPLICITLY INSTRUCTED TO DO SO!!!
@@ -188,23 +348,29 @@ public class EncodeDecode {
 	 * @param ofName 	the name of the text file to write...
 	 * @param freqWts the freq wts
 	 * @param optimize - exclude 0-weight nodes from the tree
+	 * @return true if the text file was written; false if an error was reported or the decode was cancelled
 	 */
-	void decode(String bfName, String ofName, String freqWts, boolean optimize) {
+	boolean decode(String bfName, String ofName, String freqWts, boolean optimize) {
 		File fw = fio.getFileHandle(freqWts);
 		File bf = fio.getFileHandle(bfName);
 		File of = fio.getFileHandle(ofName);
 		if (errorCheck(bfName, ofName, freqWts, true)) {
-			return;
+			return false;
 		}
-		huffUtil.setWeights(huffUtil.readFreqWeights(fw));
+		huffUtil.setWeights(huffUtil.readFreqLongWeights(fw));
 		huffUtil.buildHuffmanTree(optimize);
 		huffUtil.createHuffmanCodes(huffUtil.getTreeRoot(), "", 0);
 		try {
 			executeDecode(bf, of);
 			hca.issueAlert(HuffAlerts.DONE, "Done", "Decode successful");
+			return true;
+		} catch (InterruptedIOException e) {
+			// as for encode, the listener reports the cancel
+			fio.deleteFile(of.getPath());
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
+		return false;
 	}
 	
 	// DO NOT CODE THIS METHOD UNTIL EXPLICITLY INSTRUCTED TO DO SO!!!
@@ -221,26 +387,41 @@ public class EncodeDecode {
 	 * After completely decoding the file, close the input file and
 	 * flushed and close the output file.
 	 *
+	 * The file is read in PROGRESS_INTERVAL byte chunks and pushed through a
+	 * StreamingDecoder, which keeps its place in the tree from one byte to the
+	 * next and decodes a whole byte per table lookup - no String is built and no
+	 * bits are looked at twice.
+	 *
 	 * @param binFile the file object for the binary input file
 	 * @param outFile the file object for the binary output file
 	 * @throws IOException Signals that an I/O exception has occurred.
 	 */
 	private void executeDecode(File binFile, File outFile) throws IOException {
-		encodeMap = huffUtil.getEncodeMap();
-		String binStr = "";
-		BufferedInputStream bis = fio.openBufferedInputStream(binFile);
-		BufferedWriter bw = fio.openBufferedWriter(outFile);
-		int c;
-		int decoded;
-		while ((c = bis.read()) != -1) {
-			binStr += binUtil.convBinToStr(c);
-			while ((decoded = huffUtil.decodeString(binStr)) > 0) {
-				bw.write(decoded);
-				binStr = binStr.substring(encodeMap[decoded].length());
+		FileInputStream fis = fio.openFileInputStream(binFile);
+		if (fis == null)
+			throw new IOException("Could not open "+binFile.getPath());
+		BufferedOutputStream bo = fio.openBufferedOutputStream(outFile);
+		if (bo == null) {
+			fis.close();
+			throw new IOException("Could not open "+outFile.getPath());
+		}
+		StreamingDecoder decoder = new StreamingDecoder(huffUtil.getTreeRoot());
+		byte[] buf = new byte[PROGRESS_INTERVAL];
+		long total = binFile.length();
+		long done = 0;
+		int n;
+		try (fis) {
+			while (!decoder.isFinished() && (n = fis.read(buf)) > 0) {
+				decoder.push(buf, 0, n, bo);
+				done += n;
+				reportProgress(done, total);
 			}
+			if (!decoder.isFinished())
+				throw new IOException("Unexpected end of encoded data in "+binFile.getPath());
+			reportProgress(total, total);
+		} finally {
+			fio.closeStream(bo);
 		}
-		fio.closeStream(bis);
-		fio.closeFile(bw);
 	}
 
 }
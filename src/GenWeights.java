@@ -1,7 +1,19 @@
-import java.io.BufferedReader;
+import java.io.BufferedOutputStream;
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import myfileio.MyFileIO;
 
@@ -20,8 +32,8 @@ public class GenWeights {
     /** The input and output File handles. */
     private File inf,outf;
     
-    /** The array for collecting the weights */
-    private int[] weights = new int[NUM_ASCII]; 
+    /** The array for collecting the weights; long, so a count cannot wrap on huge files */
+    private long[] weights = new long[NUM_ASCII]; 
     
     /** Instance the the MyFileIO package to access methods for handling files */
     private MyFileIO fio;
@@ -34,6 +46,21 @@ public class GenWeights {
      */
     private HuffCompAlerts hca;
     
+    /** Progress is reported every PROGRESS_INTERVAL input bytes (must be a power of 2) */
+    private final int PROGRESS_INTERVAL = 1 << 16;
+    
+    /** Optional listener for progress reporting and cancellation - null if not used */
+    private ProgressListener progress;
+    
+    /** Weights files whose names end with this are written in the binary format */
+    static final String BINARY_WEIGHTS_EXT = ".hfw";
+    
+    /** The size of the chunks read by estimateWeights */
+    static final int SAMPLE_CHUNK = 1 << 16;
+    
+    /** The estimated ratio loss of the last estimateWeights, as a fraction (0.01 = 1% bigger) */
+    private double estimatedLoss;
+    
 	/**
 	 * Instantiates a new GenWeights object and connects it to the supplied
 	 * HuffCompAlerts object (hca).
@@ -46,6 +73,15 @@ public class GenWeights {
 
 	}
 
+	/**
+	 * Sets the progress listener used by generateWeights. Pass null to remove it.
+	 *
+	 * @param progress the progress listener
+	 */
+	void setProgressListener(ProgressListener progress) {
+		this.progress = progress;
+	}
+	
 	/**
 	 * Initializes all elements of the weights array to 0
 	 */
@@ -95,21 +131,273 @@ public class GenWeights {
 				return;
 		}
 		initWeights();
-		BufferedReader br = fio.openBufferedReader(inf);
-		int c;
 		try {
-			while ((c = br.read()) != -1) {
-				weights[c]++;
-			}
-			fio.closeFile(br);
+			countWeights(inf, weights);
+		} catch (InterruptedIOException e) {
+			// cancelled by the ProgressListener, which reports it
+			initWeights();
+			return;
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		weights[0]++;
 		printWeights();
 		return;
 	}
 	
+	/**
+	 * Estimates the character weights of a large file from a sample, instead of
+	 * reading all of it: about fraction of the file is read, as SAMPLE_CHUNK byte
+	 * chunks spread evenly over the file, and the counts are scaled up to the file
+	 * size. Since a character that was not sampled may still occur, every
+	 * character is given a weight of at least 1, so it has a code to escape to.
+	 * 
+	 * The input file is checked as in generateWeights. Afterwards, weights holds
+	 * the estimate, and getEstimatedLoss the expected cost of sampling: the
+	 * sample is split in two (alternate chunks), and the loss is how much bigger
+	 * one half codes with the other half's weights than with its own. This
+	 * overstates the loss slightly, as each half is only half the sample.
+	 *
+	 * @param infName the name of the text file to read
+	 * @param fraction the fraction of the file to read, greater than 0 and at most 1
+	 */
+	void estimateWeights(String infName, double fraction) {
+		File inf = new File(infName);
+		int status = fio.checkFileStatus(inf, true);
+		if (status != MyFileIO.FILE_OK) {
+			if (inputErrors(status))
+				return;
+		}
+		try {
+			estimateWeights(inf, fraction);
+		} catch (IOException e) {
+			e.printStackTrace();
+			initWeights();
+		}
+		return;
+	}
+	
+	/**
+	 * Estimates the character weights of inf from a sample, as
+	 * estimateWeights(String, double), but without the status checks and alerts.
+	 * As with countWeights, a file that is not ASCII text is rejected - here, if
+	 * the sample holds any byte of 128 or more.
+	 *
+	 * @param inf the text file to read
+	 * @param fraction the fraction of the file to read, greater than 0 and at most 1
+	 * @return the estimated weights (also held in weights)
+	 * @throws IOException Signals that an I/O exception has occurred, or the
+	 *         sample is not ASCII text
+	 */
+	long[] estimateWeights(File inf, double fraction) throws IOException {
+		WeightHistogram[] halves = sampleBytes(inf, fraction, SAMPLE_CHUNK);
+		WeightHistogram sample = halves[0].copy().merge(halves[1]);
+		for (int c = NUM_ASCII; c < 256; c++) {
+			if (sample.get(c) != 0)
+				throw new IOException("Not an ASCII text file: "+inf.getPath());
+		}
+		long[] even = foldToAscii(halves[0]);
+		long[] odd = foldToAscii(halves[1]);
+		estimatedLoss = (halves[1].getTotal() == 0) ? 0 : crossBits(odd, even) / crossBits(odd, odd) - 1;
+		sample.scale(inf.length() / (double) sample.getTotal());
+		weights = foldToAscii(sample);
+		weights[0] = 1;
+		return weights;
+	}
+	
+	/**
+	 * Gets the weights as ints, for the original tree builder and weights
+	 * consumers; if they total more than an int can hold they are scaled down
+	 * (see WeightHistogram.toWeights). The array is a copy.
+	 *
+	 * @return the weights
+	 */
+	int[] getWeights() {
+		return WeightHistogram.of(weights).toWeights();
+	}
+	
+	/**
+	 * Gets the weights array, as counted.
+	 *
+	 * @return the weights
+	 */
+	long[] getLongWeights() {
+		return weights;
+	}
+	
+	/**
+	 * Gets the estimated ratio loss of the last estimateWeights.
+	 *
+	 * @return the loss, as a fraction (0.01 means the output is expected to be 1% bigger)
+	 */
+	double getEstimatedLoss() {
+		return estimatedLoss;
+	}
+	
+	/**
+	 * Counts the bytes of chunks of inf, spread evenly over the file: each chunk
+	 * starts at a random point in its share of the file (a fixed seed, so the
+	 * result is repeatable). The counts of alternate chunks go to alternate
+	 * histograms. If the chunks would cover the whole file, all of it is read,
+	 * a chunk at a time, into the first histogram.
+	 *
+	 * @param inf the file to sample
+	 * @param fraction the fraction of the file to read, greater than 0 and at most 1
+	 * @param chunkSize the size of each chunk
+	 * @return the counts of the even and the odd chunks (256 entries each)
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	WeightHistogram[] sampleBytes(File inf, double fraction, int chunkSize) throws IOException {
+		if (!(fraction > 0 && fraction <= 1))
+			throw new IllegalArgumentException("Bad sample fraction: "+fraction);
+		WeightHistogram[] halves = {new WeightHistogram(256), new WeightHistogram(256)};
+		try (RandomAccessFile raf = new RandomAccessFile(inf, "r")) {
+			long len = raf.length();
+			long chunks = (long) Math.ceil(len * fraction / chunkSize);
+			byte[] buf = new byte[chunkSize];
+			if (chunks * chunkSize >= len) {
+				int n;
+				while ((n = raf.read(buf)) > 0) {
+					halves[0].addBytes(buf, 0, n);
+				}
+				return halves;
+			}
+			long stride = len / chunks;
+			Random rand = new Random(len);
+			for (long k = 0; k < chunks; k++) {
+				long pos = k * stride + (long) (rand.nextDouble() * (stride - chunkSize + 1));
+				raf.seek(pos);
+				raf.readFully(buf, 0, chunkSize);
+				halves[(int) (k & 1)].addBytes(buf, 0, chunkSize);
+			}
+		}
+		return halves;
+	}
+	
+	/**
+	 * Folds byte counts into NUM_ASCII weights for the original encoded format,
+	 * giving every character a weight of at least 1. The counts of bytes of 128
+	 * or more must be 0 (estimateWeights checks this first).
+	 *
+	 * @param bytes the byte counts (256 entries)
+	 * @return the weights
+	 */
+	private long[] foldToAscii(WeightHistogram bytes) {
+		long[] wts = new long[NUM_ASCII];
+		long[] all = bytes.toLongWeights();
+		for (int i = 0; i < NUM_ASCII; i++) {
+			wts[i] = Math.max(1, all[i]);
+		}
+		return wts;
+	}
+	
+	/**
+	 * Computes the ideal number of bits needed to code the characters counted in
+	 * counts with codes built from model (the cross-entropy, times the count).
+	 *
+	 * @param counts the characters to code
+	 * @param model the weights the codes are built from (each 1 or more)
+	 * @return the number of bits
+	 */
+	static double crossBits(int[] counts, int[] model) {
+		return crossBits(WeightHistogram.of(counts).toLongWeights(), WeightHistogram.of(model).toLongWeights());
+	}
+	
+	/**
+	 * Computes the ideal number of bits needed to code counts with codes built
+	 * from model, for long counts; otherwise as crossBits(int[], int[]).
+	 *
+	 * @param counts the characters to code
+	 * @param model the weights the codes are built from (each 1 or more)
+	 * @return the number of bits
+	 */
+	static double crossBits(long[] counts, long[] model) {
+		double total = 0;
+		for (long w : model) {
+			total += w;
+		}
+		double bits = 0;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0)
+				bits -= counts[i] * Math.log(model[i] / total) / Math.log(2);
+		}
+		return bits;
+	}
+	
+	/**
+	 * Counts the character weights of inf into wts, including the EOF character.
+	 * Unlike generateWeights, this method does no status checking and raises no
+	 * alerts - it is intended for callers (such as BatchCompressor) that have
+	 * already checked the file and need to report errors themselves. It only
+	 * touches the supplied array, so it is safe to call from several threads on
+	 * separate GenWeights instances. If a ProgressListener has been set, it is
+	 * called every PROGRESS_INTERVAL bytes and may cancel the count.
+	 * The file is read in PROGRESS_INTERVAL blocks and counted by ByteCounter.
+	 *
+	 * @param inf the text file to read
+	 * @param wts the array to accumulate the weights into (NUM_ASCII entries)
+	 * @return wts
+	 * @throws IOException Signals that an I/O exception has occurred, or the file
+	 *         is not ASCII text; InterruptedIOException if the ProgressListener cancelled the count
+	 */
+	long[] countWeights(File inf, long[] wts) throws IOException {
+		FileInputStream fis = fio.openFileInputStream(inf);
+		if (fis == null)
+			throw new IOException("Could not open "+inf.getPath());
+		byte[] buf = new byte[PROGRESS_INTERVAL];
+		int[] block = new int[256];
+		long[] counts = new long[256];
+		long total = inf.length();
+		long done = 0;
+		int n;
+		try (fis) {
+			while ((n = fis.readNBytes(buf, 0, buf.length)) > 0) {
+				// count each block into ints, and add them up as longs
+				Arrays.fill(block, 0);
+				ByteCounter.count(buf, 0, n, block);
+				for (int c = 0; c < 256; c++) {
+					counts[c] += block[c];
+				}
+				done += n;
+				if (n == buf.length && progress != null) {
+					if (progress.isCancelled())
+						throw new InterruptedIOException("Cancelled");
+					progress.progress(done, total);
+				}
+			}
+		}
+		for (int c = NUM_ASCII; c < 256; c++) {
+			if (counts[c] != 0)
+				throw new IOException("Not an ASCII text file: "+inf.getPath());
+		}
+		for (int c = 0; c < NUM_ASCII; c++) {
+			wts[c] += counts[c];
+		}
+		wts[0]++;
+		return wts;
+	}
+	
+	/**
+	 * Counts the character weights of inf into int weights, for the original
+	 * encoder; otherwise as countWeights(File, long[]).
+	 *
+	 * @param inf the text file to read
+	 * @param wts the array to accumulate the weights into (NUM_ASCII entries)
+	 * @return wts
+	 * @throws IOException Signals that an I/O exception has occurred, the file is
+	 *         not ASCII text, or a weight would not fit in an int
+	 */
+	int[] countWeights(File inf, int[] wts) throws IOException {
+		long[] counts = countWeights(inf, new long[NUM_ASCII]);
+		for (int c = 0; c < NUM_ASCII; c++) {
+			if (wts[c] + counts[c] > Integer.MAX_VALUE)
+				throw new IOException("Too many characters for int weights: "+inf.getPath());
+		}
+		for (int c = 0; c < NUM_ASCII; c++) {
+			wts[c] += (int) counts[c];
+		}
+		return wts;
+	}
+	
 	boolean inputErrors(int status) {
 		switch (status) {
 		case MyFileIO.EMPTY_NAME:
@@ -196,12 +484,8 @@ public class GenWeights {
 				return;
 			}
 		}
-		BufferedWriter bw = fio.openBufferedWriter(outf);
 		try {
-			for (int i = 0; i < weights.length; i++) {
-					bw.write(i + "," + weights[i] + ",\n");
-			}
-			fio.closeFile(bw);
+			writeWeights(outf, weights);
 			hca.issueAlert(HuffAlerts.DONE, "Information", "File created successfully");
 		} catch (IOException e) {
 			e.printStackTrace();
@@ -209,6 +493,258 @@ public class GenWeights {
 		return;
 	}
 	
+	/**
+	 * Counts the character weights of the first len bytes of text into wts, including
+	 * the EOF character. This is the in-memory counterpart of countWeights(File, int[]),
+	 * for callers that have already read the whole file.
+	 *
+	 * @param text the file contents
+	 * @param len the number of bytes of text to count
+	 * @param wts the array to accumulate the weights into (NUM_ASCII entries)
+	 * @return wts
+	 */
+	int[] countWeights(byte[] text, int len, int[] wts) {
+		int[] counts = ByteCounter.count(text, 0, len, new int[256]);
+		for (int c = NUM_ASCII; c < 256; c++) {
+			if (counts[c] != 0)
+				throw new ArrayIndexOutOfBoundsException("Not an ASCII character: "+c);
+		}
+		for (int c = 0; c < NUM_ASCII; c++) {
+			wts[c] += counts[c];
+		}
+		wts[0]++;
+		return wts;
+	}
+	
+	/**
+	 * Counts the byte values in len bytes of data, starting at off, into wts. Unlike
+	 * countWeights, the full byte range is counted and no EOF character is added;
+	 * this is used for the blocks of the container format, where the block length
+	 * is stored instead.
+	 *
+	 * @param data the data
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @param wts the array to accumulate the counts into (256 entries)
+	 * @return wts
+	 */
+	int[] countBytes(byte[] data, int off, int len, int[] wts) {
+		return ByteCounter.count(data, off, len, wts);
+	}
+	
+	/**
+	 * Reads a weights file written by writeWeights, in either format, with one
+	 * bulk read. No status checking is done and no alerts are raised.
+	 *
+	 * @param inf the weights file to read
+	 * @return the weights (NUM_ASCII entries)
+	 * @throws IOException if the file cannot be read or is not a weights file
+	 */
+	int[] readWeights(File inf) throws IOException {
+		return new BinaryIO().parseWeights(Files.readAllBytes(inf.toPath()), NUM_ASCII);
+	}
+	
+	/**
+	 * Reads a weights file as long weights, for tables whose counts may not fit
+	 * in an int. Otherwise as readWeights.
+	 *
+	 * @param inf the weights file to read
+	 * @return the weights (NUM_ASCII entries)
+	 * @throws IOException if the file cannot be read or is not a weights file
+	 */
+	long[] readLongWeights(File inf) throws IOException {
+		return new BinaryIO().parseLongWeights(Files.readAllBytes(inf.toPath()), NUM_ASCII);
+	}
+	
+	/**
+	 * Adds the weights of a new document to an existing weights file, without
+	 * rescanning the documents already counted in it. The existing weights are
+	 * first decayed by decayFactor (1 keeps them as they are), so the table can
+	 * follow drift in the corpus; if the weights file does not exist yet, it is
+	 * created from the new document alone. The table is kept as long counts, so
+	 * it can grow past the int range; afterwards, weights holds the updated table.
+	 * 
+	 * The input file is checked as in generateWeights, and the weights file as in
+	 * saveWeightsToFile, except that an existing file is expected and is not confirmed.
+	 *
+	 * @param outfName the name of the weights file to update
+	 * @param infName the name of the new document
+	 * @param decayFactor the factor the existing weights are multiplied by, greater than 0 and at most 1
+	 */
+	void updateWeightsFile(String outfName, String infName, double decayFactor) {
+		File inf = new File(infName);
+		int status = fio.checkFileStatus(inf, true);
+		if (status != MyFileIO.FILE_OK) {
+			if (inputErrors(status))
+				return;
+		}
+		if (outfName.length() == 0) {
+			hca.issueAlert(HuffAlerts.OUTPUT, "Output Error", "Empty file name");
+			return;
+		}
+		File outf = new File(outfName);
+		status = fio.checkFileStatus(outf, false);
+		if (status != MyFileIO.FILE_OK && status != MyFileIO.WRITE_EXISTS) {
+			if (outputErrors(status))
+				return;
+		}
+		try {
+			WeightHistogram table = new WeightHistogram(NUM_ASCII);
+			if (status == MyFileIO.WRITE_EXISTS)
+				table = WeightHistogram.of(readLongWeights(outf)).decay(decayFactor);
+			initWeights();
+			countWeights(inf, weights);
+			table.merge(WeightHistogram.of(weights));
+			weights = table.toLongWeights();
+			writeWeights(outf, weights);
+			hca.issueAlert(HuffAlerts.DONE, "Information", "Weights file updated");
+		} catch (InterruptedIOException e) {
+			// cancelled; the weights file has not been written yet
+			initWeights();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return;
+	}
+	
+	/**
+	 * Counts the bytes of inf into a histogram shared with other threads. Unlike
+	 * countWeights, this may be called on one GenWeights from several threads at
+	 * once, for several files that feed the same table; no EOF character is added.
+	 *
+	 * @param inf the file to read
+	 * @param hist the shared histogram (256 entries)
+	 * @return the number of bytes counted
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	long countBytes(File inf, ConcurrentHistogram hist) throws IOException {
+		FileInputStream fis = fio.openFileInputStream(inf);
+		if (fis == null)
+			throw new IOException("Could not open "+inf.getPath());
+		byte[] buf = new byte[PROGRESS_INTERVAL];
+		long done = 0;
+		int n;
+		try (fis) {
+			while ((n = fis.read(buf)) > 0) {
+				hist.addBytes(buf, 0, n);
+				done += n;
+			}
+		}
+		return done;
+	}
+	
+	/**
+	 * Counts the bytes of several files into one table, reading them on
+	 * a pool of threads that all add to one ConcurrentHistogram.
+	 *
+	 * @param files the files
+	 * @param threads the number of threads
+	 * @return the byte counts of all the files (256 entries)
+	 * @throws IOException if a file could not be read
+	 */
+	WeightHistogram countBytes(List<File> files, int threads) throws IOException {
+		ConcurrentHistogram hist = new ConcurrentHistogram(256);
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Long>> results = new ArrayList<Future<Long>>();
+			for (File f : files) {
+				results.add(pool.submit(() -> countBytes(f, hist)));
+			}
+			for (Future<Long> r : results) {
+				r.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted counting files");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Counting failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+		return hist.snapshot();
+	}
+	
+	/**
+	 * Checks whether byte b belongs in a word: letters, digits, and bytes of
+	 * 0x80 or more (so that UTF-8 encoded letters stay within their words).
+	 *
+	 * @param b the byte
+	 * @return true, if b is a word byte
+	 */
+	static boolean isWordByte(byte b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b < 0;
+	}
+
+	/**
+	 * Splits len bytes of data into tokens for word-level coding: each token is
+	 * either a word (a run of word bytes) or a separator (a run of anything else,
+	 * such as ", " or a line break). Tokens longer than maxLen are cut into pieces.
+	 *
+	 * @param data the data
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @param maxLen the longest token, 1 or more
+	 * @param ends receives the end offset (exclusive) of each token; needs len entries
+	 * @return the number of tokens
+	 */
+	int tokenize(byte[] data, int off, int len, int maxLen, int[] ends) {
+		int n = 0;
+		int start = off;
+		for (int i = off + 1; i <= off + len; i++) {
+			if (i == off + len || i - start == maxLen || isWordByte(data[i]) != isWordByte(data[i - 1])) {
+				ends[n++] = i;
+				start = i;
+			}
+		}
+		return n;
+	}
+	
+	/**
+	 * Writes wts to outf in the weights file format (one "index,weight," line
+	 * per character), or in the binary weights format if the file name ends
+	 * with BINARY_WEIGHTS_EXT. No status checking is done and no alerts are raised.
+	 *
+	 * @param outf the weights file to write
+	 * @param wts the weights to write
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void writeWeights(File outf, int[] wts) throws IOException {
+		writeWeights(outf, WeightHistogram.of(wts).toLongWeights());
+	}
+
+	/**
+	 * Writes long weights to outf, in the text or binary format as writeWeights(File, int[]).
+	 *
+	 * @param outf the weights file to write
+	 * @param wts the weights to write
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void writeWeights(File outf, long[] wts) throws IOException {
+		if (outf.getName().endsWith(BINARY_WEIGHTS_EXT)) {
+			BufferedOutputStream bos = fio.openBufferedOutputStream(outf);
+			if (bos == null)
+				throw new IOException("Could not open "+outf.getPath());
+			try {
+				new BinaryIO().writeWeightsFile(bos, wts);
+			} finally {
+				fio.closeStream(bos);
+			}
+			return;
+		}
+		BufferedWriter bw = fio.openBufferedWriter(outf);
+		if (bw == null)
+			throw new IOException("Could not open "+outf.getPath());
+		try {
+			for (int i = 0; i < wts.length; i++) {
+				bw.write(i + "," + wts[i] + ",\n");
+			}
+		} finally {
+			fio.closeFile(bw);
+		}
+	}
+
 	 /**
 		 * 
 		 *
@@ -244,6 +780,6 @@ public class GenWeights {
 	int[] readInputFileAndReturnWeights(String infName) {
 		System.out.println("Generating weights for: "+infName);
 		generateWeights(infName);
-		return weights;
+		return getWeights();
 	}	
 }
@@ -0,0 +1,164 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * JUnit test for the BatchCompressor class. The batch output for each file
+ * must be identical to encoding the same file on its own with EncodeDecode.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+class HF_Batch_Test {
+
+	private String dir = "data/";
+	private List<String> files = Arrays.asList(dir+"simple.txt", dir+"Green Eggs and Ham.txt",
+			                                   dir+"The Cat in the Hat.txt", dir+"missing.txt",
+			                                   dir+"Harry Potter and the Sorcerer.txt");
+
+	/**
+	 * Compress the files in a batch, and check the per-file status and that the results
+	 * come back in the order the files were given.
+	 */
+	@Test
+	@Order(1)
+	void test_batch_status() {
+		BatchCompressor bc = new BatchCompressor(3);
+		bc.setOutputDirs("encode/batch_", "weights/batch_");
+		bc.setOverwrite(true);
+		bc.setMaxInFlight(3);
+		List<BatchResult> results = bc.compress(files);
+		assertEquals(files.size(), results.size());
+		for (int i = 0; i < files.size(); i++) {
+			System.out.println(results.get(i));
+			assertEquals(files.get(i), results.get(i).getFileName());
+		}
+		assertEquals(BatchResult.Status.INPUT_ERROR, results.get(3).getStatus());
+		assertTrue(results.get(0).isOk());
+		assertTrue(results.get(4).isOk());
+		assertTrue(results.get(4).getOutputBytes() < results.get(4).getInputBytes());
+	}
+
+	/**
+	 * Existing output files are not replaced unless overwrite is set.
+	 */
+	@Test
+	@Order(2)
+	void test_batch_noOverwrite() {
+		BatchCompressor bc = new BatchCompressor(2);
+		bc.setOutputDirs("encode/batch_", "weights/batch_");
+		bc.setOverwrite(true);
+		assertTrue(bc.compress(files.subList(0, 1)).get(0).isOk());
+		bc.setOverwrite(false);
+		assertEquals(BatchResult.Status.OUTPUT_ERROR, bc.compress(files.subList(0, 1)).get(0).getStatus());
+	}
+
+	/**
+	 * Each batch compressed file must match the output of EncodeDecode.encode.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	@Order(3)
+	void test_batch_matchesEncode() throws IOException {
+		BatchCompressor bc = new BatchCompressor(4);
+		bc.setOutputDirs("encode/batch_", "weights/batch_");
+		bc.setOverwrite(true);
+		List<BatchResult> results = bc.compress(files);
+		HuffCompAlerts hca = new HuffCompAlerts(null);
+		for (BatchResult r : results) {
+			if (!r.isOk()) continue;
+			File single = new File("encode/single.bin");
+			single.delete();
+			EncodeDecode enc = new EncodeDecode(new GenWeights(hca), hca);
+			enc.encode(r.getFileName(), single.getPath(), bc.weightsFileName(r.getFileName()), true);
+			assertTrue(Arrays.equals(Files.readAllBytes(single.toPath()),
+					                 Files.readAllBytes(new File(r.getBinFileName()).toPath())));
+		}
+	}
+
+	/**
+	 * The virtual thread mode must produce the same files and statuses as the platform pool.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	@Order(4)
+	void test_batch_virtualThreads() throws IOException {
+		BatchCompressor bc = new BatchCompressor(2);
+		bc.setOutputDirs("encode/batch_", "weights/batch_");
+		bc.setOverwrite(true);
+		List<BatchResult> platform = bc.compress(files);
+		bc.setOutputDirs("encode/vbatch_", "weights/vbatch_");
+		bc.setVirtualThreads(true);
+		List<BatchResult> virtual = bc.compress(files);
+		for (int i = 0; i < files.size(); i++) {
+			assertEquals(platform.get(i).getStatus(), virtual.get(i).getStatus());
+			if (!virtual.get(i).isOk()) continue;
+			assertTrue(Arrays.equals(Files.readAllBytes(new File(platform.get(i).getBinFileName()).toPath()),
+					                 Files.readAllBytes(new File(virtual.get(i).getBinFileName()).toPath())));
+		}
+	}
+
+	/**
+	 * Files with the same base name would write the same output files, so
+	 * only the first of them is compressed; the others fail with OUTPUT_ERROR.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	@Order(5)
+	void test_batch_nameClash() throws IOException {
+		File other = Files.createTempDirectory("batch").toFile();
+		File copy = new File(other, "simple.txt");
+		Files.copy(new File(dir+"simple.txt").toPath(), copy.toPath());
+		BatchCompressor bc = new BatchCompressor(2);
+		bc.setOutputDirs("encode/batch_", "weights/batch_");
+		bc.setOverwrite(true);
+		for (boolean virtual : new boolean[] {false, true}) {
+			bc.setVirtualThreads(virtual);
+			List<BatchResult> results = bc.compress(Arrays.asList(dir+"simple.txt", copy.getPath(), dir+"simple.txt"));
+			for (BatchResult r : results) {
+				System.out.println(r);
+			}
+			assertTrue(results.get(0).isOk());
+			assertEquals(BatchResult.Status.OUTPUT_ERROR, results.get(1).getStatus());
+			assertEquals(BatchResult.Status.OUTPUT_ERROR, results.get(2).getStatus());
+		}
+		copy.delete();
+		other.delete();
+	}
+
+	/**
+	 * In the virtual thread mode, files above the in-memory limit are streamed
+	 * from disk instead, with the same output.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	@Order(6)
+	void test_batch_maxInMemory() throws IOException {
+		BatchCompressor bc = new BatchCompressor(2);
+		bc.setOutputDirs("encode/batch_", "weights/batch_");
+		bc.setOverwrite(true);
+		List<BatchResult> platform = bc.compress(files);
+		bc.setOutputDirs("encode/vbatch_", "weights/vbatch_");
+		bc.setVirtualThreads(true);
+		bc.setMaxInMemory(1000);
+		List<BatchResult> virtual = bc.compress(files);
+		for (int i = 0; i < files.size(); i++) {
+			assertEquals(platform.get(i).getStatus(), virtual.get(i).getStatus());
+			if (!virtual.get(i).isOk()) continue;
+			assertTrue(Arrays.equals(Files.readAllBytes(new File(platform.get(i).getBinFileName()).toPath()),
+					                 Files.readAllBytes(new File(virtual.get(i).getBinFileName()).toPath())));
+		}
+	}
+}
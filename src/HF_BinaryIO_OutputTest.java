@@ -1,3 +1,5 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.BufferedInputStream;
@@ -445,6 +447,36 @@ class HF_BinaryIO_OutputTest {
 		return readByte;
 	}
 	
+	/**
+	 * Tests the bulk conversions between bytes and binary strings.
+	 * Methodology:
+	 *   - convert 1024 random bytes to chars and to a StringBuilder
+	 *   - compare both against the per-byte convBinToStr strings
+	 *   - convert the string back to bytes and compare with the input
+	 *   - check that convBinToStr only uses the low 8 bits of its argument
+	 */
+	@Test
+	@Order(8)
+	void test_bulkConversion() {
+		System.out.println("Test 8: Checking bulk conversion of bytes to and from binary strings");
+		byte[] bytes = new byte[1024];
+		new Random(8).nextBytes(bytes);
+		StringBuilder expect = new StringBuilder();
+		for (byte b : bytes) {
+			expect.append(binUtils.convBinToStr(b & 0xff));
+		}
+		char[] chars = new char[bytes.length * 8 + 3];
+		assertEquals(bytes.length * 8 + 3, binUtils.convBinToChars(bytes, 0, bytes.length, chars, 3));
+		assertEquals(expect.toString(), new String(chars, 3, bytes.length * 8));
+		StringBuilder sb = new StringBuilder("x");
+		assertEquals("x" + expect, binUtils.appendBinString(bytes, 0, bytes.length, sb).toString());
+		byte[] back = new byte[bytes.length];
+		assertEquals(bytes.length, binUtils.convStrToBin(sb, 1, back, 0, bytes.length));
+		assertArrayEquals(bytes, back);
+		assertEquals("11111111", binUtils.convBinToStr(-1));
+		assertEquals("10100101", binUtils.convBinToStr(0x1a5));
+	}
+	
 	/**
 	 * Helper method that calls binUtils.writeBinString() to:
 	 * a) write all possible bytes to bOutS
@@ -0,0 +1,193 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * JUnit test for BitReader, and for decoding with it.
+ */
+class HF_BitReader_Test {
+
+	/**
+	 * Random-length fields written by BitWriter read back the same, from an array and
+	 * from a stream with a small buffer, with 0 padding after the end.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	void test_readBack() throws IOException {
+		Random rnd = new Random(31);
+		int[] lens = new int[5000];
+		long[] vals = new long[lens.length];
+		ByteBuffer buf = ByteBuffer.allocate(lens.length * 8 + 16);
+		BitWriter bw = new BitWriter(buf, full -> full);
+		for (int i = 0; i < lens.length; i++) {
+			lens[i] = 1 + rnd.nextInt(BitReader.MAX_BITS);
+			vals[i] = rnd.nextLong() >>> (64 - lens[i]);
+			bw.writeBits(vals[i], lens[i]);
+		}
+		bw.flush();
+		byte[] data = Arrays.copyOf(buf.array(), buf.position());
+		BitReader[] readers = { new BitReader(data, 0, data.length),
+				                new BitReader(new ByteArrayInputStream(data), 19) };
+		for (BitReader br : readers) {
+			for (int i = 0; i < lens.length; i++) {
+				assertEquals(vals[i], br.peek(lens[i]));
+				assertEquals(vals[i], br.readBits(lens[i]));
+			}
+			br.alignToByte();
+			assertFalse(br.isOverrun());
+			assertEquals(data.length * 8L, br.getBitsRead());
+			assertEquals(0, br.readBits(BitReader.MAX_BITS));
+			assertTrue(br.isOverrun());
+		}
+	}
+
+	/**
+	 * Decode of every data file gives back the original text.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	void test_decode_roundTrip() throws IOException {
+		String[] bases = {"simple", "Green Eggs and Ham", "warAndPeace"};
+		for (String base : bases) {
+			for (boolean optimize : new boolean[] {true, false}) {
+				HuffCompAlerts hca = new HuffCompAlerts(null);
+				GenWeights gw = new GenWeights(hca);
+				EncodeDecode encdec = new EncodeDecode(gw, hca);
+				File txt = new File("data/"+base+".txt");
+				gw.generateWeights(txt.getPath());
+				gw.saveWeightsToFile("weights/bitreader.csv");
+				new File("encode/bitreader.bin").delete();
+				new File("decode/bitreader.txt").delete();
+				encdec.encode(txt.getPath(), "encode/bitreader.bin", "weights/bitreader.csv", optimize);
+				encdec.decode("encode/bitreader.bin", "decode/bitreader.txt", "weights/bitreader.csv", optimize);
+				assertTrue(Arrays.equals(Files.readAllBytes(txt.toPath()),
+						                 Files.readAllBytes(new File("decode/bitreader.txt").toPath())));
+			}
+		}
+	}
+
+	/**
+	 * The streaming decoder gives the same text however the encoded data is
+	 * split into chunks, stops at EOF, and reports truncated data as unfinished.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	void test_streamingDecoder() throws IOException {
+		byte[] text = Files.readAllBytes(new File("data/Green Eggs and Ham.txt").toPath());
+		Random rnd = new Random(43);
+		for (boolean optimize : new boolean[] {true, false}) {
+			HuffCompAlerts hca = new HuffCompAlerts(null);
+			GenWeights gw = new GenWeights(hca);
+			EncodeDecode encdec = new EncodeDecode(gw, hca);
+			int[] wts = gw.countWeights(text, text.length, new int[128]);
+			byte[] enc = encdec.encodeBytes(text, text.length, wts, optimize);
+			HuffmanCompressionUtilities huffUtil = new HuffmanCompressionUtilities();
+			huffUtil.setWeights(wts);
+			huffUtil.buildHuffmanTree(optimize);
+			for (int trial = 0; trial < 20; trial++) {
+				StreamingDecoder dec = new StreamingDecoder(huffUtil.getTreeRoot());
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				int off = 0;
+				while (off < enc.length) {
+					int n = Math.min(enc.length - off, 1 + rnd.nextInt(trial < 10 ? 3 : 500));
+					assertEquals(n, dec.push(enc, off, n, out));
+					off += n;
+				}
+				assertTrue(dec.isFinished());
+				assertEquals(text.length, dec.getDecoded());
+				assertTrue(Arrays.equals(text, out.toByteArray()));
+				assertEquals(0, dec.push(new byte[] {1, 2, 3}, 0, 3, out));
+			}
+			StreamingDecoder dec = new StreamingDecoder(huffUtil.getTreeRoot());
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			dec.push(enc, 0, enc.length - 2, out);
+			assertFalse(dec.isFinished());
+		}
+	}
+
+	/**
+	 * writeSymbols gives exactly the same bytes with and without the vector
+	 * kernel: for text, for random bytes with codes long enough that some
+	 * groups cannot be packed, and for an unoptimized table with codes longer
+	 * than 64 bits. Bytes with no code fail either way.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	void test_vectorWriteSymbols() throws IOException {
+		byte[] text = Files.readAllBytes(new File("data/warAndPeace.txt").toPath());
+		HuffmanCompressionUtilities huffUtil = new HuffmanCompressionUtilities();
+		huffUtil.setWeights(new GenWeights(null).countBytes(text, 0, text.length, new int[256]));
+		huffUtil.buildHuffmanTree(true);
+		huffUtil.createHuffmanCodes(huffUtil.getTreeRoot(), "", 0);
+		assertEquals(pack(huffUtil.getCodeTable(), text, false), pack(huffUtil.getCodeTable(), text, true));
+
+		Random rnd = new Random(49);
+		int[] skewed = new int[256];
+		for (int c = 0; c < 256; c++) {
+			skewed[c] = 1 + (int) Math.pow(1.07, c);
+		}
+		byte[] noise = new byte[100003];
+		for (int i = 0; i < noise.length; i++) {
+			noise[i] = (byte) (255 - Math.min(255, (int) -Math.log(rnd.nextDouble()) * 12));
+		}
+		huffUtil.setWeights(skewed);
+		huffUtil.buildHuffmanTree(true);
+		huffUtil.createHuffmanCodes(huffUtil.getTreeRoot(), "", 0);
+		assertTrue(huffUtil.getCodeTable().getMaxLength() > 14);
+		assertEquals(pack(huffUtil.getCodeTable(), noise, false), pack(huffUtil.getCodeTable(), noise, true));
+
+		int[] sparse = new int[128];
+		sparse['a'] = 1000;
+		sparse['b'] = 10;
+		huffUtil.setWeights(sparse);
+		huffUtil.buildHuffmanTree(false);
+		huffUtil.createHuffmanCodes(huffUtil.getTreeRoot(), "", 0);
+		CodeTable full = huffUtil.getCodeTable();
+		assertTrue(full.getMaxLength() > 64);
+		byte[] ascii = new byte[5000];
+		for (int i = 0; i < ascii.length; i++) {
+			ascii[i] = (byte) ((i % 7 == 0) ? rnd.nextInt(128) : 'a');
+		}
+		assertEquals(pack(full, ascii, false), pack(full, ascii, true));
+		ascii[4000] = (byte) 200;
+		for (boolean vector : new boolean[] {false, true}) {
+			assertThrows(IOException.class, () -> pack(full, ascii, vector));
+		}
+	}
+
+	/**
+	 * Encodes data with BitWriter.writeSymbols, in uneven pieces.
+	 *
+	 * @param codes the code table
+	 * @param data the data
+	 * @param vector true to use the vector kernel (if it is available)
+	 * @return the encoded bytes, as a string for easy comparison
+	 * @throws IOException if a byte has no code
+	 */
+	private String pack(CodeTable codes, byte[] data, boolean vector) throws IOException {
+		ByteArraySink sink = new ByteArraySink(data.length);
+		BitWriter bw = new BitWriter(sink.getBuffer(), sink);
+		bw.setVectorized(vector);
+		for (int off = 0; off < data.length; off += 4099) {
+			bw.writeSymbols(codes, data, off, Math.min(4099, data.length - off));
+		}
+		bw.flush();
+		return Arrays.toString(sink.toByteArray());
+	}
+}
@@ -0,0 +1,131 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * JUnit test for ChannelSink and DirectBufferPool.
+ */
+class HF_ChannelSink_Test {
+
+	/**
+	 * Released buffers are handed out again, up to the pool limit.
+	 */
+	@Test
+	void test_pool_reuse() {
+		DirectBufferPool pool = new DirectBufferPool(256, 1);
+		ByteBuffer a = pool.acquire();
+		ByteBuffer b = pool.acquire();
+		assertTrue(a.isDirect());
+		a.put((byte) 1);
+		pool.release(a);
+		pool.release(b);
+		ByteBuffer c = pool.acquire();
+		assertSame(a, c);
+		assertEquals(0, c.position());
+		pool.release(ByteBuffer.allocateDirect(128));
+		assertTrue(pool.acquire() != c);
+	}
+
+	/**
+	 * The file encoder (channel sink) and the in-memory encoder produce the same
+	 * bytes, and concat joins encoded files unchanged.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	void test_encode_and_concat() throws IOException {
+		GenWeights gw = new GenWeights(null);
+		EncodeDecode encdec = new EncodeDecode(gw, null);
+		File a = new File("data/Green Eggs and Ham.txt");
+		File b = new File("data/The Cat in the Hat.txt");
+		File encA = new File("encode/sink_a.bin");
+		File encB = new File("encode/sink_b.bin");
+		File joined = new File("encode/sink_ab.bin");
+		byte[] textA = Files.readAllBytes(a.toPath());
+		int[] wts = gw.countWeights(a, new int[128]);
+		encdec.encodeFile(a, encA, wts, true);
+		byte[] bytesA = Files.readAllBytes(encA.toPath());
+		assertTrue(Arrays.equals(encdec.encodeBytes(textA, textA.length, wts, true), bytesA));
+
+		encdec.encodeFile(b, encB, gw.countWeights(b, new int[128]), false);
+		byte[] bytesB = Files.readAllBytes(encB.toPath());
+		long len = ChannelSink.concat(List.of(encA, encB), joined);
+		byte[] both = Files.readAllBytes(joined.toPath());
+		assertEquals(bytesA.length + bytesB.length, len);
+		assertTrue(Arrays.equals(bytesA, Arrays.copyOfRange(both, 0, bytesA.length)));
+		assertTrue(Arrays.equals(bytesB, Arrays.copyOfRange(both, bytesA.length, both.length)));
+	}
+
+	/**
+	 * The predicted encoded size (sum of weight times code length) is exactly
+	 * the size of the encoded file, and the file is cut to its real size when
+	 * it was pre-allocated from weights counted over a different text. Weights
+	 * at corpus scale do not pre-allocate the file at all.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	void test_predictedSize() throws IOException {
+		GenWeights gw = new GenWeights(null);
+		EncodeDecode encdec = new EncodeDecode(gw, null);
+		File enc = new File("encode/sink_size.bin");
+		File wtsFile = File.createTempFile("size", ".csv");
+		String[] bases = {"simple", "Green Eggs and Ham", "warAndPeace"};
+		for (String base : bases) {
+			File txt = new File("data/" + base + ".txt");
+			int[] wts = gw.countWeights(txt, new int[128]);
+			gw.writeWeights(wtsFile, wts);
+			for (boolean optimize : new boolean[] {true, false}) {
+				long predicted = encdec.predictEncodedSize(txt, wtsFile, optimize);
+				encdec.encodeFile(txt, enc, wts, optimize);
+				assertEquals(enc.length(), predicted, base);
+				byte[] text = Files.readAllBytes(txt.toPath());
+				assertEquals(predicted, encdec.encodeBytes(text, text.length, wts, optimize).length, base);
+			}
+		}
+		int[] big = gw.countWeights(new File("data/warAndPeace.txt"), new int[128]);
+		File small = new File("data/Green Eggs and Ham.txt");
+		gw.writeWeights(wtsFile, big);
+		encdec.encodeFile(small, enc, big, false);
+		assertEquals(enc.length(), encdec.predictEncodedSize(small, wtsFile, false));
+		assertTrue(enc.length() < small.length());
+
+		// a corpus-scale table with the same codes: the file must not be
+		// allocated from the table's counts
+		HuffCompAlerts hca = new HuffCompAlerts(null);
+		EncodeDecode scaled = new EncodeDecode(new GenWeights(hca), hca);
+		int[] own = gw.countWeights(small, new int[128]);
+		encdec.encodeFile(small, enc, own, false);
+		long expected = enc.length();
+		long[] huge = new long[own.length];
+		for (int i = 0; i < own.length; i++) {
+			huge[i] = (long) own[i] << 40;
+		}
+		File hugeFile = File.createTempFile("size", ".csv");
+		gw.writeWeights(hugeFile, huge);
+		enc.delete();
+		scaled.encode(small.getPath(), enc.getPath(), hugeFile.getPath(), false);
+		assertEquals(expected, enc.length());
+		assertEquals(expected, encdec.predictEncodedSize(small, hugeFile, false));
+		hugeFile.delete();
+
+		int[] sparse = new int[128];
+		sparse['a'] = 5;
+		sparse[0] = 1;
+		gw.writeWeights(wtsFile, sparse);
+		assertEquals(-1, encdec.predictEncodedSize(small, wtsFile, true));
+		assertEquals(-1, new CodeTable(new String[] {"0", null}).encodedBits(new int[] {3, 1}));
+		assertEquals(3, new CodeTable(new String[] {"0", null}).encodedBits(new long[] {3, 0}));
+		wtsFile.delete();
+		enc.delete();
+	}
+}
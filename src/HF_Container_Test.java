@@ -0,0 +1,460 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * JUnit test for the container format and its block codecs.
+ */
+class HF_Container_Test {
+
+	private String[] bases = {"simple", "Green Eggs and Ham", "The Cat in the Hat",
+			                  "Harry Potter and the Sorcerer", "warAndPeace"};
+
+	/**
+	 * Compresses data with the given mode and block size, and decompresses it again.
+	 *
+	 * @param data the data
+	 * @param mode the mode
+	 * @param blockSize the block size
+	 * @return the decompressed data
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	static byte[] roundTrip(byte[] data, HuffContainer.Mode mode, int blockSize) throws IOException {
+		HuffContainer hc = new HuffContainer(mode, blockSize);
+		ByteArrayOutputStream packed = new ByteArrayOutputStream();
+		hc.compress(new ByteArrayInputStream(data), packed);
+		ByteArrayOutputStream unpacked = new ByteArrayOutputStream();
+		hc.decompress(new ByteArrayInputStream(packed.toByteArray()), unpacked);
+		return unpacked.toByteArray();
+	}
+
+	/**
+	 * Compresses data into a container.
+	 *
+	 * @param data the data
+	 * @param mode the mode
+	 * @param blockSize the block size
+	 * @param threads the number of threads
+	 * @return the container
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	static byte[] pack(byte[] data, HuffContainer.Mode mode, int blockSize, int threads) throws IOException {
+		HuffContainer hc = new HuffContainer(mode, blockSize);
+		hc.setThreads(threads);
+		ByteArrayOutputStream packed = new ByteArrayOutputStream();
+		hc.compress(new ByteArrayInputStream(data), packed);
+		return packed.toByteArray();
+	}
+
+	/**
+	 * Every data file round trips in every mode, through files.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	void test_dataFiles() throws IOException {
+		for (HuffContainer.Mode mode : HuffContainer.Mode.values()) {
+			HuffContainer hc = new HuffContainer(mode);
+			for (String base : bases) {
+				File txt = new File("data/"+base+".txt");
+				File hfc = new File("encode/container.hfc");
+				File out = new File("decode/container.txt");
+				long size = hc.compress(txt, hfc);
+				assertTrue(HuffContainer.isContainer(hfc));
+				assertTrue(size < txt.length() || txt.length() < 100, mode+" "+base);
+				hc.decompress(hfc, out);
+				assertTrue(Arrays.equals(Files.readAllBytes(txt.toPath()), Files.readAllBytes(out.toPath())), mode+" "+base);
+			}
+		}
+		assertFalse(HuffContainer.isContainer(new File("data/simple.txt")));
+	}
+
+	/**
+	 * Edge cases: empty input, one repeated byte, every byte value, and
+	 * lengths that are not a multiple of the stream count, with small blocks.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	void test_edgeCases() throws IOException {
+		Random rnd = new Random(32);
+		byte[] binary = new byte[10007];
+		rnd.nextBytes(binary);
+		byte[] skewed = new byte[5003];
+		for (int i = 0; i < skewed.length; i++) {
+			skewed[i] = (byte) (rnd.nextInt(8) == 0 ? rnd.nextInt(256) : 'e');
+		}
+		byte[][] inputs = { new byte[0], new byte[] {7}, new byte[] {1, 2, 3}, new byte[999], binary, skewed };
+		for (HuffContainer.Mode mode : HuffContainer.Mode.values()) {
+			for (byte[] in : inputs) {
+				for (int blockSize : new int[] {1, 5, 1000, HuffContainer.DEFAULT_BLOCK_SIZE}) {
+					assertTrue(Arrays.equals(in, roundTrip(in, mode, blockSize)), mode+" len="+in.length+" block="+blockSize);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Damaged containers are rejected with an IOException.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	void test_corrupt() throws IOException {
+		HuffContainer hc = new HuffContainer(HuffContainer.Mode.HUFFMAN_X4);
+		assertThrows(IOException.class,
+				     () -> hc.decompress(new ByteArrayInputStream("not a container".getBytes()), new ByteArrayOutputStream()));
+		byte[] packed = new byte[0];
+		try {
+			ByteArrayOutputStream bos = new ByteArrayOutputStream();
+			hc.compress(new ByteArrayInputStream(Files.readAllBytes(new File("data/simple.txt").toPath())), bos);
+			packed = bos.toByteArray();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		byte[] truncated = Arrays.copyOf(packed, packed.length - 3);
+		assertThrows(IOException.class,
+				     () -> hc.decompress(new ByteArrayInputStream(truncated), new ByteArrayOutputStream()));
+		assertEquals(HuffContainer.Mode.HUFFMAN_X4, HuffContainer.Mode.fromLabel("huffman4"));
+
+		// an empty code table cannot decode any bytes
+		ByteArrayOutputStream empty = new ByteArrayOutputStream();
+		new BinaryIO().writeSparseWeights(empty, new int[256]);
+		empty.write(new byte[12]);
+		byte[] payload = empty.toByteArray();
+		assertThrows(IOException.class,
+				     () -> new HuffmanBlockCodec(4).decodeBlock(payload, 0, payload.length, new byte[16], 0, 16));
+
+		// block lengths that read as negative varints, serial and parallel
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		hc.compress(new ByteArrayInputStream(new byte[0]), bos);
+		byte[] header = Arrays.copyOf(bos.toByteArray(), bos.size() - 1);
+		for (long[] lens : new long[][] {{-1, 4}, {4, -1}}) {
+			ByteArrayOutputStream bad = new ByteArrayOutputStream();
+			bad.write(header);
+			new BinaryIO().writeVarint(bad, lens[0]);
+			new BinaryIO().writeVarint(bad, lens[1]);
+			bad.write(new byte[8]);
+			for (int threads : new int[] {1, 2}) {
+				HuffContainer reader = new HuffContainer(HuffContainer.Mode.HUFFMAN_X4);
+				reader.setThreads(threads);
+				assertThrows(IOException.class,
+						     () -> reader.decompress(new ByteArrayInputStream(bad.toByteArray()), new ByteArrayOutputStream()),
+						     Arrays.toString(lens)+" threads="+threads);
+			}
+		}
+	}
+
+	/**
+	 * Normalized counts keep every character and sum to the table size, and on
+	 * skewed data tANS beats Huffman's whole-bit codes.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	void test_tans() throws IOException {
+		int[] counts = new int[256];
+		counts['a'] = 1000000;
+		counts['b'] = 1;
+		counts['c'] = 3;
+		for (int i = 200; i < 256; i++) {
+			counts[i] = 1;
+		}
+		int[] norm = TansBlockCodec.normalize(counts, 12);
+		int sum = 0;
+		for (int i = 0; i < 256; i++) {
+			assertEquals(counts[i] > 0, norm[i] > 0);
+			sum += norm[i];
+		}
+		assertEquals(4096, sum);
+
+		Random rnd = new Random(33);
+		byte[] skewed = new byte[100000];
+		for (int i = 0; i < skewed.length; i++) {
+			skewed[i] = (byte) (rnd.nextInt(20) == 0 ? 'a' + rnd.nextInt(4) : ' ');
+		}
+		int tans = new TansBlockCodec().encodeBlock(skewed, 0, skewed.length).length;
+		int huff = new HuffmanBlockCodec(1).encodeBlock(skewed, 0, skewed.length).length;
+		assertTrue(tans < huff * 0.8, "tans "+tans+" huffman "+huff);
+	}
+
+	/**
+	 * The CLI compresses with a chosen mode and decompresses by detecting the container.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	void test_cli() throws IOException {
+		HuffCompCLI cli = new HuffCompCLI();
+		File txt = new File("data/Green Eggs and Ham.txt");
+		assertTrue(cli.run(new String[] {"compress", "-m", "tans", "-b", "4096", txt.getPath(), "encode/cli.hfc"}));
+		assertTrue(cli.run(new String[] {"decompress", "encode/cli.hfc", "decode/cli.txt"}));
+		assertTrue(Arrays.equals(Files.readAllBytes(txt.toPath()), Files.readAllBytes(new File("decode/cli.txt").toPath())));
+		assertFalse(cli.run(new String[] {"compress", txt.getPath()}));
+		assertThrows(IllegalArgumentException.class,
+				     () -> cli.run(new String[] {"compress", "-m", "nosuch", txt.getPath(), "encode/cli.hfc"}));
+
+		// an encode that raises an error alert fails instead of reporting a ratio
+		new File("encode/cli.bin").delete();
+		assertThrows(IOException.class,
+				     () -> cli.run(new String[] {"encode", txt.getPath(), "encode/cli.bin", "weights/no such weights.csv"}));
+		new GenWeights(null).writeWeights(new File("weights/cli.csv"), new GenWeights(null).countWeights(txt, new int[128]));
+		assertTrue(cli.run(new String[] {"encode", txt.getPath(), "encode/cli.bin", "weights/cli.csv"}));
+		assertTrue(new File("encode/cli.bin").length() > 0);
+		assertThrows(IOException.class,
+				     () -> cli.run(new String[] {"decompress", "encode/cli.bin", "decode/cli.txt", "weights/no such weights.csv"}));
+	}
+
+	/**
+	 * The range coder comes within a fraction of a percent of the order-0
+	 * entropy of a large text, leaving aside its frequency table.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	void test_range_nearEntropy() throws IOException {
+		byte[] text = Files.readAllBytes(new File("data/Harry Potter and the Sorcerer.txt").toPath());
+		int len = Math.min(text.length, HuffContainer.DEFAULT_BLOCK_SIZE);
+		int[] counts = new GenWeights(null).countBytes(text, 0, len, new int[256]);
+		double bits = 0;
+		for (int c : counts) {
+			if (c > 0)
+				bits -= c * (Math.log(c / (double) len) / Math.log(2));
+		}
+		int table = 1000;
+		int range = new RangeBlockCodec().encodeBlock(text, 0, len).length;
+		assertTrue(range - table < bits / 8 * 1.002, "range "+range+" entropy "+bits / 8);
+		assertTrue(range < new TansBlockCodec().encodeBlock(text, 0, len).length);
+	}
+
+	/**
+	 * Order-1 clustering stays within the table limit, and on English text the
+	 * order-1 mode beats order-0 Huffman.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	void test_order1() throws IOException {
+		byte[] text = Files.readAllBytes(new File("data/Harry Potter and the Sorcerer.txt").toPath());
+		int len = Math.min(text.length, HuffContainer.DEFAULT_BLOCK_SIZE);
+		int[] map = Order1BlockCodec.cluster(Order1BlockCodec.countPairs(text, 0, len), 4);
+		for (int k : map) {
+			assertTrue(k >= 0 && k < 4);
+		}
+		int order1 = new Order1BlockCodec().encodeBlock(text, 0, len).length;
+		int order0 = new HuffmanBlockCodec(1).encodeBlock(text, 0, len).length;
+		assertTrue(order1 < order0 * 0.9, "order1 "+order1+" order0 "+order0);
+	}
+
+	/**
+	 * LZ buckets round trip, every level round trips (including long runs that
+	 * overlap their own source), and higher levels compress at least as well.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	void test_lz() throws IOException {
+		for (int v = 0; v < 1 << 20; v += 1 + v / 7) {
+			int b = LzBlockCodec.bucket(v);
+			assertTrue(v >= LzBlockCodec.bucketBase(b) && v - LzBlockCodec.bucketBase(b) < 1 << LzBlockCodec.extraBits(b));
+		}
+		assertEquals(LzBlockCodec.NUM_LENGTH_CODES, LzBlockCodec.bucket(LzBlockCodec.MAX_MATCH - LzBlockCodec.MIN_MATCH) + 1);
+		byte[] text = Files.readAllBytes(new File("data/Harry Potter and the Sorcerer.txt").toPath());
+		byte[] runs = new byte[70000];
+		Arrays.fill(runs, 1000, 60000, (byte) 'z');
+		int prevSize = Integer.MAX_VALUE;
+		for (int level : new int[] {1, 4, 9}) {
+			HuffContainer hc = new HuffContainer(HuffContainer.Mode.LZ);
+			hc.setLevel(level);
+			ByteArrayOutputStream packed = new ByteArrayOutputStream();
+			hc.compress(new ByteArrayInputStream(text), packed);
+			ByteArrayOutputStream unpacked = new ByteArrayOutputStream();
+			hc.decompress(new ByteArrayInputStream(packed.toByteArray()), unpacked);
+			assertTrue(Arrays.equals(text, unpacked.toByteArray()), "level "+level);
+			assertTrue(packed.size() <= prevSize, "level "+level);
+			prevSize = packed.size();
+			LzBlockCodec lz = new LzBlockCodec(level, 10);
+			byte[] p = lz.encodeBlock(runs, 0, runs.length);
+			byte[] back = new byte[runs.length];
+			lz.decodeBlock(p, 0, p.length, back, 0, back.length);
+			assertTrue(Arrays.equals(runs, back));
+		}
+		assertTrue(prevSize < text.length * 0.45, "lz -l 9 "+prevSize);
+	}
+
+	/**
+	 * Checks SA-IS against a plain sort of the suffixes, the BWT round trip, and
+	 * that parallel blocks give the same container as one thread.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	void test_bwt() throws IOException {
+		Random rand = new Random(37);
+		for (int trial = 0; trial < 40; trial++) {
+			int n = 1 + rand.nextInt(300);
+			int k = (trial % 2 == 0) ? 3 : 40;
+			int[] s = new int[n + 1];
+			for (int i = 0; i < n; i++) {
+				s[i] = (trial % 4 == 1) ? 1 + (i % 3 == 0 ? 1 : 0) : 1 + rand.nextInt(k - 1);
+			}
+			Integer[] naive = new Integer[n + 1];
+			for (int i = 0; i <= n; i++) {
+				naive[i] = i;
+			}
+			Arrays.sort(naive, (a, b) -> Arrays.compare(s, a, n + 1, s, b, n + 1));
+			int[] sa = SuffixArray.build(s, k);
+			for (int i = 0; i <= n; i++) {
+				assertEquals((int) naive[i], sa[i], "trial "+trial+" rank "+i);
+			}
+		}
+		byte[] text = Files.readAllBytes(new File("data/warAndPeace.txt").toPath());
+		byte[] bwt = new byte[text.length];
+		int primary = BwtBlockCodec.forward(text, 0, text.length, bwt);
+		byte[] back = new byte[text.length];
+		BwtBlockCodec.inverse(bwt, text.length, primary, back, 0);
+		assertTrue(Arrays.equals(text, back));
+
+		byte[] huff = pack(text, HuffContainer.Mode.HUFFMAN, 900000, 1);
+		byte[] big = pack(text, HuffContainer.Mode.BWT, 900000, 1);
+		assertTrue(big.length < huff.length * 0.6, "bwt "+big.length+" huffman "+huff.length);
+		byte[] packed = pack(text, HuffContainer.Mode.BWT, 1 << 16, 3);
+		assertTrue(Arrays.equals(pack(text, HuffContainer.Mode.BWT, 1 << 16, 1), packed));
+		HuffContainer hc = new HuffContainer(HuffContainer.Mode.BWT);
+		hc.setThreads(3);
+		ByteArrayOutputStream unpacked = new ByteArrayOutputStream();
+		hc.decompress(new ByteArrayInputStream(packed), unpacked);
+		assertTrue(Arrays.equals(text, unpacked.toByteArray()));
+	}
+
+	/**
+	 * Checks the tokenizer and the vocabulary, and that word coding beats
+	 * character coding on prose.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	void test_word() throws IOException {
+		byte[] s = "Well, Prince--so Genoa".getBytes();
+		int[] ends = new int[s.length];
+		int n = new GenWeights(null).tokenize(s, 0, s.length, 4, ends);
+		assertEquals("[4, 6, 10, 12, 14, 16, 17, 21, 22]", Arrays.toString(Arrays.copyOf(ends, n)));
+
+		byte[] text = Files.readAllBytes(new File("data/warAndPeace.txt").toPath());
+		WordVocabulary vocab = new WordVocabulary(text);
+		n = new GenWeights(null).tokenize(text, 0, text.length, WordBlockCodec.MAX_WORD_LEN, ends = new int[text.length]);
+		int total = 0;
+		for (int t = 0, start = 0; t < n; start = ends[t++]) {
+			assertEquals(vocab.add(start, ends[t] - start), vocab.find(text, start, ends[t] - start));
+		}
+		for (int e = 0; e < vocab.size(); e++) {
+			total += vocab.getCount(e);
+		}
+		assertEquals(n, total);
+		assertTrue(vocab.size() > 10000);
+		assertEquals(-1, vocab.find("Bonaparteland".getBytes(), 0, 13));
+
+		byte[] huff = pack(text, HuffContainer.Mode.HUFFMAN, HuffContainer.DEFAULT_BLOCK_SIZE, 1);
+		byte[] word = pack(text, HuffContainer.Mode.WORD, HuffContainer.DEFAULT_BLOCK_SIZE, 1);
+		assertTrue(word.length < huff.length * 0.8, "word "+word.length+" huffman "+huff.length);
+
+		// a dictionary and code table with nothing in them cannot decode any bytes
+		ByteArrayOutputStream empty = new ByteArrayOutputStream();
+		BinaryIO binUtil = new BinaryIO();
+		binUtil.writeVarint(empty, 0);
+		binUtil.writeSparseWeights(empty, new int[WordBlockCodec.NUM_LITERALS]);
+		byte[] payload = empty.toByteArray();
+		assertThrows(IOException.class,
+				     () -> new WordBlockCodec().decodeBlock(payload, 0, payload.length, new byte[16], 0, 16));
+	}
+
+	/**
+	 * Trains shared tables into a scratch registry, and checks that small files
+	 * coded with them round trip and come out smaller than with their own table.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	void test_sharedTables() throws IOException {
+		File dir = Files.createTempDirectory("tables").toFile();
+		TableRegistry registry = new TableRegistry(dir);
+		assertEquals(0, registry.ids().length);
+		assertEquals(1, registry.train(Arrays.asList(new File("data"))));
+		assertEquals(2, registry.train(Arrays.asList(new File("data/simple.txt"))));
+		assertEquals("[1, 2]", Arrays.toString(registry.ids()));
+		assertEquals(256, registry.load(2).length);
+		byte[] potter = Files.readAllBytes(new File("data/Harry Potter and the Sorcerer.txt").toPath());
+		for (String name : new String[] {"simple.txt", "simpler.txt", "potter"}) {
+			byte[] data = name.equals("potter") ? Arrays.copyOfRange(potter, 5000, 5300)
+					                            : Files.readAllBytes(new File("data/" + name).toPath());
+			HuffContainer hc = new HuffContainer(HuffContainer.Mode.SHARED);
+			hc.setTable(registry, 1);
+			ByteArrayOutputStream packed = new ByteArrayOutputStream();
+			hc.compress(new ByteArrayInputStream(data), packed);
+			ByteArrayOutputStream unpacked = new ByteArrayOutputStream();
+			hc.decompress(new ByteArrayInputStream(packed.toByteArray()), unpacked);
+			assertTrue(Arrays.equals(data, unpacked.toByteArray()), name);
+			assertTrue(packed.size() < pack(data, HuffContainer.Mode.HUFFMAN, HuffContainer.DEFAULT_BLOCK_SIZE, 1).length, name);
+			HuffContainer other = new HuffContainer(HuffContainer.Mode.SHARED);
+			other.setTable(new TableRegistry(new File(dir, "none")), 0);
+			assertThrows(IOException.class,
+					     () -> other.decompress(new ByteArrayInputStream(packed.toByteArray()), new ByteArrayOutputStream()));
+		}
+		for (File f : dir.listFiles()) {
+			f.delete();
+		}
+		dir.delete();
+	}
+
+	/**
+	 * Decodes with a different registry whose table 1 was trained on other
+	 * text, and checks that the table mismatch is reported rather than
+	 * decoded into garbage.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	void test_sharedTableMismatch() throws IOException {
+		File dirA = Files.createTempDirectory("tables").toFile();
+		File dirB = Files.createTempDirectory("tables").toFile();
+		TableRegistry regA = new TableRegistry(dirA);
+		TableRegistry regB = new TableRegistry(dirB);
+		assertEquals(1, regA.train(Arrays.asList(new File("data/Green Eggs and Ham.txt"))));
+		assertEquals(1, regB.train(Arrays.asList(new File("data/warAndPeace.txt"))));
+		assertNotEquals(TableRegistry.fingerprint(regA.load(1)), TableRegistry.fingerprint(regB.load(1)));
+		for (String name : new String[] {"simple.txt", "warAndPeace.txt"}) {
+			byte[] data = Files.readAllBytes(new File("data/" + name).toPath());
+			HuffContainer hc = new HuffContainer(HuffContainer.Mode.SHARED);
+			hc.setTable(regA, 1);
+			ByteArrayOutputStream packed = new ByteArrayOutputStream();
+			hc.compress(new ByteArrayInputStream(data), packed);
+			HuffContainer same = new HuffContainer(HuffContainer.Mode.SHARED);
+			same.setTable(new TableRegistry(dirA), 1);
+			ByteArrayOutputStream unpacked = new ByteArrayOutputStream();
+			same.decompress(new ByteArrayInputStream(packed.toByteArray()), unpacked);
+			assertTrue(Arrays.equals(data, unpacked.toByteArray()), name);
+			HuffContainer wrong = new HuffContainer(HuffContainer.Mode.SHARED);
+			wrong.setTable(regB, 1);
+			assertThrows(IOException.class,
+					     () -> wrong.decompress(new ByteArrayInputStream(packed.toByteArray()), new ByteArrayOutputStream()));
+		}
+		for (File dir : new File[] {dirA, dirB}) {
+			for (File f : dir.listFiles()) {
+				f.delete();
+			}
+			dir.delete();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * JUnit test for the PipelinedEncoder and BitWriter. The pipelined output
+ * must be byte-for-byte identical to the original String based encoder.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+class HF_Pipeline_Test {
+
+	private String[] bases = {"simpler", "simple", "Green Eggs and Ham", "The Cat in the Hat",
+			                  "Harry Potter and the Sorcerer", "warAndPeace"};
+
+	/**
+	 * Encodes base with the original encoder and with the pipelined encoder, and
+	 * compares the results.
+	 *
+	 * @param base the base name of the file in data/
+	 * @param optimize the optimize flag
+	 * @param bufferSize the pipeline buffer size
+	 * @param depth the pipeline depth
+	 * @return true, if the files match
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private boolean compareEncode(String base, boolean optimize, int bufferSize, int depth) throws IOException {
+		HuffCompAlerts hca = new HuffCompAlerts(null);
+		GenWeights gw = new GenWeights(hca);
+		File txt = new File("data/"+base+".txt");
+		File expect = new File("encode/pipe_expect.bin");
+		File actual = new File("encode/pipe_actual.bin");
+		int[] wts = gw.countWeights(txt, new int[128]);
+		new EncodeDecode(gw, hca).encodeFile(txt, expect, wts, optimize);
+
+		HuffmanCompressionUtilities huffUtil = new HuffmanCompressionUtilities();
+		huffUtil.setWeights(wts);
+		huffUtil.buildHuffmanTree(optimize);
+		huffUtil.createHuffmanCodes(huffUtil.getTreeRoot(), "", 0);
+		new PipelinedEncoder(huffUtil.getCodeTable(), bufferSize, depth).encode(txt, actual);
+		return Arrays.equals(Files.readAllBytes(expect.toPath()), Files.readAllBytes(actual.toPath()));
+	}
+
+	/**
+	 * Pipelined encode with the default buffers matches for every data file.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	@Order(1)
+	void test_pipeline_default() throws IOException {
+		for (String base : bases) {
+			assertTrue(compareEncode(base, true, PipelinedEncoder.DEFAULT_BUFFER_SIZE, PipelinedEncoder.DEFAULT_DEPTH));
+		}
+	}
+
+	/**
+	 * Small buffers force many buffer hand-offs and recycles; full trees give codes
+	 * longer than one BitWriter word.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	@Order(2)
+	void test_pipeline_smallBuffers_full() throws IOException {
+		for (String base : bases) {
+			assertTrue(compareEncode(base, false, 64, 2));
+		}
+	}
+
+	/**
+	 * EncodeDecode.encode with pipelining enabled decodes back to the original.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	@Order(3)
+	void test_pipeline_roundTrip() throws IOException {
+		HuffCompAlerts hca = new HuffCompAlerts(null);
+		GenWeights gw = new GenWeights(hca);
+		EncodeDecode enc = new EncodeDecode(gw, hca);
+		enc.setPipelined(true);
+		File txt = new File("data/Harry Potter and the Sorcerer.txt");
+		gw.generateWeights(txt.getPath());
+		gw.saveWeightsToFile("weights/pipe.csv");
+		new File("encode/pipe.bin").delete();
+		new File("decode/pipe.txt").delete();
+		enc.encode(txt.getPath(), "encode/pipe.bin", "weights/pipe.csv", true);
+		enc.decode("encode/pipe.bin", "decode/pipe.txt", "weights/pipe.csv", true);
+		assertTrue(Arrays.equals(Files.readAllBytes(txt.toPath()),
+				                 Files.readAllBytes(new File("decode/pipe.txt").toPath())));
+	}
+}
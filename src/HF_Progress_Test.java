@@ -0,0 +1,92 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+/**
+ * JUnit test for the ProgressListener hooks in GenWeights and EncodeDecode.
+ */
+@TestMethodOrder(OrderAnnotation.class)
+class HF_Progress_Test {
+
+	/**
+	 * Simple listener that records the last progress report, and cancels
+	 * after a given number of reports.
+	 */
+	private static class TestListener implements ProgressListener {
+		int calls = 0;
+		long lastDone = -1;
+		long lastTotal = -1;
+		int cancelAfter;
+
+		TestListener(int cancelAfter) {
+			this.cancelAfter = cancelAfter;
+		}
+
+		@Override
+		public void progress(long done, long total) {
+			calls++;
+			lastDone = done;
+			lastTotal = total;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return calls >= cancelAfter;
+		}
+	}
+
+	/**
+	 * Encode and decode report progress up to the full file length.
+	 */
+	@Test
+	@Order(1)
+	void test_progress_complete() {
+		HuffCompAlerts hca = new HuffCompAlerts(null);
+		GenWeights gw = new GenWeights(hca);
+		EncodeDecode enc = new EncodeDecode(gw, hca);
+		TestListener tl = new TestListener(Integer.MAX_VALUE);
+		gw.setProgressListener(tl);
+		enc.setProgressListener(tl);
+		File txt = new File("data/Harry Potter and the Sorcerer.txt");
+		File bin = new File("encode/progress.bin");
+		bin.delete();
+		gw.generateWeights(txt.getPath());
+		gw.saveWeightsToFile("weights/progress.csv");
+		assertEquals(txt.length(), tl.lastTotal);
+		enc.encode(txt.getPath(), bin.getPath(), "weights/progress.csv", true);
+		assertTrue(tl.calls > 1);
+		assertEquals(txt.length(), tl.lastDone);
+		assertEquals(txt.length(), tl.lastTotal);
+		new File("decode/progress.txt").delete();
+		enc.decode(bin.getPath(), "decode/progress.txt", "weights/progress.csv", true);
+		assertEquals(bin.length(), tl.lastDone);
+		assertEquals(txt.length(), new File("decode/progress.txt").length());
+	}
+
+	/**
+	 * A cancelled encode stops early and removes the partial output file.
+	 */
+	@Test
+	@Order(2)
+	void test_progress_cancel() {
+		HuffCompAlerts hca = new HuffCompAlerts(null);
+		GenWeights gw = new GenWeights(hca);
+		EncodeDecode enc = new EncodeDecode(gw, hca);
+		gw.generateWeights("data/warAndPeace.txt");
+		gw.saveWeightsToFile("weights/progress.csv");
+		TestListener tl = new TestListener(2);
+		enc.setProgressListener(tl);
+		File bin = new File("encode/progress_cancel.bin");
+		bin.delete();
+		enc.encode("data/warAndPeace.txt", bin.getPath(), "weights/progress.csv", true);
+		assertEquals(2, tl.calls);
+		assertFalse(bin.exists());
+	}
+}
@@ -0,0 +1,469 @@
+/*
+ *  JUnit tests for the weight tables: mergeable histograms, weights file updates,
+ *  sampled, streaming and concurrent counting, the binary and long weights files,
+ *  and the byte counting kernel.
+ */
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Pipe;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.MethodOrderer.OrderAnnotation;
+import org.junit.jupiter.api.Order;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestMethodOrder;
+
+@TestMethodOrder(OrderAnnotation.class)
+class HF_Weights_Test {
+
+	/** The data files used by the tests. */
+	private final String[] bases = {"simple", "Green Eggs and Ham", "The Cat in the Hat"};
+
+	/**
+	 * Gets the operating system from the System.
+	 *
+	 * @return the operating system
+	 */
+	private static String getOperatingSystem() {
+		return System.getProperty("os.name");
+	}
+
+	/**
+	 * Determines which OS the test is running on, as the line endings of the
+	 * data files (and so their weights) depend on it.
+	 *
+	 * @throws Exception the exception
+	 */
+	@BeforeAll
+	static void setUpBeforeClass() throws Exception {
+		System.out.println("Running on: "+getOperatingSystem());
+	}
+
+	/**
+	 * Merging, subtracting, scaling and decaying histograms.
+	 *
+	 * Methodology:
+	 *   - count each data file into its own histogram and all of them into one
+	 *   - compare mergeAll of the parts, and the total less one part, with the direct counts
+	 *   - check decay, scale and subtract on a small hand-made histogram
+	 *   - check that toWeights keeps the ratios of counts past the int range
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	@Order(1)
+	void test_histogram() throws IOException {
+		System.out.println("Test 1: Checking histogram merge, subtract, scale and decay");
+		GenWeights gw = new GenWeights(null);
+		WeightHistogram all = new WeightHistogram(256);
+		WeightHistogram[] parts = new WeightHistogram[bases.length];
+		for (int i = 0; i < bases.length; i++) {
+			byte[] data = Files.readAllBytes(new File("data/" + bases[i] + ".txt").toPath());
+			parts[i] = new WeightHistogram(256).addBytes(data, 0, data.length);
+			all.addBytes(data, 0, data.length);
+			assertArrayEquals(gw.countBytes(data, 0, data.length, new int[256]), parts[i].toWeights());
+		}
+		assertArrayEquals(all.toWeights(), WeightHistogram.mergeAll(Arrays.asList(parts)).toWeights());
+		WeightHistogram rest = all.copy().subtract(parts[0]);
+		assertArrayEquals(rest.toWeights(), parts[1].copy().merge(parts[2]).toWeights());
+		assertEquals(all.getTotal(), rest.getTotal() + parts[0].getTotal());
+
+		WeightHistogram h = new WeightHistogram(4).add(0, 10).add(1, 1).add(3, 3);
+		assertEquals("[5, 1, 0, 2]", h.copy().decay(0.5).toString());
+		assertEquals("[5, 1, 0, 2]", h.copy().scale(0.5).toString());
+		assertEquals("[1, 1, 0, 1]", h.copy().decay(0.01).toString());
+		assertEquals("[0, 0, 0, 0]", h.copy().subtract(h.copy().scale(2)).toString());
+		assertThrows(IllegalArgumentException.class, () -> h.merge(new WeightHistogram(5)));
+		assertThrows(IllegalArgumentException.class, () -> h.decay(0));
+
+		WeightHistogram big = new WeightHistogram(3).add(0, 3L << 40).add(1, 1L << 40).add(2, 1);
+		int[] wts = big.toWeights();
+		assertEquals(3.0, wts[0] / (double) wts[1], 1e-6);
+		assertEquals(1, wts[2]);
+	}
+
+	/**
+	 * Updating a weights file document by document gives the same table as
+	 * counting all the documents at once, and decay ages the old counts.
+	 *
+	 * Methodology:
+	 *   - add each data file to a new weights file with updateWeightsFile
+	 *   - compare the file with counting all the documents with countWeights
+	 *   - add one more document with a decay of 0.5, and check each count is
+	 *     half the old count (at least 1) plus the new one
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	@Order(2)
+	void test_updateWeightsFile() throws IOException {
+		System.out.println("Test 2: Checking incremental weights file updates");
+		HuffCompAlerts hca = new HuffCompAlerts(null);
+		GenWeights gw = new GenWeights(hca);
+		File outf = File.createTempFile("rolling", ".csv");
+		outf.delete();
+		int[] expected = new int[128];
+		for (String base : bases) {
+			String name = "data/" + base + ".txt";
+			gw.updateWeightsFile(outf.getPath(), name, 1.0);
+			gw.countWeights(new File(name), expected);
+		}
+		assertArrayEquals(expected, gw.readWeights(outf));
+
+		gw.updateWeightsFile(outf.getPath(), "data/simple.txt", 0.5);
+		int[] aged = gw.readWeights(outf);
+		int[] fresh = gw.countWeights(new File("data/simple.txt"), new int[128]);
+		for (int c = 0; c < 128; c++) {
+			if (expected[c] > 0)
+				assertEquals(Math.max(1, Math.round(expected[c] * 0.5)) + fresh[c], aged[c], "char "+c);
+		}
+		outf.delete();
+	}
+
+	/**
+	 * Weights estimated from a 10% sample code the whole file almost as well as
+	 * the full count, every character gets a weight, and the reported loss is
+	 * of the right size.
+	 *
+	 * Methodology:
+	 *   - check that sampleBytes reads about the requested fraction, and all of
+	 *     the file for a fraction of 1
+	 *   - estimate the weights of warAndPeace.txt from a 10% sample
+	 *   - compare the bits needed with the estimate and with the full count
+	 *   - check that a file with non-ASCII bytes is rejected by both counts
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	@Order(3)
+	void test_estimateWeights() throws IOException {
+		System.out.println("Test 3: Checking sampled weight estimation");
+		GenWeights gw = new GenWeights(new HuffCompAlerts(null));
+		File inf = new File("data/warAndPeace.txt");
+		WeightHistogram[] halves = gw.sampleBytes(inf, 0.1, 4096);
+		long sampled = halves[0].getTotal() + halves[1].getTotal();
+		assertTrue(sampled >= inf.length() / 10 && sampled < inf.length() / 10 + 8192, "sampled "+sampled);
+		assertEquals(inf.length(), gw.sampleBytes(inf, 1, 4096)[0].getTotal());
+
+		int[] full = gw.countWeights(inf, new int[128]);
+		gw.estimateWeights(inf.getPath(), 0.1);
+		int[] est = gw.getWeights().clone();
+		for (int w : est) {
+			assertTrue(w >= 1);
+		}
+		int[] fullModel = full.clone();
+		for (int i = 0; i < fullModel.length; i++) {
+			fullModel[i] = Math.max(1, fullModel[i]);
+		}
+		double loss = GenWeights.crossBits(full, est) / GenWeights.crossBits(full, fullModel) - 1;
+		assertTrue(loss >= 0 && loss < 0.01, "actual loss "+loss);
+		assertTrue(gw.getEstimatedLoss() >= 0 && gw.getEstimatedLoss() < 0.02, "estimated loss "+gw.getEstimatedLoss());
+
+		// a sample holding non-ASCII bytes is rejected, as the full count is
+		File utf8 = File.createTempFile("sample", ".txt");
+		Files.write(utf8.toPath(), "caf\u00e9 cr\u00e8me".getBytes("UTF-8"));
+		assertThrows(IOException.class, () -> gw.countWeights(utf8, new long[128]));
+		assertThrows(IOException.class, () -> gw.estimateWeights(utf8, 0.5));
+		utf8.delete();
+	}
+
+	/**
+	 * The binary weights format round trips, is smaller than the text format,
+	 * and is detected by the loaders; damaged files are rejected.
+	 *
+	 * Methodology:
+	 *   - write each data file's weights in the text and binary formats
+	 *   - check the binary file is smaller and that every loader reads both
+	 *   - flip a bit in each byte of a binary file, or truncate it, and check
+	 *     it is rejected
+	 *   - check the text parser on good and bad lines
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	@Order(4)
+	void test_binaryWeights() throws IOException {
+		System.out.println("Test 4: Checking the binary weights file format");
+		GenWeights gw = new GenWeights(new HuffCompAlerts(null));
+		HuffmanCompressionUtilities huffUtil = new HuffmanCompressionUtilities();
+		BinaryIO binUtil = new BinaryIO();
+		File csv = File.createTempFile("weights", ".csv");
+		File hfw = File.createTempFile("weights", GenWeights.BINARY_WEIGHTS_EXT);
+		for (String base : bases) {
+			int[] wts = gw.countWeights(new File("data/" + base + ".txt"), new int[128]);
+			gw.writeWeights(csv, wts);
+			gw.writeWeights(hfw, wts);
+			assertTrue(hfw.length() < csv.length() / 4, base);
+			assertArrayEquals(wts, huffUtil.readFreqWeights(csv), base);
+			assertArrayEquals(wts, huffUtil.readFreqWeights(hfw), base);
+			assertArrayEquals(wts, gw.readWeights(hfw), base);
+		}
+		byte[] good = Files.readAllBytes(hfw.toPath());
+		for (int i = 0; i < good.length; i++) {
+			byte[] bad = good.clone();
+			bad[i] ^= 0x10;
+			assertThrows(IOException.class, () -> binUtil.parseWeights(bad, 128), "byte "+i);
+		}
+		assertThrows(IOException.class, () -> binUtil.parseWeights(Arrays.copyOf(good, good.length - 1), 128));
+		assertArrayEquals(new int[] {0, 7, 0, 12}, binUtil.parseWeights("1,7,\r\n3,12,\r\n".getBytes(), 4));
+		assertThrows(IOException.class, () -> binUtil.parseWeights("1,7,\n4,12,\n".getBytes(), 4));
+		assertThrows(IOException.class, () -> binUtil.parseWeights("1,x,\n".getBytes(), 4));
+		csv.delete();
+		hfw.delete();
+	}
+
+	/**
+	 * A streaming counter fed through a pipe by another thread publishes
+	 * snapshots that can be read while it counts, and ends up with the same
+	 * counts as counting the whole file.
+	 *
+	 * Methodology:
+	 *   - feed warAndPeace.txt through a pipe from one thread to a counter on another
+	 *   - while it counts, check each snapshot total is a whole number of intervals
+	 *   - compare the final counts with counting the file at once
+	 *   - check decay between snapshots on a small input
+	 *
+	 * @throws Exception if the counting thread fails
+	 */
+	@Test
+	@Order(5)
+	void test_streamingCounter() throws Exception {
+		System.out.println("Test 5: Checking the streaming weight counter");
+		byte[] text = Files.readAllBytes(new File("data/warAndPeace.txt").toPath());
+		int[] expected = new GenWeights(null).countBytes(text, 0, text.length, new int[256]);
+		StreamingWeightCounter counter = new StreamingWeightCounter(100000);
+		Pipe pipe = Pipe.open();
+		Thread producer = new Thread(() -> {
+			try (Pipe.SinkChannel sink = pipe.sink()) {
+				for (int off = 0; off < text.length; off += 7919) {
+					sink.write(ByteBuffer.wrap(text, off, Math.min(7919, text.length - off)));
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		});
+		long[] read = new long[1];
+		Thread consumer = new Thread(() -> {
+			try (Pipe.SourceChannel source = pipe.source()) {
+				read[0] = counter.consume(source);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		});
+		producer.start();
+		consumer.start();
+		long last = 0;
+		while (consumer.isAlive()) {
+			long total = counter.getSnapshot().getTotal();
+			assertTrue(total >= last && total % 100000 == 0, "snapshot total "+total);
+			last = total;
+		}
+		producer.join();
+		consumer.join();
+		assertEquals(text.length, read[0]);
+		assertEquals(text.length / 100000 * 100000, counter.getSnapshot().getTotal());
+		assertArrayEquals(expected, counter.publish().toWeights());
+
+		StreamingWeightCounter decayed = new StreamingWeightCounter(1000);
+		decayed.setDecay(0.5);
+		decayed.consume(Arrays.asList(new byte[1000], new byte[500]).iterator());
+		assertEquals(1000, decayed.getSnapshot().get(0));
+		assertEquals(1000, decayed.publish().get(0));
+		assertEquals(1500, decayed.getBytesCounted());
+	}
+
+	/**
+	 * Many threads adding to one ConcurrentHistogram lose no counts, and
+	 * counting files on several threads matches counting them one at a time.
+	 *
+	 * Methodology:
+	 *   - add a file's bytes from 16 threads, half in bulk and half one at a time
+	 *   - check every count is exactly 800 times the file's count
+	 *   - count the data directory on 4 threads and compare with one thread
+	 *   - check that a missing file is reported with an IOException
+	 *
+	 * @throws Exception if a counting thread fails
+	 */
+	@Test
+	@Order(6)
+	void test_concurrentHistogram() throws Exception {
+		System.out.println("Test 6: Checking the striped concurrent histogram");
+		ConcurrentHistogram hist = new ConcurrentHistogram(256, 3);
+		assertEquals(4, hist.getStripes());
+		byte[] text = Files.readAllBytes(new File("data/Green Eggs and Ham.txt").toPath());
+		Thread[] threads = new Thread[16];
+		for (int t = 0; t < threads.length; t++) {
+			final int id = t;
+			threads[t] = new Thread(() -> {
+				for (int r = 0; r < 50; r++) {
+					if (id % 2 == 0) {
+						hist.addBytes(text, 0, text.length);
+					} else {
+						for (byte b : text) {
+							hist.add(b & 0xff, 1);
+						}
+					}
+				}
+			});
+			threads[t].start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+		int[] once = new GenWeights(null).countBytes(text, 0, text.length, new int[256]);
+		WeightHistogram snap = hist.snapshot();
+		for (int c = 0; c < 256; c++) {
+			assertEquals(once[c] * 800L, snap.get(c));
+			assertEquals(once[c] * 800L, hist.get(c));
+		}
+
+		GenWeights gw = new GenWeights(null);
+		WeightHistogram all = new WeightHistogram(256);
+		List<File> files = new ArrayList<File>();
+		for (File f : new File("data").listFiles()) {
+			files.add(f);
+			byte[] data = Files.readAllBytes(f.toPath());
+			all.addBytes(data, 0, data.length);
+		}
+		assertArrayEquals(all.toWeights(), gw.countBytes(files, 4).toWeights());
+		files.add(new File("data/no such file"));
+		assertThrows(IOException.class, () -> gw.countBytes(files, 4));
+	}
+
+	/**
+	 * Weights past the int range: the node comparator does not overflow, trees
+	 * built from scaled up weights have the same codes, long weights files
+	 * round trip in both formats, and normalized weights stay within their
+	 * bound and code the text almost as well.
+	 *
+	 * Methodology:
+	 *   - compare nodes with weights past the int range
+	 *   - build trees from a file's weights and the same weights shifted left
+	 *     33 bits, and compare the codes
+	 *   - round trip the long weights through both file formats
+	 *   - count past the int range with long and int weights
+	 *   - normalize the long weights and compare the coded size with the optimal one
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Test
+	@Order(7)
+	void test_longWeights() throws IOException {
+		System.out.println("Test 7: Checking weights past the int range");
+		HuffmanTreeNode big = new HuffmanTreeNode(1, 3L << 31);
+		HuffmanTreeNode small = new HuffmanTreeNode(2, 1);
+		assertTrue(HuffmanTreeNode.compareWeightOrd.compare(big, small) > 0);
+		assertTrue(HuffmanTreeNode.compareWeightOrd.compare(small, big) < 0);
+		assertTrue(HuffmanTreeNode.compareWeightOrd.compare(new HuffmanTreeNode(1, Long.MAX_VALUE), new HuffmanTreeNode(1, -1)) > 0);
+
+		GenWeights gw = new GenWeights(new HuffCompAlerts(null));
+		int[] wts = gw.countWeights(new File("data/Green Eggs and Ham.txt"), new int[128]);
+		long[] huge = new long[wts.length];
+		for (int i = 0; i < wts.length; i++) {
+			huge[i] = (long) wts[i] << 33;
+		}
+		HuffmanCompressionUtilities huffUtil = new HuffmanCompressionUtilities();
+		huffUtil.setWeights(wts);
+		huffUtil.buildHuffmanTree(true);
+		huffUtil.createHuffmanCodes(huffUtil.getTreeRoot(), "", 0);
+		String[] codes = huffUtil.getEncodeMap().clone();
+		huffUtil.setWeights(huge);
+		huffUtil.buildHuffmanTree(true);
+		huffUtil.createHuffmanCodes(huffUtil.getTreeRoot(), "", 0);
+		assertArrayEquals(codes, huffUtil.getEncodeMap());
+		assertEquals(WeightHistogram.of(wts).getTotal() << 33, huffUtil.getTreeRoot().getWeight());
+
+		for (String ext : new String[] {".csv", GenWeights.BINARY_WEIGHTS_EXT}) {
+			File f = File.createTempFile("long", ext);
+			gw.writeWeights(f, huge);
+			assertArrayEquals(huge, gw.readLongWeights(f), ext);
+			assertArrayEquals(huge, huffUtil.readFreqLongWeights(f), ext);
+			assertThrows(IOException.class, () -> gw.readWeights(f), ext);
+			assertArrayEquals(WeightHistogram.of(huge).toWeights(), huffUtil.readFreqWeights(f), ext);
+			f.delete();
+		}
+
+		// counting past the int range: long weights keep counting, int weights refuse
+		File text = new File("data/Green Eggs and Ham.txt");
+		long[] counted = huge.clone();
+		gw.countWeights(text, counted);
+		for (int i = 0; i < wts.length; i++) {
+			assertEquals(huge[i] + wts[i], counted[i], "char "+i);
+		}
+		int[] full = new int[128];
+		full[' '] = Integer.MAX_VALUE - 1;
+		assertThrows(IOException.class, () -> gw.countWeights(text, full));
+		gw.initWeights();
+		gw.getLongWeights()[' '] = Integer.MAX_VALUE;
+		gw.countWeights(text, gw.getLongWeights());
+		assertEquals(Integer.MAX_VALUE + (long) wts[' '], gw.getLongWeights()[' ']);
+		assertTrue(WeightHistogram.of(gw.getWeights()).getTotal() <= Integer.MAX_VALUE / 2);
+
+		WeightHistogram norm = WeightHistogram.of(huge).normalize(1000);
+		assertTrue(norm.getTotal() <= 1000);
+		for (int i = 0; i < wts.length; i++) {
+			assertEquals(wts[i] > 0, norm.get(i) > 0, "char "+i);
+		}
+		huffUtil.setWeights(norm.toLongWeights());
+		huffUtil.buildHuffmanTree(true);
+		huffUtil.createHuffmanCodes(huffUtil.getTreeRoot(), "", 0);
+		long optimal = 0;
+		long normalized = 0;
+		for (int i = 0; i < wts.length; i++) {
+			if (wts[i] > 0) {
+				optimal += (long) wts[i] * codes[i].length();
+				normalized += (long) wts[i] * huffUtil.getEncodeMap()[i].length();
+			}
+		}
+		assertTrue(normalized <= optimal * 1.01, optimal+" vs "+normalized);
+		assertArrayEquals(huge, WeightHistogram.of(huge).normalize(Long.MAX_VALUE).toLongWeights());
+		assertThrows(IllegalArgumentException.class, () -> WeightHistogram.of(huge).normalize(3));
+	}
+
+	/**
+	 * The unrolled byte counter gives the same counts as a plain loop for every
+	 * length and alignment, from arrays and from direct buffers.
+	 *
+	 * Methodology:
+	 *   - for offsets 0-8 and many lengths, count random bytes with a plain loop
+	 *   - compare with ByteCounter on the array, a direct buffer and a heap buffer
+	 *   - check that counting adds to the counts passed in
+	 */
+	@Test
+	@Order(8)
+	void test_byteCounter() {
+		System.out.println("Test 8: Checking the unrolled byte counter");
+		byte[] data = new byte[1000];
+		new Random(48).nextBytes(data);
+		Arrays.fill(data, 300, 700, (byte) ' ');
+		for (int off = 0; off < 9; off++) {
+			for (int len = 0; len < data.length - off; len += 1 + len / 4) {
+				int[] expected = new int[256];
+				for (int i = off; i < off + len; i++) {
+					expected[data[i] & 0xff]++;
+				}
+				assertArrayEquals(expected, ByteCounter.count(data, off, len, new int[256]), off+"/"+len);
+				ByteBuffer direct = ByteBuffer.allocateDirect(data.length).put(data).position(off).limit(off + len);
+				assertArrayEquals(expected, ByteCounter.count(direct, new int[256]), off+"/"+len);
+				assertEquals(off, direct.position());
+				assertArrayEquals(expected, ByteCounter.count(ByteBuffer.wrap(data, off, len), new int[256]), off+"/"+len);
+			}
+		}
+		int[] once = ByteCounter.count(data, 0, data.length, new int[256]);
+		int[] twice = ByteCounter.count(data, 0, data.length, once.clone());
+		for (int b = 0; b < 256; b++) {
+			assertEquals(2 * once[b], twice[b]);
+		}
+	}
+}
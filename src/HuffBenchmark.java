@@ -0,0 +1,558 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Stream;
+
+/**
+ * The Class HuffBenchmark. Command line benchmarks for the compression engine.
+ * These are plain timing loops (with a warm-up pass) rather than a harness,
+ * so the numbers are indicative only - compare runs on the same machine.
+ *
+ * Usage: java HuffBenchmark &lt;benchmark&gt; [options]
+ */
+public class HuffBenchmark {
+
+	/**
+	 * Runs the named benchmark.
+	 *
+	 * @param args the benchmark name, followed by its options
+	 */
+	public static void main(String[] args) {
+		HuffBenchmark hb = new HuffBenchmark();
+		String which = (args.length > 0) ? args[0] : "";
+		try {
+			switch (which) {
+			case "batch": hb.benchBatch(args); break;
+			case "pipeline": hb.benchPipeline(args); break;
+			case "streams": hb.benchStreams(args); break;
+			case "codecs": hb.benchCodecs(args); break;
+			case "lz": hb.benchLz(args); break;
+			case "weights": hb.benchWeights(args); break;
+			case "histogram": hb.benchHistogram(args); break;
+			case "count": hb.benchCount(args); break;
+			case "pack": hb.benchPack(args); break;
+			default: usage(); break;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Prints the list of benchmarks.
+	 */
+	private static void usage() {
+		System.out.println("Usage: java HuffBenchmark <benchmark> [options]");
+		System.out.println("  batch [numFiles] [source]   files/second, platform thread pool vs virtual threads");
+		System.out.println("  pipeline [source] [reps]    MB/s, sequential encoder vs pipelined encoder");
+		System.out.println("  streams [source] [reps]     decode MB/s, 1 Huffman stream vs 4 interleaved streams");
+		System.out.println("  codecs [dir] [reps]         ratio and MB/s of every container mode on each .txt file");
+		System.out.println("  lz [source] [reps]          ratio and MB/s of the LZ mode at each level 1-9");
+		System.out.println("  weights [source] [reps]     weights file load time, text (per line / bulk) vs binary");
+		System.out.println("  histogram [maxThreads] [MB] shared counting from 1-maxThreads threads: lock, atomic, striped");
+		System.out.println("  count [dir] [reps]          byte counting MB/s, plain loop vs ByteCounter, over the .txt files");
+		System.out.println("  pack [source] [reps]        encode MB/s, scalar writeSymbol loop vs vector kernel");
+		System.out.println("                              (build with gradle -Pvector, run with --add-modules jdk.incubator.vector)");
+	}
+
+	/**
+	 * Gets the integer option at index i, or def if it is not present.
+	 *
+	 * @param args the command line arguments
+	 * @param i the index of the option
+	 * @param def the default value
+	 * @return the option value
+	 */
+	private int intArg(String[] args, int i, int def) {
+		return (args.length > i) ? Integer.parseInt(args[i]) : def;
+	}
+
+	/**
+	 * Gets the string option at index i, or def if it is not present.
+	 *
+	 * @param args the command line arguments
+	 * @param i the index of the option
+	 * @param def the default value
+	 * @return the option value
+	 */
+	private String strArg(String[] args, int i, String def) {
+		return (args.length > i) ? args[i] : def;
+	}
+
+	/**
+	 * Compresses numFiles copies of a small source file with BatchCompressor, once on
+	 * the platform thread pool and once on virtual threads, and reports files/second.
+	 *
+	 * @param args batch [numFiles] [source]
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void benchBatch(String[] args) throws IOException {
+		int numFiles = intArg(args, 1, 5000);
+		File src = new File(strArg(args, 2, "data/Green Eggs and Ham.txt"));
+		Path tmp = Files.createTempDirectory("huffbench");
+		try {
+			List<String> names = new ArrayList<String>();
+			for (int i = 0; i < numFiles; i++) {
+				Path p = tmp.resolve("f" + i + ".txt");
+				Files.copy(src.toPath(), p, StandardCopyOption.REPLACE_EXISTING);
+				names.add(p.toString());
+			}
+			Files.createDirectories(tmp.resolve("enc"));
+			Files.createDirectories(tmp.resolve("wts"));
+			System.out.printf("%d copies of %s (%d bytes), %d cores%n", numFiles, src.getName(), src.length(),
+					          Runtime.getRuntime().availableProcessors());
+			for (int pass = 0; pass < 2; pass++) {
+				String label = (pass == 0) ? "warm-up  " : "measured ";
+				System.out.printf("%splatform: %8.0f files/s%n", label, runBatch(names, tmp, false));
+				System.out.printf("%svirtual:  %8.0f files/s%n", label, runBatch(names, tmp, true));
+			}
+		} finally {
+			deleteTree(tmp);
+		}
+	}
+
+	/**
+	 * Runs one batch and returns the throughput.
+	 *
+	 * @param names the files to compress
+	 * @param tmp the directory holding the output directories
+	 * @param virtual if true, use virtual threads
+	 * @return files per second
+	 */
+	private double runBatch(List<String> names, Path tmp, boolean virtual) {
+		BatchCompressor bc = new BatchCompressor();
+		bc.setOutputDirs(tmp.resolve("enc") + File.separator, tmp.resolve("wts") + File.separator);
+		bc.setOverwrite(true);
+		bc.setVirtualThreads(virtual);
+		long start = System.nanoTime();
+		List<BatchResult> results = bc.compress(names);
+		long elapsed = System.nanoTime() - start;
+		for (BatchResult r : results) {
+			if (!r.isOk())
+				System.out.println("   " + r);
+		}
+		return names.size() / (elapsed / 1e9);
+	}
+
+	/**
+	 * Encodes a file repeatedly with the sequential encoder and with the
+	 * pipelined encoder, and reports MB/s for each.
+	 *
+	 * @param args pipeline [source] [reps]
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void benchPipeline(String[] args) throws IOException {
+		File src = new File(strArg(args, 1, "data/warAndPeace.txt"));
+		int reps = intArg(args, 2, 5);
+		File out = File.createTempFile("huffbench", ".bin");
+		try {
+			GenWeights gw = new GenWeights(null);
+			int[] wts = gw.countWeights(src, new int[128]);
+			EncodeDecode encdec = new EncodeDecode(gw, null);
+			for (int pass = 0; pass < 2; pass++) {
+				String label = (pass == 0) ? "warm-up  " : "measured ";
+				for (int mode = 0; mode < 2; mode++) {
+					encdec.setPipelined(mode == 1);
+					long start = System.nanoTime();
+					for (int r = 0; r < reps; r++) {
+						encdec.encodeFile(src, out, wts, true);
+					}
+					double secs = (System.nanoTime() - start) / 1e9;
+					System.out.printf("%s%-12s %8.1f MB/s%n", label, (mode == 0) ? "sequential:" : "pipelined:",
+							          src.length() * (double) reps / 1e6 / secs);
+				}
+			}
+		} finally {
+			out.delete();
+		}
+	}
+
+	/**
+	 * Encodes a file into container blocks with 1 and with 4 interleaved Huffman
+	 * streams, then decodes the blocks repeatedly in memory and reports MB/s.
+	 *
+	 * @param args streams [source] [reps]
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void benchStreams(String[] args) throws IOException {
+		byte[] text = Files.readAllBytes(Path.of(strArg(args, 1, "data/warAndPeace.txt")));
+		int reps = intArg(args, 2, 20);
+		int blockSize = HuffContainer.DEFAULT_BLOCK_SIZE;
+		byte[] out = new byte[blockSize];
+		for (HuffContainer.Mode mode : new HuffContainer.Mode[] {HuffContainer.Mode.HUFFMAN, HuffContainer.Mode.HUFFMAN_X4}) {
+			BlockCodec codec = mode.newCodec();
+			List<byte[]> payloads = new ArrayList<byte[]>();
+			long size = 0;
+			for (int off = 0; off < text.length; off += blockSize) {
+				byte[] p = codec.encodeBlock(text, off, Math.min(blockSize, text.length - off));
+				payloads.add(p);
+				size += p.length;
+			}
+			for (int pass = 0; pass < 2; pass++) {
+				long start = System.nanoTime();
+				for (int r = 0; r < reps; r++) {
+					for (int b = 0; b < payloads.size(); b++) {
+						byte[] p = payloads.get(b);
+						codec.decodeBlock(p, 0, p.length, out, 0, Math.min(blockSize, text.length - b * blockSize));
+					}
+				}
+				double secs = (System.nanoTime() - start) / 1e9;
+				System.out.printf("%s%-9s %8.1f MB/s  (%d -> %d bytes)%n", (pass == 0) ? "warm-up  " : "measured ",
+						          mode.getLabel() + ":", text.length * (double) reps / 1e6 / secs, text.length, size);
+			}
+		}
+	}
+
+	/**
+	 * Compresses every .txt file in a directory with each container mode, and
+	 * reports the compressed size as a fraction of the order-0 entropy bound,
+	 * and the compress and decompress speeds. Each file is compressed and
+	 * decompressed once in every mode, untimed, before the timed runs.
+	 *
+	 * @param args codecs [dir] [reps]
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void benchCodecs(String[] args) throws IOException {
+		File dir = new File(strArg(args, 1, "data"));
+		int reps = intArg(args, 2, 5);
+		File[] files = dir.listFiles((d, name) -> name.endsWith(".txt"));
+		if (files == null)
+			throw new IOException("Not a directory: "+dir);
+		Arrays.sort(files);
+		System.out.printf("%-34s %-10s %10s %10s %8s %9s %9s%n", "file", "mode", "size", "packed", "vs H0", "comp MB/s", "dec MB/s");
+		for (File f : files) {
+			byte[] text = Files.readAllBytes(f.toPath());
+			if (text.length == 0)
+				continue;
+			double bound = entropyBytes(text);
+			for (HuffContainer.Mode mode : HuffContainer.Mode.values()) {
+				ByteArrayOutputStream warm = new ByteArrayOutputStream();
+				new HuffContainer(mode).compress(new ByteArrayInputStream(text), warm);
+				new HuffContainer(mode).decompress(new ByteArrayInputStream(warm.toByteArray()), new ByteArrayOutputStream());
+			}
+			for (HuffContainer.Mode mode : HuffContainer.Mode.values()) {
+				HuffContainer hc = new HuffContainer(mode);
+				ByteArrayOutputStream packed = new ByteArrayOutputStream();
+				long start = System.nanoTime();
+				for (int r = 0; r < reps; r++) {
+					packed.reset();
+					hc.compress(new ByteArrayInputStream(text), packed);
+				}
+				double compSecs = (System.nanoTime() - start) / 1e9;
+				byte[] p = packed.toByteArray();
+				ByteArrayOutputStream unpacked = new ByteArrayOutputStream(text.length);
+				start = System.nanoTime();
+				for (int r = 0; r < reps; r++) {
+					unpacked.reset();
+					hc.decompress(new ByteArrayInputStream(p), unpacked);
+				}
+				double decSecs = (System.nanoTime() - start) / 1e9;
+				if (!Arrays.equals(text, unpacked.toByteArray()))
+					System.out.println("   ROUND TRIP FAILED: "+f.getName()+" "+mode.getLabel());
+				System.out.printf("%-34s %-10s %10d %10d %8.4f %9.1f %9.1f%n", f.getName(), mode.getLabel(), text.length,
+						          p.length, p.length / bound, text.length * (double) reps / 1e6 / compSecs,
+						          text.length * (double) reps / 1e6 / decSecs);
+			}
+		}
+	}
+
+	/**
+	 * Compresses a file with the LZ mode at every level, and reports the ratio
+	 * and the compress and decompress speeds, with plain Huffman for comparison.
+	 *
+	 * @param args lz [source] [reps]
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void benchLz(String[] args) throws IOException {
+		byte[] text = Files.readAllBytes(Path.of(strArg(args, 1, "data/warAndPeace.txt")));
+		int reps = intArg(args, 2, 3);
+		System.out.printf("%-10s %10s %7s %9s %9s%n", "mode", "packed", "ratio", "comp MB/s", "dec MB/s");
+		for (int level = 0; level <= 9; level++) {
+			HuffContainer hc = new HuffContainer((level == 0) ? HuffContainer.Mode.HUFFMAN : HuffContainer.Mode.LZ);
+			if (level > 0)
+				hc.setLevel(level);
+			ByteArrayOutputStream packed = new ByteArrayOutputStream();
+			hc.compress(new ByteArrayInputStream(text), packed);
+			long start = System.nanoTime();
+			for (int r = 0; r < reps; r++) {
+				packed.reset();
+				hc.compress(new ByteArrayInputStream(text), packed);
+			}
+			double compSecs = (System.nanoTime() - start) / 1e9;
+			byte[] p = packed.toByteArray();
+			ByteArrayOutputStream unpacked = new ByteArrayOutputStream(text.length);
+			hc.decompress(new ByteArrayInputStream(p), unpacked);
+			start = System.nanoTime();
+			for (int r = 0; r < reps; r++) {
+				unpacked.reset();
+				hc.decompress(new ByteArrayInputStream(p), unpacked);
+			}
+			double decSecs = (System.nanoTime() - start) / 1e9;
+			if (!Arrays.equals(text, unpacked.toByteArray()))
+				System.out.println("   ROUND TRIP FAILED at level "+level);
+			System.out.printf("%-10s %10d %7.4f %9.1f %9.1f%n", (level == 0) ? "huffman" : "lz -l "+level, p.length,
+					          p.length / (double) text.length, text.length * (double) reps / 1e6 / compSecs,
+					          text.length * (double) reps / 1e6 / decSecs);
+		}
+	}
+
+	/**
+	 * Computes the order-0 entropy bound: the smallest size, in bytes, that any
+	 * coder using a single fixed byte distribution can reach.
+	 *
+	 * @param text the data
+	 * @return the bound in bytes
+	 */
+	private double entropyBytes(byte[] text) {
+		int[] counts = new GenWeights(null).countBytes(text, 0, text.length, new int[256]);
+		double bits = 0;
+		for (int c : counts) {
+			if (c > 0)
+				bits -= c * (Math.log(c / (double) text.length) / Math.log(2));
+		}
+		return bits / 8;
+	}
+
+	/**
+	 * Deletes a directory and everything in it.
+	 *
+	 * @param dir the directory
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void deleteTree(Path dir) throws IOException {
+		try (Stream<Path> paths = Files.walk(dir)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+		}
+	}
+
+	/**
+	 * Times loading a weights file: the text format parsed a line at a time with
+	 * split and parseInt (as the loader used to), the text format parsed from one
+	 * bulk read, and the binary format.
+	 *
+	 * @param args weights [source] [reps]
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void benchWeights(String[] args) throws IOException {
+		File src = new File(strArg(args, 1, "data/warAndPeace.txt"));
+		int reps = intArg(args, 2, 20000);
+		GenWeights gw = new GenWeights(null);
+		int[] wts = gw.countWeights(src, new int[128]);
+		File csv = File.createTempFile("bench", ".csv");
+		File hfw = File.createTempFile("bench", GenWeights.BINARY_WEIGHTS_EXT);
+		csv.deleteOnExit();
+		hfw.deleteOnExit();
+		gw.writeWeights(csv, wts);
+		gw.writeWeights(hfw, wts);
+		HuffmanCompressionUtilities huffUtil = new HuffmanCompressionUtilities();
+		for (int pass = 0; pass < 2; pass++) {
+			long start = System.nanoTime();
+			long check = 0;
+			for (int r = 0; r < reps; r++) {
+				int[] w = new int[128];
+				for (String line : Files.readAllLines(csv.toPath())) {
+					String[] split = line.split(",");
+					w[Integer.parseInt(split[0])] = Integer.parseInt(split[1]);
+				}
+				check += w[' '];
+			}
+			double lines = (System.nanoTime() - start) / 1e3 / reps;
+			start = System.nanoTime();
+			for (int r = 0; r < reps; r++) {
+				check += huffUtil.readFreqWeights(csv)[' '];
+			}
+			double bulk = (System.nanoTime() - start) / 1e3 / reps;
+			start = System.nanoTime();
+			for (int r = 0; r < reps; r++) {
+				check += huffUtil.readFreqWeights(hfw)[' '];
+			}
+			double binary = (System.nanoTime() - start) / 1e3 / reps;
+			System.out.printf("%s text per line %.1f us, text bulk %.1f us, binary %.1f us  (%d / %d bytes, %d)%n",
+					          (pass == 0) ? "warm-up: " : "measured:", lines, bulk, binary, csv.length(), hfw.length(), check);
+		}
+	}
+
+	/**
+	 * Measures counting into one shared table from 1, 2, 4 ... maxThreads threads,
+	 * each counting MB megabytes of text a byte at a time: into a long[] under a
+	 * global lock, into an AtomicLongArray, and into a ConcurrentHistogram; and
+	 * with ConcurrentHistogram.addBytes, which counts each chunk privately first.
+	 *
+	 * @param args histogram [maxThreads] [MB]
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void benchHistogram(String[] args) throws IOException {
+		int maxThreads = intArg(args, 1, 64);
+		int mb = intArg(args, 2, 4);
+		byte[] text = Files.readAllBytes(Path.of("data/warAndPeace.txt"));
+		System.out.printf("%d CPUs; aggregate MB/s%n", Runtime.getRuntime().availableProcessors());
+		System.out.printf("%8s %10s %10s %10s %10s%n", "threads", "lock", "atomic", "striped", "chunked");
+		for (int threads = 1; threads <= maxThreads; threads *= 2) {
+			long[] locked = new long[256];
+			AtomicLongArray atomic = new AtomicLongArray(256);
+			ConcurrentHistogram striped = new ConcurrentHistogram(256);
+			ConcurrentHistogram chunked = new ConcurrentHistogram(256);
+			double[] rates = new double[4];
+			for (int kind = 0; kind < 4; kind++) {
+				final int k = kind;
+				Runnable task = () -> {
+					long left = (long) mb << 20;
+					while (left > 0) {
+						int n = (int) Math.min(left, text.length);
+						if (k == 0) {
+							for (int i = 0; i < n; i++) {
+								synchronized (locked) {
+									locked[text[i] & 0xff]++;
+								}
+							}
+						} else if (k == 1) {
+							for (int i = 0; i < n; i++) {
+								atomic.incrementAndGet(text[i] & 0xff);
+							}
+						} else if (k == 2) {
+							for (int i = 0; i < n; i++) {
+								striped.add(text[i] & 0xff, 1);
+							}
+						} else {
+							for (int off = 0; off < n; off += 1 << 16) {
+								chunked.addBytes(text, off, Math.min(1 << 16, n - off));
+							}
+						}
+						left -= n;
+					}
+				};
+				Thread[] pool = new Thread[threads];
+				long start = System.nanoTime();
+				for (int t = 0; t < threads; t++) {
+					pool[t] = new Thread(task);
+					pool[t].start();
+				}
+				for (Thread t : pool) {
+					try {
+						t.join();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return;
+					}
+				}
+				rates[kind] = (double) threads * mb * (1 << 20) / 1e6 / ((System.nanoTime() - start) / 1e9);
+			}
+			long expected = (long) threads * mb << 20;
+			if (striped.snapshot().getTotal() != expected || chunked.snapshot().getTotal() != expected)
+				System.out.println("   COUNT MISMATCH at "+threads+" threads");
+			System.out.printf("%8d %10.1f %10.1f %10.1f %10.1f%n", threads, rates[0], rates[1], rates[2], rates[3]);
+		}
+	}
+
+	/**
+	 * Times byte counting over all the .txt files in a directory: the plain
+	 * counts[b]++ loop, and ByteCounter's unrolled loop with 4 sub-histograms,
+	 * from a byte[] and from a direct buffer. Also times GenWeights.countWeights
+	 * on each file, which includes reading it.
+	 *
+	 * @param args count [dir] [reps]
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void benchCount(String[] args) throws IOException {
+		File dir = new File(strArg(args, 1, "data"));
+		int reps = intArg(args, 2, 20);
+		List<File> files = new ArrayList<File>();
+		long bytes = 0;
+		for (File f : dir.listFiles()) {
+			if (f.getName().endsWith(".txt")) {
+				files.add(f);
+				bytes += f.length();
+			}
+		}
+		byte[] corpus = new byte[(int) bytes];
+		int pos = 0;
+		for (File f : files) {
+			byte[] b = Files.readAllBytes(f.toPath());
+			System.arraycopy(b, 0, corpus, pos, b.length);
+			pos += b.length;
+		}
+		ByteBuffer direct = ByteBuffer.allocateDirect(corpus.length).put(corpus).flip();
+		GenWeights gw = new GenWeights(null);
+		System.out.printf("%d files, %d bytes%n", files.size(), bytes);
+		for (int pass = 0; pass < 2; pass++) {
+			long check = 0;
+			long start = System.nanoTime();
+			for (int r = 0; r < reps; r++) {
+				int[] counts = new int[256];
+				for (byte b : corpus) {
+					counts[b & 0xff]++;
+				}
+				check += counts[' '];
+			}
+			double plain = (double) bytes * reps / 1e6 / ((System.nanoTime() - start) / 1e9);
+			start = System.nanoTime();
+			for (int r = 0; r < reps; r++) {
+				check += ByteCounter.count(corpus, 0, corpus.length, new int[256])[' '];
+			}
+			double kernel = (double) bytes * reps / 1e6 / ((System.nanoTime() - start) / 1e9);
+			start = System.nanoTime();
+			for (int r = 0; r < reps; r++) {
+				check += ByteCounter.count(direct, new int[256])[' '];
+			}
+			double buffer = (double) bytes * reps / 1e6 / ((System.nanoTime() - start) / 1e9);
+			start = System.nanoTime();
+			for (int r = 0; r < reps; r++) {
+				for (File f : files) {
+					check += gw.countWeights(f, new int[128])[' '];
+				}
+			}
+			double file = (double) bytes * reps / 1e6 / ((System.nanoTime() - start) / 1e9);
+			System.out.printf("%s plain %.0f MB/s, ByteCounter %.0f MB/s, direct buffer %.0f MB/s, countWeights(File) %.0f MB/s  (%d)%n",
+					          (pass == 0) ? "warm-up: " : "measured:", plain, kernel, buffer, file, check);
+		}
+	}
+
+	/**
+	 * Times BitWriter.writeSymbols on a text file with codes built from it,
+	 * with the scalar loop and with the Vector API kernel, and checks that
+	 * both give the same output.
+	 *
+	 * @param args pack [source] [reps]
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void benchPack(String[] args) throws IOException {
+		byte[] text = Files.readAllBytes(Path.of(strArg(args, 1, "data/warAndPeace.txt")));
+		int reps = intArg(args, 2, 20);
+		HuffmanCompressionUtilities huffUtil = new HuffmanCompressionUtilities();
+		huffUtil.setWeights(new GenWeights(null).countBytes(text, 0, text.length, new int[256]));
+		huffUtil.buildHuffmanTree(true);
+		huffUtil.createHuffmanCodes(huffUtil.getTreeRoot(), "", 0);
+		CodeTable codes = huffUtil.getCodeTable();
+		System.out.println("Vector kernel available: "+BitWriter.VECTOR_AVAILABLE);
+		for (int pass = 0; pass < 2; pass++) {
+			byte[][] out = new byte[2][];
+			double[] rates = new double[2];
+			for (int v = 0; v < 2; v++) {
+				long start = System.nanoTime();
+				for (int r = 0; r < reps; r++) {
+					ByteArraySink sink = new ByteArraySink(text.length / 2);
+					BitWriter bw = new BitWriter(sink.getBuffer(), sink);
+					bw.setVectorized(v == 1);
+					for (int off = 0; off < text.length; off += 1 << 16) {
+						bw.writeSymbols(codes, text, off, Math.min(1 << 16, text.length - off));
+					}
+					bw.flush();
+					out[v] = sink.toByteArray();
+				}
+				rates[v] = (double) text.length * reps / 1e6 / ((System.nanoTime() - start) / 1e9);
+			}
+			System.out.printf("%s scalar %.0f MB/s, vector %.0f MB/s, identical output: %b%n",
+					          (pass == 0) ? "warm-up: " : "measured:", rates[0], rates[1], Arrays.equals(out[0], out[1]));
+		}
+	}
+}
@@ -0,0 +1,267 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Class HuffCompCLI. Command line front end for the compression engine.
+ *
+ * compress writes the container format (HuffContainer), with the coding method
+ * chosen by -m. decompress looks at the start of the file: a container is
+ * decoded with the method recorded in it; anything else is taken to be the
+ * original encoded format, which needs its weights file. train builds a shared
+ * table for the "shared" mode from sample files (TableRegistry).
+ */
+public class HuffCompCLI {
+
+	/** Used for the original encoded format. */
+	private EncodeDecode encdec;
+
+	/**
+	 * Instantiates a new CLI.
+	 */
+	public HuffCompCLI() {
+		HuffCompAlerts hca = new HuffCompAlerts(null);
+		encdec = new EncodeDecode(new GenWeights(hca), hca);
+	}
+
+	/**
+	 * Runs the command given by args.
+	 *
+	 * @param args the command line arguments
+	 */
+	public static void main(String[] args) {
+		HuffCompCLI cli = new HuffCompCLI();
+		try {
+			if (!cli.run(args)) {
+				usage();
+				System.exit(2);
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			System.err.println("ERROR - "+e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Prints the usage message.
+	 */
+	private static void usage() {
+		StringBuilder modes = new StringBuilder();
+		for (HuffContainer.Mode m : HuffContainer.Mode.values()) {
+			modes.append(modes.length() == 0 ? "" : ", ").append(m.getLabel());
+		}
+		System.out.println("Usage: java HuffCompCLI compress [-m mode] [-b blockSize] [-l level] [-t threads] [-T table] [-d tableDir] <in> <out>");
+		System.out.println("       java HuffCompCLI decompress [-t threads] [-d tableDir] <in> <out> [weights]");
+		System.out.println("       java HuffCompCLI train [-d tableDir] <sample files or directories>");
+		System.out.println("       java HuffCompCLI weights [-s fraction] <in> <weights>   (original format)");
+		System.out.println("       java HuffCompCLI encode <in> <out> <weights>   (original format)");
+		System.out.println("       java HuffCompCLI size <in> <weights>   (predicted encoded size, original format)");
+		System.out.println("  modes: "+modes+" (default "+HuffContainer.Mode.HUFFMAN.getLabel()+")");
+	}
+
+	/**
+	 * Runs one command.
+	 *
+	 * @param args the command line arguments
+	 * @return false if the arguments are not valid
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	boolean run(String[] args) throws IOException {
+		if (args.length == 0)
+			return false;
+		switch (args[0]) {
+		case "compress": return compress(args);
+		case "decompress": return decompress(args);
+		case "train": return train(args);
+		case "weights": return weights(args);
+		case "encode":
+			if (args.length != 4)
+				return false;
+			checkInput(args[1]);
+			long start = System.nanoTime();
+			if (!encdec.encode(args[1], args[2], args[3], true))
+				throw new IOException("encode failed; "+args[2]+" was not written");
+			report("encode", new File(args[1]).length(), new File(args[2]).length(), System.nanoTime() - start);
+			return true;
+		case "size":
+			if (args.length != 3)
+				return false;
+			checkInput(args[1]);
+			checkInput(args[2]);
+			long size = encdec.predictEncodedSize(new File(args[1]), new File(args[2]), true);
+			if (size < 0)
+				throw new IOException(args[1]+" has characters with no code in "+args[2]);
+			long raw = new File(args[1]).length();
+			System.out.printf("size: %d -> %d bytes predicted, ratio %.3f%n", raw, size, (raw == 0) ? 0.0 : size / (double) raw);
+			return true;
+		default: return false;
+		}
+	}
+
+	/**
+	 * Compresses a file into the container format.
+	 *
+	 * @param args compress [-m mode] [-b blockSize] [-l level] [-t threads] [-T table] [-d tableDir] in out
+	 * @return false if the arguments are not valid
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private boolean compress(String[] args) throws IOException {
+		HuffContainer.Mode mode = HuffContainer.Mode.HUFFMAN;
+		int blockSize = HuffContainer.DEFAULT_BLOCK_SIZE;
+		int level = HuffContainer.DEFAULT_LEVEL;
+		int threads = 1;
+		int table = TableRegistry.BUILTIN_ID;
+		String tableDir = TableRegistry.DEFAULT_DIR;
+		int i = 1;
+		for (; i < args.length - 1 && args[i].startsWith("-"); i += 2) {
+			switch (args[i]) {
+			case "-m":
+				mode = HuffContainer.Mode.fromLabel(args[i + 1]);
+				if (mode == null)
+					throw new IllegalArgumentException("Unknown mode: "+args[i + 1]);
+				break;
+			case "-b": blockSize = Integer.parseInt(args[i + 1]); break;
+			case "-l": level = Integer.parseInt(args[i + 1]); break;
+			case "-t": threads = Integer.parseInt(args[i + 1]); break;
+			case "-T": table = Integer.parseInt(args[i + 1]); break;
+			case "-d": tableDir = args[i + 1]; break;
+			default: return false;
+			}
+		}
+		if (args.length - i != 2)
+			return false;
+		File in = checkInput(args[i]);
+		long start = System.nanoTime();
+		HuffContainer hc = new HuffContainer(mode, blockSize);
+		hc.setLevel(level);
+		hc.setThreads(threads);
+		hc.setTable(new TableRegistry(new File(tableDir)), table);
+		long size = hc.compress(in, new File(args[i + 1]));
+		report("compress ("+mode.getLabel()+")", in.length(), size, System.nanoTime() - start);
+		return true;
+	}
+
+	/**
+	 * Decompresses a container, or a file in the original format.
+	 *
+	 * @param args decompress [-t threads] [-d tableDir] in out [weights]
+	 * @return false if the arguments are not valid
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private boolean decompress(String[] args) throws IOException {
+		int threads = 1;
+		String tableDir = TableRegistry.DEFAULT_DIR;
+		int i = 1;
+		for (; i < args.length - 1 && args[i].startsWith("-"); i += 2) {
+			switch (args[i]) {
+			case "-t": threads = Integer.parseInt(args[i + 1]); break;
+			case "-d": tableDir = args[i + 1]; break;
+			default: return false;
+			}
+		}
+		if (args.length - i != 2 && args.length - i != 3)
+			return false;
+		File in = checkInput(args[i]);
+		File out = new File(args[i + 1]);
+		long start = System.nanoTime();
+		if (HuffContainer.isContainer(in)) {
+			HuffContainer hc = new HuffContainer(HuffContainer.Mode.HUFFMAN);
+			hc.setThreads(threads);
+			hc.setTable(new TableRegistry(new File(tableDir)), TableRegistry.BUILTIN_ID);
+			hc.decompress(in, out);
+		} else {
+			if (args.length - i != 3)
+				throw new IOException(in.getPath()+" is not a container file; the weights file is needed");
+			if (!encdec.decode(args[i], args[i + 1], args[i + 2], true))
+				throw new IOException("decode failed; "+args[i + 1]+" was not written");
+		}
+		report("decompress", out.length(), in.length(), System.nanoTime() - start);
+		return true;
+	}
+
+	/**
+	 * Trains a shared table from sample files and saves it in the registry.
+	 *
+	 * @param args train [-d tableDir] samples...
+	 * @return false if the arguments are not valid
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private boolean train(String[] args) throws IOException {
+		String tableDir = TableRegistry.DEFAULT_DIR;
+		int i = 1;
+		if (args.length > 2 && args[1].equals("-d")) {
+			tableDir = args[2];
+			i = 3;
+		}
+		if (i >= args.length)
+			return false;
+		List<File> samples = new ArrayList<File>();
+		for (; i < args.length; i++) {
+			samples.add(new File(args[i]));
+		}
+		TableRegistry registry = new TableRegistry(new File(tableDir));
+		int id = registry.train(samples);
+		System.out.println("trained table "+id+": "+registry.getFile(id).getPath());
+		return true;
+	}
+
+	/**
+	 * Writes a weights file for the original format, counted from the whole
+	 * input or estimated from a sample of it.
+	 *
+	 * @param args weights [-s fraction] in weights
+	 * @return false if the arguments are not valid
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private boolean weights(String[] args) throws IOException {
+		double fraction = 1;
+		int i = 1;
+		if (args.length > 2 && args[1].equals("-s")) {
+			fraction = Double.parseDouble(args[2]);
+			i = 3;
+		}
+		if (args.length - i != 2)
+			return false;
+		checkInput(args[i]);
+		GenWeights gw = new GenWeights(new HuffCompAlerts(null));
+		long start = System.nanoTime();
+		if (fraction < 1) {
+			gw.estimateWeights(new File(args[i]), fraction);
+			System.out.printf("sample: %s of the file, estimated ratio loss %.2f%%%n", fraction, 100 * gw.getEstimatedLoss());
+		} else {
+			gw.initWeights();
+			gw.countWeights(new File(args[i]), gw.getLongWeights());
+		}
+		gw.writeWeights(new File(args[i + 1]), gw.getLongWeights());
+		System.out.printf("weights: %.1f ms%n", (System.nanoTime() - start) / 1e6);
+		return true;
+	}
+
+	/**
+	 * Checks that the input file exists.
+	 *
+	 * @param name the file name
+	 * @return the file
+	 * @throws IOException if the file does not exist
+	 */
+	private File checkInput(String name) throws IOException {
+		File f = new File(name);
+		if (!f.isFile())
+			throw new IOException("No such file: "+name);
+		return f;
+	}
+
+	/**
+	 * Prints the sizes, ratio and speed of an operation.
+	 *
+	 * @param what the operation
+	 * @param rawSize the uncompressed size
+	 * @param packedSize the compressed size
+	 * @param nanos the elapsed time
+	 */
+	private void report(String what, long rawSize, long packedSize, long nanos) {
+		System.out.printf("%s: %d -> %d bytes, ratio %.3f, %.1f MB/s%n", what, rawSize, packedSize,
+				          (rawSize == 0) ? 0.0 : packedSize / (double) rawSize, rawSize / 1e6 / (nanos / 1e9));
+	}
+}
@@ -1,15 +1,21 @@
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.geometry.HPos;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -20,11 +26,13 @@ import javafx.scene.control.ButtonType;
 import javafx.scene.control.CheckBox;
 import javafx.scene.control.ComboBox;
 import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
 import javafx.scene.control.TextField;
 import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.ColumnConstraints;
 import javafx.scene.layout.GridPane;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
 import javafx.scene.text.Font;
 import javafx.scene.text.FontWeight;
 import javafx.stage.Stage;
@@ -58,12 +66,15 @@ public class HuffCompGUI extends Application {
     
     /** boxes */
     private HBox optionBox = new HBox(15);
+    private HBox statusBox = new HBox(10);
+    private VBox bottomBox = new VBox();
     
     /** buttons and checkboxes */
 	private Button btnGenWeights;
 	private Button btnEncode;
 	private Button btnDecode;
 	private Button btnClear;
+	private Button btnCancel;
     private CheckBox ckbSaveWeights;
     private CheckBox ckbOptimize;
 
@@ -73,6 +84,10 @@ public class HuffCompGUI extends Application {
     private Label lblWeights;
     private Label lblEncode;
     private Label lblDecode;
+    private Label lblStatus;
+    
+    /** progress of the background operation */
+    private ProgressBar progressBar;
     
     /** text fields */
 	private ComboBox<String> sourceFile;
@@ -86,6 +101,9 @@ public class HuffCompGUI extends Application {
     private EncodeDecode encdec;
     private HuffCompAlerts hca;
     
+    /** the background operation in progress - null if idle */
+    private EngineTask currentTask;
+    
 	/**
 	 * Instantiates a new huffman compression GUI.
 	 */
@@ -113,6 +131,8 @@ public class HuffCompGUI extends Application {
 		lblEncode.setFont(Font.font("Arial",FontWeight.BOLD,14));	
 		lblDecode = new Label("Decoded File: ");
 		lblDecode.setFont(Font.font("Arial",FontWeight.BOLD,14));	
+		lblStatus = new Label("");
+		lblStatus.setFont(Font.font("Arial",12));
 	}
 	
 	/**
@@ -150,6 +170,10 @@ public class HuffCompGUI extends Application {
 		btnEncode = new Button("Encode");
 		btnDecode = new Button("Decode");
 		btnClear = new Button("Clear Fields");
+		btnCancel = new Button("Cancel");
+		btnCancel.setDisable(true);
+		progressBar = new ProgressBar(0);
+		progressBar.setPrefWidth(TF_WIDTH / 2);
 		ckbSaveWeights = new CheckBox("Save Weights");
 		ckbSaveWeights.setSelected(saveWeights);
 		ckbOptimize = new CheckBox("Optimize");
@@ -159,6 +183,7 @@ public class HuffCompGUI extends Application {
 		btnClear.setOnAction(e -> clearAllFields());
 		btnEncode.setOnAction(e->executeEncode());
 		btnDecode.setOnAction(e->executeDecode());
+		btnCancel.setOnAction(e->cancelTask());
 		ckbSaveWeights.setOnAction(e -> saveWeights = ckbSaveWeights.isSelected());
 		ckbOptimize.setOnAction(e -> {optimize = ckbOptimize.isSelected();
 									  updateTextFieldDefaults(sourceFile.getValue());
@@ -229,7 +254,10 @@ public class HuffCompGUI extends Application {
 		optionBox.setAlignment(Pos.CENTER);
 		optionBox.setPrefHeight(OPTIONS_HEIGHT);
 		optionBox.getChildren().addAll(btnClear,ckbSaveWeights,ckbOptimize);
-		
+		statusBox.setAlignment(Pos.CENTER);
+		statusBox.setPrefHeight(OPTIONS_HEIGHT);
+		statusBox.getChildren().addAll(progressBar,btnCancel,lblStatus);
+		bottomBox.getChildren().addAll(optionBox,statusBox);
 	}
 	
 	/**
@@ -240,7 +268,7 @@ public class HuffCompGUI extends Application {
 		pane.setTop(hdr);
 		BorderPane.setAlignment(hdr, Pos.CENTER);		
 		pane.setCenter(gp);		
-		pane.setBottom(optionBox);
+		pane.setBottom(bottomBox);
 	}
 	
 	/**
@@ -329,37 +357,220 @@ public class HuffCompGUI extends Application {
 	/**
 	 * Calls GenWeights.generateWeights with the selected sourceFile.
 	 * If saveWeights is true, writes the weights to the specified file 
-	 * the weights/ directory.
+	 * the weights/ directory. Runs in the background - see runTask.
 	 */
 	private void generateWeights() {
-		gw.generateWeights("data/"+sourceFile.getValue());
-		if (saveWeights) 
-			gw.saveWeightsToFile("weights/"+weightsFile.getText());
+		String src = "data/"+sourceFile.getValue();
+		String wts = "weights/"+weightsFile.getText();
+		boolean save = saveWeights;
+		runTask("Generate weights", src, task -> {
+			gw.generateWeights(src);
+			if (save && !task.isCancelled()) 
+				gw.saveWeightsToFile(wts);
+		});
 	}
 	
 	/**
 	 * Encodes the specified text file using the specified weights file
 	 * (if this file does not exist, encode will generate the weights
 	 * from the text file) and writes the encoded data to the specified 
-	 * file in the encode/ directory.
+	 * file in the encode/ directory. Runs in the background - see runTask.
 	 */
 	private void executeEncode() {
-		encdec.encode("data/"+sourceFile.getValue(),
-				      "encode/"+encodeFile.getText(),
-				      "weights/"+weightsFile.getText(),
-				      optimize);
+		String src = "data/"+sourceFile.getValue();
+		String enc = "encode/"+encodeFile.getText();
+		String wts = "weights/"+weightsFile.getText();
+		boolean opt = optimize;
+		runTask("Encode", src, task -> encdec.encode(src, enc, wts, opt));
 	}
 	
 	/**
 	 * Decodes the specified encoded file using the specified weights file, 
 	 * WHICH MUST EXIST. Writes the decoded data to the specified file in
-	 * the decode/ directory.
+	 * the decode/ directory. Runs in the background - see runTask.
 	 */
 	private void executeDecode() {
-		encdec.decode("encode/"+encodeFile.getText(),
-				      "decode/"+decodeFile.getText(),
-				      "weights/"+weightsFile.getText(),
-				      optimize);
+		String enc = "encode/"+encodeFile.getText();
+		String dec = "decode/"+decodeFile.getText();
+		String wts = "weights/"+weightsFile.getText();
+		boolean opt = optimize;
+		runTask("Decode", enc, task -> encdec.decode(enc, dec, wts, opt));
+	}
+	
+	/**
+	 * The Interface EngineJob - the work done by an EngineTask. The task is passed
+	 * in so that the job can check whether it has been cancelled.
+	 */
+	private interface EngineJob {
+		void run(EngineTask task);
+	}
+	
+	/**
+	 * The Class EngineTask. Runs one GenWeights or EncodeDecode operation on a background
+	 * thread, so that the GUI stays responsive. The task is installed as the ProgressListener
+	 * for gw and encdec while it runs: progress updates drive the progress bar and the Cancel
+	 * button stops the engine at its next progress point. The controls are only reset once
+	 * call() has actually returned, so a cancelled job can never overlap the next one.
+	 */
+	private class EngineTask extends Task<Void> implements ProgressListener {
+		private final String name;
+		private final EngineJob job;
+		private final long inputBytes;
+		private long startTime;
+		private long stopTime;
+		
+		/**
+		 * Instantiates a new engine task.
+		 *
+		 * @param name the name of the operation, used in the status line
+		 * @param input the input file - its length is used to report throughput
+		 * @param job the work to do
+		 */
+		EngineTask(String name, String input, EngineJob job) {
+			this.name = name;
+			this.job = job;
+			this.inputBytes = new File(input).length();
+		}
+		
+		@Override
+		protected Void call() {
+			gw.setProgressListener(this);
+			encdec.setProgressListener(this);
+			startTime = System.nanoTime();
+			String status = name + " failed";
+			try {
+				job.run(this);
+				stopTime = System.nanoTime();
+				status = isCancelled() ? name + " cancelled" : throughput();
+			} catch (RuntimeException e) {
+				status = name + " failed: " + e;
+				throw e;
+			} finally {
+				gw.setProgressListener(null);
+				encdec.setProgressListener(null);
+				String finalStatus = status;
+				Platform.runLater(() -> taskFinished(finalStatus));
+			}
+			return null;
+		}
+		
+		@Override
+		public void progress(long done, long total) {
+			updateProgress(done, total);
+		}
+		
+		/**
+		 * Describes the throughput of the finished task.
+		 *
+		 * @return the status line text
+		 */
+		String throughput() {
+			double secs = (stopTime - startTime) / 1e9;
+			return String.format("%s: %,d bytes in %.2f s (%.2f MB/s)", name, inputBytes, secs,
+					             inputBytes / 1e6 / Math.max(secs, 1e-9));
+		}
+	}
+	
+	/**
+	 * Runs job as a background EngineTask. The action buttons are disabled and the
+	 * Cancel button enabled until the task finishes; on completion the throughput is
+	 * shown in the status line. Alerts raised by the engine while the task runs are
+	 * passed to the JavaFX application thread (see runOnFxThread).
+	 *
+	 * @param name the name of the operation
+	 * @param input the input file name
+	 * @param job the work to do
+	 */
+	private void runTask(String name, String input, EngineJob job) {
+		if (currentTask != null)
+			return;
+		EngineTask task = new EngineTask(name, input, job);
+		currentTask = task;
+		setBusy(true);
+		lblStatus.setText(name + "...");
+		progressBar.progressProperty().bind(task.progressProperty());
+		Thread th = new Thread(task, "HuffComp-" + name);
+		th.setDaemon(true);
+		th.start();
+	}
+	
+	/**
+	 * Cancels the background task, if there is one. The engine notices at its next
+	 * progress point; the controls are reset when the task's call() returns.
+	 */
+	private void cancelTask() {
+		if (currentTask != null) {
+			currentTask.cancel(false);
+			btnCancel.setDisable(true);
+		}
+	}
+	
+	/**
+	 * Resets the controls once the background task has finished.
+	 *
+	 * @param status the text for the status line
+	 */
+	private void taskFinished(String status) {
+		progressBar.progressProperty().unbind();
+		progressBar.setProgress(0);
+		lblStatus.setText(status);
+		currentTask = null;
+		setBusy(false);
+	}
+	
+	/**
+	 * Enables or disables the action buttons while a background task runs.
+	 *
+	 * @param busy true if a task is running
+	 */
+	private void setBusy(boolean busy) {
+		btnGenWeights.setDisable(busy);
+		btnEncode.setDisable(busy);
+		btnDecode.setDisable(busy);
+		btnCancel.setDisable(!busy);
+	}
+	
+	/**
+	 * Runs action on the JavaFX application thread and waits for the result. Alerts can
+	 * be raised by the engine from a background task, but dialogs may only be shown from
+	 * the application thread.
+	 *
+	 * @param action the action to run
+	 * @return the result of the action, or null if it failed or the wait was interrupted
+	 */
+	private <T> T runOnFxThread(Callable<T> action) {
+		FutureTask<T> ft = new FutureTask<T>(action);
+		if (Platform.isFxApplicationThread())
+			ft.run();
+		else
+			Platform.runLater(ft);
+		try {
+			return ft.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			e.printStackTrace();
+		}
+		return null;
+	}
+	
+	/**
+	 * Shows an alert and waits for the user to close it. Alerts are raised by
+	 * the engine from the background task, so the dialog is shown on the
+	 * JavaFX application thread (see runOnFxThread).
+	 *
+	 * @param type the alert type
+	 * @param hdr the header text
+	 * @param msg the message
+	 * @return the button the user pressed, or null if the dialog could not be shown
+	 */
+	private Optional<ButtonType> showAlert(AlertType type, String hdr, String msg) {
+		return runOnFxThread(() -> {
+			Alert alert = new Alert(type);
+			alert.setHeaderText(hdr);
+			alert.setContentText(msg);
+			return alert.showAndWait();
+		});
 	}
 	
 	/**
@@ -370,10 +581,7 @@ public class HuffCompGUI extends Application {
 	 * @param errorMsg the error msg
 	 */
 	void inputAlert(String hdr, String errorMsg) {
-			Alert alert = new Alert(AlertType.WARNING);
-			alert.setHeaderText(hdr);
-			alert.setContentText(errorMsg);
-			alert.showAndWait();
+		showAlert(AlertType.WARNING, hdr, errorMsg);
 	}
 
 	/**
@@ -384,10 +592,7 @@ public class HuffCompGUI extends Application {
 	 * @param errorMsg the error msg
 	 */
 	void outputAlert(String hdr, String errorMsg) {
-			Alert alert = new Alert(AlertType.WARNING);
-			alert.setHeaderText(hdr);
-			alert.setContentText(errorMsg);
-			alert.showAndWait();
+		showAlert(AlertType.WARNING, hdr, errorMsg);
 	}
 
 	/**
@@ -400,13 +605,8 @@ public class HuffCompGUI extends Application {
 	 * @return true if the user confirms the action; otherwise false.
 	 */
 	boolean confirmAlert(String hdr, String msg) {	
-			Alert alert = new Alert(AlertType.CONFIRMATION);
-			alert.setHeaderText(hdr);
-			alert.setContentText(msg);
-			Optional<ButtonType> result = alert.showAndWait();
-			if (result.isPresent())
-				return(result.get() == ButtonType.OK);
-			return false;
+		Optional<ButtonType> result = showAlert(AlertType.CONFIRMATION, hdr, msg);
+		return (result != null) && result.isPresent() && (result.get() == ButtonType.OK);
 	}
 
 	/**
@@ -416,10 +616,7 @@ public class HuffCompGUI extends Application {
 	 * @param success the success
 	 */
 	void doneAlert(String hdr, String success) {
-			Alert alert = new Alert(AlertType.INFORMATION);
-			alert.setHeaderText(hdr);
-			alert.setContentText(success);
-			alert.showAndWait();
+		showAlert(AlertType.INFORMATION, hdr, success);
 	}
 	
 	/**
@@ -0,0 +1,502 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The Class HuffContainer. A self-describing compressed file format that
+ * holds data in independently coded blocks, so that different coding methods
+ * (modes) can share one file layout. Unlike the original encoded format, the
+ * decoder needs no separate weights file, and any byte values can be stored.
+ *
+ * Layout (varints as written by BinaryIO.writeVarint):
+ *   'H' 'F' 'C' version  - magic and format version (4 bytes)
+ *   mode                 - one byte, the Mode id
+ *   block size           - varint, the maximum raw length of a block
+ *   blocks               - for each: raw length (varint), payload length (varint), payload
+ *   0                    - a raw length of 0 marks the end
+ */
+public class HuffContainer {
+
+	/** The magic bytes at the start of every container file. */
+	static final byte[] MAGIC = {'H', 'F', 'C'};
+
+	/** The current format version. */
+	static final int VERSION = 1;
+
+	/** The default block size. */
+	static final int DEFAULT_BLOCK_SIZE = 1 << 18;
+
+	/** The largest block size allowed. */
+	static final int MAX_BLOCK_SIZE = 1 << 26;
+
+	/** The default compression level. */
+	static final int DEFAULT_LEVEL = 6;
+
+	/**
+	 * The Enum Mode - the coding method used for the blocks of a container.
+	 */
+	enum Mode {
+
+		/** Huffman coding, one bit stream per block. */
+		HUFFMAN(0, "huffman"),
+
+		/** Huffman coding, four interleaved bit streams per block. */
+		HUFFMAN_X4(1, "huffman4"),
+
+		/** Table-based asymmetric numeral systems (tANS/FSE) coding. */
+		TANS(2, "tans"),
+
+		/** Static range (arithmetic) coding - smallest output, slowest. */
+		RANGE(3, "range"),
+
+		/** Order-1 Huffman coding - a table per cluster of preceding bytes. */
+		ORDER1(4, "order1"),
+
+		/** LZ77 matching followed by Huffman coding; the level sets the match effort. */
+		LZ(5, "lz"),
+
+		/** Burrows-Wheeler transform, move-to-front and zero-run coding, then Huffman coding. */
+		BWT(6, "bwt"),
+
+		/** Word-level Huffman coding: repeated words and separators are coded as single symbols. */
+		WORD(7, "word"),
+
+		/** Huffman coding with a shared, pre-trained table (TableRegistry); for small files. */
+		SHARED(8, "shared");
+
+		/** The id stored in the file. */
+		private final int id;
+
+		/** The name used on the command line. */
+		private final String label;
+
+		/**
+		 * Instantiates a new mode.
+		 *
+		 * @param id the id stored in the file
+		 * @param label the name used on the command line
+		 */
+		Mode(int id, String label) {
+			this.id = id;
+			this.label = label;
+		}
+
+		/**
+		 * Gets the id stored in the file.
+		 *
+		 * @return the id
+		 */
+		int getId() {
+			return id;
+		}
+
+		/**
+		 * Gets the command line name.
+		 *
+		 * @return the label
+		 */
+		String getLabel() {
+			return label;
+		}
+
+		/**
+		 * Creates a codec for this mode, at the default level.
+		 *
+		 * @return the codec
+		 */
+		BlockCodec newCodec() {
+			return newCodec(DEFAULT_LEVEL);
+		}
+
+		/**
+		 * Creates a codec for this mode. The level only affects modes that
+		 * have a speed/size trade-off; decoding does not depend on it.
+		 *
+		 * @param level the compression level, 1 to 9
+		 * @return the codec
+		 */
+		BlockCodec newCodec(int level) {
+			switch (this) {
+			case HUFFMAN_X4: return new HuffmanBlockCodec(4);
+			case TANS: return new TansBlockCodec();
+			case RANGE: return new RangeBlockCodec();
+			case ORDER1: return new Order1BlockCodec();
+			case LZ: return new LzBlockCodec(level, LzBlockCodec.DEFAULT_WINDOW_BITS);
+			case BWT: return new BwtBlockCodec();
+			case WORD: return new WordBlockCodec();
+			case SHARED:
+				return new SharedTableBlockCodec(new TableRegistry(new File(TableRegistry.DEFAULT_DIR)), TableRegistry.BUILTIN_ID);
+			default: return new HuffmanBlockCodec(1);
+			}
+		}
+
+		/**
+		 * Finds the mode with the given id.
+		 *
+		 * @param id the id
+		 * @return the mode, or null if there is none
+		 */
+		static Mode fromId(int id) {
+			for (Mode m : values()) {
+				if (m.id == id)
+					return m;
+			}
+			return null;
+		}
+
+		/**
+		 * Finds the mode with the given command line name.
+		 *
+		 * @param label the name
+		 * @return the mode, or null if there is none
+		 */
+		static Mode fromLabel(String label) {
+			for (Mode m : values()) {
+				if (m.label.equalsIgnoreCase(label))
+					return m;
+			}
+			return null;
+		}
+	}
+
+	/** Used to read and write varints. */
+	private BinaryIO binUtil;
+
+	/** The coding method for compress. */
+	private Mode mode;
+
+	/** The block size for compress. */
+	private int blockSize;
+
+	/** The compression level for compress. */
+	private int level;
+
+	/** The number of threads used to code blocks. */
+	private int threads;
+
+	/** The registry of shared tables, for the SHARED mode. */
+	private TableRegistry registry;
+
+	/** The shared table to compress with, for the SHARED mode. */
+	private int tableId;
+
+	/**
+	 * Instantiates a new container with the default block size.
+	 *
+	 * @param mode the coding method to compress with
+	 */
+	public HuffContainer(Mode mode) {
+		this(mode, DEFAULT_BLOCK_SIZE);
+	}
+
+	/**
+	 * Instantiates a new container.
+	 *
+	 * @param mode the coding method to compress with
+	 * @param blockSize the block size to compress with
+	 */
+	public HuffContainer(Mode mode, int blockSize) {
+		if (blockSize < 1 || blockSize > MAX_BLOCK_SIZE)
+			throw new IllegalArgumentException("Bad block size: "+blockSize);
+		this.mode = mode;
+		this.blockSize = blockSize;
+		level = DEFAULT_LEVEL;
+		threads = 1;
+		registry = new TableRegistry(new File(TableRegistry.DEFAULT_DIR));
+		tableId = TableRegistry.BUILTIN_ID;
+		binUtil = new BinaryIO();
+	}
+
+	/**
+	 * Sets the shared table registry, and the table that the SHARED mode
+	 * compresses with. Decompression loads whichever tables the blocks name
+	 * from the same registry.
+	 *
+	 * @param registry the registry
+	 * @param tableId the table to compress with
+	 */
+	void setTable(TableRegistry registry, int tableId) {
+		this.registry = registry;
+		this.tableId = tableId;
+	}
+
+	/**
+	 * Creates a codec for a mode, with this container's level and shared table.
+	 *
+	 * @param m the mode
+	 * @return the codec
+	 */
+	private BlockCodec createCodec(Mode m) {
+		if (m == Mode.SHARED)
+			return new SharedTableBlockCodec(registry, tableId);
+		return m.newCodec(level);
+	}
+
+	/**
+	 * Sets the number of threads used to code blocks. With more than one, blocks
+	 * are coded in parallel (each thread with its own codec) and written in order;
+	 * the output is the same as with one thread.
+	 *
+	 * @param threads the number of threads, 1 or more
+	 */
+	void setThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("threads must be 1 or more: "+threads);
+		this.threads = threads;
+	}
+
+	/**
+	 * Sets the compression level used by compress, for the modes that have one.
+	 *
+	 * @param level the level, 1 (fastest) to 9 (smallest)
+	 */
+	void setLevel(int level) {
+		if (level < 1 || level > 9)
+			throw new IllegalArgumentException("level must be 1 to 9: "+level);
+		this.level = level;
+	}
+
+	/**
+	 * Checks whether a file starts with the container magic.
+	 *
+	 * @param file the file
+	 * @return true, if the file is a container
+	 */
+	static boolean isContainer(File file) {
+		try (InputStream is = new FileInputStream(file)) {
+			byte[] head = is.readNBytes(MAGIC.length);
+			return Arrays.equals(head, MAGIC);
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Compresses inFile into outFile.
+	 *
+	 * @param inFile the file to compress
+	 * @param outFile the container file to create
+	 * @return the size of outFile
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	long compress(File inFile, File outFile) throws IOException {
+		try (InputStream is = new FileInputStream(inFile);
+			 OutputStream os = new BufferedOutputStream(new FileOutputStream(outFile), 1 << 16)) {
+			compress(is, os);
+		}
+		return outFile.length();
+	}
+
+	/**
+	 * Compresses the rest of a stream.
+	 *
+	 * @param is the data to compress
+	 * @param os the stream to write the container to
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	void compress(InputStream is, OutputStream os) throws IOException {
+		os.write(MAGIC);
+		os.write(VERSION);
+		os.write(mode.getId());
+		binUtil.writeVarint(os, blockSize);
+		if (threads > 1) {
+			compressParallel(is, os);
+		} else {
+			BlockCodec codec = createCodec(mode);
+			byte[] block = new byte[blockSize];
+			int n;
+			while ((n = is.readNBytes(block, 0, blockSize)) > 0) {
+				writeBlock(os, n, codec.encodeBlock(block, 0, n));
+			}
+		}
+		binUtil.writeVarint(os, 0);
+	}
+
+	/**
+	 * Writes one block: its raw length, payload length and payload.
+	 *
+	 * @param os the container stream
+	 * @param rawLen the raw length of the block
+	 * @param payload the payload
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void writeBlock(OutputStream os, int rawLen, byte[] payload) throws IOException {
+		binUtil.writeVarint(os, rawLen);
+		binUtil.writeVarint(os, payload.length);
+		os.write(payload);
+	}
+
+	/**
+	 * Compresses the blocks on a pool of threads. At most 2 blocks per thread
+	 * are read ahead, and the payloads are written in block order.
+	 *
+	 * @param is the data to compress
+	 * @param os the container stream
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void compressParallel(InputStream is, OutputStream os) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ThreadLocal<BlockCodec> codecs = ThreadLocal.withInitial(() -> createCodec(mode));
+		ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+		ArrayDeque<Integer> lengths = new ArrayDeque<Integer>();
+		try {
+			boolean more = true;
+			while (more || !pending.isEmpty()) {
+				if (more) {
+					byte[] block = is.readNBytes(blockSize);
+					more = block.length > 0;
+					if (more) {
+						pending.add(pool.submit(() -> codecs.get().encodeBlock(block, 0, block.length)));
+						lengths.add(block.length);
+					}
+				}
+				if (!pending.isEmpty() && (!more || pending.size() >= 2 * threads))
+					writeBlock(os, lengths.remove(), await(pending.remove()));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Waits for a block task, passing on any exception it threw.
+	 *
+	 * @param f the task
+	 * @return the task's result
+	 * @throws IOException if the task failed, or the wait was interrupted
+	 */
+	private byte[] await(Future<byte[]> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for a block");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Block coding failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Decompresses a container file. The mode is read from the file.
+	 *
+	 * @param inFile the container file
+	 * @param outFile the file to create
+	 * @return the size of outFile
+	 * @throws IOException if the file is not a valid container, or an I/O exception occurred
+	 */
+	long decompress(File inFile, File outFile) throws IOException {
+		try (InputStream is = new BufferedInputStream(new FileInputStream(inFile), 1 << 16);
+			 OutputStream os = new FileOutputStream(outFile)) {
+			decompress(is, os);
+		}
+		return outFile.length();
+	}
+
+	/**
+	 * Decompresses a container from a stream.
+	 *
+	 * @param is the container
+	 * @param os the stream to write the data to
+	 * @throws IOException if the data is not a valid container, or an I/O exception occurred
+	 */
+	void decompress(InputStream is, OutputStream os) throws IOException {
+		Mode m = readHeader(is);
+		long maxBlock = binUtil.readVarint(is);
+		if (maxBlock < 1 || maxBlock > MAX_BLOCK_SIZE)
+			throw new IOException("Bad block size: "+maxBlock);
+		if (threads > 1) {
+			decompressParallel(is, os, m, (int) maxBlock);
+			return;
+		}
+		BlockCodec codec = createCodec(m);
+		byte[] out = new byte[(int) maxBlock];
+		byte[] payload = new byte[0];
+		long rawLen;
+		while ((rawLen = binUtil.readVarint(is)) != 0) {
+			long payloadLen = binUtil.readVarint(is);
+			if (rawLen < 0 || rawLen > maxBlock || payloadLen < 0 || payloadLen > Integer.MAX_VALUE - 8)
+				throw new IOException("Bad block header");
+			if (payload.length < payloadLen)
+				payload = new byte[(int) payloadLen];
+			if (is.readNBytes(payload, 0, (int) payloadLen) != payloadLen)
+				throw new EOFException("Truncated block");
+			codec.decodeBlock(payload, 0, (int) payloadLen, out, 0, (int) rawLen);
+			os.write(out, 0, (int) rawLen);
+		}
+	}
+
+	/**
+	 * Decompresses the blocks on a pool of threads, writing them in order.
+	 *
+	 * @param is the container, positioned after the header
+	 * @param os the stream to write the data to
+	 * @param m the mode read from the header
+	 * @param maxBlock the block size read from the header
+	 * @throws IOException if the data is not a valid container, or an I/O exception occurred
+	 */
+	private void decompressParallel(InputStream is, OutputStream os, Mode m, int maxBlock) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ThreadLocal<BlockCodec> codecs = ThreadLocal.withInitial(() -> createCodec(m));
+		ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+		try {
+			boolean more = true;
+			while (more || !pending.isEmpty()) {
+				if (more) {
+					long rawLen = binUtil.readVarint(is);
+					more = rawLen != 0;
+					if (more) {
+						long payloadLen = binUtil.readVarint(is);
+						if (rawLen < 0 || rawLen > maxBlock || payloadLen < 0 || payloadLen > Integer.MAX_VALUE - 8)
+							throw new IOException("Bad block header");
+						byte[] payload = is.readNBytes((int) payloadLen);
+						if (payload.length != payloadLen)
+							throw new EOFException("Truncated block");
+						pending.add(pool.submit(() -> {
+							byte[] out = new byte[(int) rawLen];
+							codecs.get().decodeBlock(payload, 0, payload.length, out, 0, out.length);
+							return out;
+						}));
+					}
+				}
+				if (!pending.isEmpty() && (!more || pending.size() >= 2 * threads))
+					os.write(await(pending.remove()));
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads and checks the magic and version, and returns the mode.
+	 *
+	 * @param is the container
+	 * @return the mode
+	 * @throws IOException if the header is not valid
+	 */
+	private Mode readHeader(InputStream is) throws IOException {
+		byte[] head = is.readNBytes(MAGIC.length + 2);
+		if (head.length < MAGIC.length + 2 || !Arrays.equals(Arrays.copyOf(head, MAGIC.length), MAGIC))
+			throw new IOException("Not a compressed container file");
+		if (head[MAGIC.length] != VERSION)
+			throw new IOException("Unsupported container version: "+head[MAGIC.length]);
+		Mode m = Mode.fromId(head[MAGIC.length + 1]);
+		if (m == null)
+			throw new IOException("Unknown container mode: "+head[MAGIC.length + 1]);
+		return m;
+	}
+}
@@ -0,0 +1,183 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The Class HuffmanBlockCodec. Huffman coding of container blocks over the full
+ * byte alphabet. The payload holds the block's byte counts (as a sparse varint
+ * table, so the decoder can rebuild the same tree) followed by the coded data.
+ *
+ * The data can be split into 4 interleaved streams - byte i goes to stream i % 4 -
+ * each with its own bit stream, preceded by a jump table giving the sizes of
+ * the first three. The decoder then runs the four streams in lockstep; the
+ * four decodes do not depend on each other, so the CPU can overlap them
+ * instead of waiting on each code length before starting the next lookup.
+ *
+ * Payload: weights, [stream size 0..n-2 as 4-byte ints], stream 0 .. stream n-1
+ */
+public class HuffmanBlockCodec implements BlockCodec {
+
+	/** The alphabet size - every byte value. */
+	static final int NUM_SYMBOLS = 256;
+
+	/** The number of interleaved streams: 1 or 4. */
+	private final int streams;
+
+	/** Used to count the block's byte values. */
+	private GenWeights gw;
+
+	/** Builds the Huffman tree and codes for each block. */
+	private HuffmanCompressionUtilities huffUtil;
+
+	/** Used to read and write the weights table. */
+	private BinaryIO binUtil;
+
+	/**
+	 * Instantiates a new Huffman block codec.
+	 *
+	 * @param streams the number of interleaved streams, 1 or 4
+	 */
+	public HuffmanBlockCodec(int streams) {
+		if (streams != 1 && streams != 4)
+			throw new IllegalArgumentException("streams must be 1 or 4: "+streams);
+		this.streams = streams;
+		gw = new GenWeights(null);
+		huffUtil = new HuffmanCompressionUtilities();
+		binUtil = new BinaryIO();
+	}
+
+	/**
+	 * Builds the Huffman codes for the given byte counts.
+	 *
+	 * @param wts the byte counts
+	 * @return the code table
+	 */
+	private CodeTable buildCodes(int[] wts) {
+		huffUtil.setWeights(wts);
+		huffUtil.buildHuffmanTree(true);
+		huffUtil.createHuffmanCodes(huffUtil.getTreeRoot(), "", 0);
+		return huffUtil.getCodeTable();
+	}
+
+	/**
+	 * Encodes the block.
+	 *
+	 * @param data the data to encode
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @return the payload
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public byte[] encodeBlock(byte[] data, int off, int len) throws IOException {
+		int[] wts = gw.countBytes(data, off, len, new int[NUM_SYMBOLS]);
+		CodeTable codes = buildCodes(wts);
+		// the coded size is known exactly from the counts; with several streams each
+		// gets an even share, plus a margin since the shares are not exactly even
+		long codedBytes = CodeTable.bytesFor(codes.encodedBits(wts));
+		int streamSize = (int) (codedBytes / streams + ((streams > 1) ? codedBytes / 64 : 0)) + 16;
+		ByteArrayOutputStream out = new ByteArrayOutputStream((int) codedBytes + 4 * streams + 1024);
+		binUtil.writeSparseWeights(out, wts);
+		byte[][] coded = new byte[streams][];
+		for (int s = 0; s < streams; s++) {
+			ByteArraySink sink = new ByteArraySink(streamSize);
+			BitWriter bw = new BitWriter(sink.getBuffer(), sink);
+			for (int i = off + s; i < off + len; i += streams) {
+				bw.writeSymbol(codes, data[i] & 0xff);
+			}
+			bw.flush();
+			coded[s] = sink.toByteArray();
+		}
+		ByteBuffer jump = ByteBuffer.allocate(4 * (streams - 1));
+		for (int s = 0; s < streams - 1; s++) {
+			jump.putInt(coded[s].length);
+		}
+		out.write(jump.array());
+		for (byte[] c : coded) {
+			out.write(c);
+		}
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes the block.
+	 *
+	 * @param payload the buffer holding the payload
+	 * @param off the offset of the payload
+	 * @param len the length of the payload
+	 * @param out the buffer to decode into
+	 * @param outOff the offset in out of the first decoded byte
+	 * @param rawLen the number of bytes to decode
+	 * @throws IOException if the payload is corrupt
+	 */
+	@Override
+	public void decodeBlock(byte[] payload, int off, int len, byte[] out, int outOff, int rawLen) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(payload, off, len);
+		CodeTable codes = buildCodes(binUtil.readSparseWeights(bb, NUM_SYMBOLS));
+		if (huffUtil.getTreeRoot() == null && rawLen > 0)
+			throw new IOException("Corrupt Huffman block: empty code table");
+		HuffmanDecodeTable dt = new HuffmanDecodeTable(huffUtil.getTreeRoot(), codes,
+				                                       HuffmanDecodeTable.DEFAULT_TABLE_BITS);
+		if (bb.remaining() < 4 * (streams - 1))
+			throw new IOException("Truncated jump table");
+		BitReader[] br = new BitReader[streams];
+		int start = bb.position() + 4 * (streams - 1);
+		int end = off + len;
+		for (int s = 0; s < streams; s++) {
+			int size = (s < streams - 1) ? bb.getInt() : end - start;
+			if (size < 0 || size > end - start)
+				throw new IOException("Bad stream size in jump table: "+size);
+			br[s] = new BitReader(payload, start, size);
+			start += size;
+		}
+		if (streams == 4)
+			decode4(dt, br, out, outOff, rawLen);
+		else
+			decode1(dt, br[0], out, outOff, rawLen);
+		for (BitReader r : br) {
+			if (r.isOverrun())
+				throw new IOException("Corrupt block: coded data too short");
+		}
+	}
+
+	/**
+	 * Decodes a single stream.
+	 *
+	 * @param dt the decode table
+	 * @param br the stream
+	 * @param out the buffer to decode into
+	 * @param outOff the offset of the first decoded byte
+	 * @param rawLen the number of bytes to decode
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void decode1(HuffmanDecodeTable dt, BitReader br, byte[] out, int outOff, int rawLen) throws IOException {
+		for (int i = outOff; i < outOff + rawLen; i++) {
+			out[i] = (byte) dt.decode(br);
+		}
+	}
+
+	/**
+	 * Decodes four interleaved streams in lockstep, then the last 0-3 bytes.
+	 *
+	 * @param dt the decode table
+	 * @param br the four streams
+	 * @param out the buffer to decode into
+	 * @param outOff the offset of the first decoded byte
+	 * @param rawLen the number of bytes to decode
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void decode4(HuffmanDecodeTable dt, BitReader[] br, byte[] out, int outOff, int rawLen) throws IOException {
+		BitReader br0 = br[0], br1 = br[1], br2 = br[2], br3 = br[3];
+		int i = outOff;
+		int quadEnd = outOff + (rawLen & ~3);
+		for (; i < quadEnd; i += 4) {
+			out[i] = (byte) dt.decode(br0);
+			out[i + 1] = (byte) dt.decode(br1);
+			out[i + 2] = (byte) dt.decode(br2);
+			out[i + 3] = (byte) dt.decode(br3);
+		}
+		for (int s = 0; i < outOff + rawLen; i++, s++) {
+			out[i] = (byte) dt.decode(br[s]);
+		}
+	}
+}
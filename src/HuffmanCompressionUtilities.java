@@ -1,7 +1,7 @@
-import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.LinkedList;
 import java.util.PriorityQueue;
 import java.util.Queue;
@@ -33,8 +33,8 @@ public class HuffmanCompressionUtilities {
 	/** The str. This is used to print the tree structure for testing purposes */
 	private String str;
 	
-	/** The frequency weights. */
-	private int[] weights;
+	/** The frequency weights, as longs so that very large counts can be used. */
+	private long[] weights;
 
 	/** The instance of MyFileIO - fio. */
 	private MyFileIO fio;
@@ -54,7 +54,7 @@ public class HuffmanCompressionUtilities {
 		// including fio.
 		root = null;
 		fio = new MyFileIO();
-		weights = new int[NUM_ASCII];
+		weights = new long[NUM_ASCII];
 		str = "";
 		encodeMap = new String[NUM_ASCII];
 		
@@ -79,32 +79,83 @@ public class HuffmanCompressionUtilities {
 		return encodeMap;
 	}
 	
+	/**
+	 * Gets the encode map in primitive form (code lengths and packed code bits)
+	 * for the BitWriter based encoders. Call after createHuffmanCodes.
+	 *
+	 * @return the code table
+	 */
+	CodeTable getCodeTable() {
+		return new CodeTable(encodeMap);
+	}
+	
+	/**
+	 * Predicts the size of the encoded data from the weights and the codes
+	 * built from them (call after createHuffmanCodes): the sum of weight times
+	 * code length. For the original format, where the weights file counts the
+	 * text plus one EOF character, this is the exact number of bits in the
+	 * encoded file whenever the weights were counted from the text being encoded.
+	 *
+	 * @return the number of bits, or -1 if a weighted character has no code
+	 */
+	long predictEncodedBits() {
+		long total = 0;
+		for (int i = 0; i < weights.length; i++) {
+			if (weights[i] == 0)
+				continue;
+			if (encodeMap[i] == null)
+				return -1;
+			total += weights[i] * encodeMap[i].length();
+		}
+		return total;
+	}
+	
+	/**
+	 * Gets the sum of the weights. For a weights file counted from a text this
+	 * is the text's length plus one (the EOF character).
+	 *
+	 * @return the total weight
+	 */
+	long getTotalWeight() {
+		long total = 0;
+		for (long w : weights) {
+			total += w;
+		}
+		return total;
+	}
+	
 	/**
 	 * Read freq weights from the given File inf.
-	 * You can assume that this file has already been error checked
-	 * Use fio and a BufferedReader to read the line, split into
-	 * fields, and initialize the weights array/
+	 * You can assume that this file has already been error checked.
+	 * The file is read in one bulk read and may be in either weights format:
+	 * the "index,weight," text lines, or the binary format (BinaryIO.writeWeightsFile),
+	 * which is recognized by its magic. Weights that total more than an int can
+	 * hold are scaled down to fit (see WeightHistogram.toWeights).
 	 *
 	 * @param inf the File object connected to the file to be read
 	 * @return the int[] that represent the weights....
 	 */
 	int[] readFreqWeights(File inf) {
-		//TODO - write this method
-		BufferedReader br = fio.openBufferedReader(inf);
-		String line;
-		String[] split = new String[2];
-		int[] freqWeights = new int[NUM_ASCII];
+		return WeightHistogram.of(readFreqLongWeights(inf)).toWeights();
+	}			
+
+	/**
+	 * Read freq weights from the given File inf, as longs: weights files built
+	 * over very large corpora may hold counts that do not fit in an int. As
+	 * readFreqWeights, the file is read in one bulk read, in either format.
+	 *
+	 * @param inf the File object connected to the file to be read
+	 * @return the weights
+	 */
+	long[] readFreqLongWeights(File inf) {
+		long[] freqWeights = new long[NUM_ASCII];
 		try {
-			while ((line = br.readLine()) != null) {
-				split = line.split(",");
-				freqWeights[Integer.parseInt(split[0])] = Integer.parseInt(split[1]);
-			}
-			fio.closeFile(br);
+			freqWeights = new BinaryIO().parseLongWeights(Files.readAllBytes(inf.toPath()), NUM_ASCII);
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
-		return freqWeights; // remove this when written
-	}			
+		return freqWeights;
+	}
 
 	/**
 	 * Initialize huffman queue from the weights array.
@@ -129,14 +180,26 @@ public class HuffmanCompressionUtilities {
 	 * @param weights the new weights
 	 */
 	void setWeights(int[] weights) {
+		this.weights = new long[weights.length];
+		for (int i = 0; i < weights.length; i++) {
+			this.weights[i] = weights[i];
+		}
+	}
+
+	/**
+	 * Sets the weights array from long weights, for counts too large for an int.
+	 * The weights must not total more than Long.MAX_VALUE.
+	 *
+	 * @param weights the new weights
+	 */
+	void setWeights(long[] weights) {
 		this.weights = weights;
-	
 	}
 	
 	/**
 	 * Builds the huffman tree. Make sure to:
 	 * 1) initialize root to null (cleanup any prior conversions)
-	 * 2) re-initialize the encodeMap
+	 * 2) re-initialize the encodeMap (one entry per weight, so any alphabet size works)
 	 * 3) initialize the queue 
 	 * 4) build the tree:
 	 *    while the queue is not empty:
@@ -157,7 +220,7 @@ public class HuffmanCompressionUtilities {
 		HuffmanTreeNode left, right;
 		//TODO: write this method
 		root = null;
-		encodeMap = new String[NUM_ASCII];
+		encodeMap = new String[weights.length];
 		initializeHuffmanQueue(minimize);
 		while (!queue.isEmpty()) {
 			left = queue.poll();
@@ -354,6 +417,23 @@ public class HuffmanCompressionUtilities {
 		}
 		return traverseTree(root, binStr, 0);
 	}
+
+	/**
+	 * Decodes one character by walking the Huffman tree one bit at a time
+	 * from the BitReader. Unlike decodeString, the bits of the code are
+	 * consumed from the reader and no String is built.
+	 *
+	 * @param br the bit reader positioned at the start of a code
+	 * @return the ordinal value of the decoded character
+	 * @throws IOException Signals that an I/O exception has occurred in the reader.
+	 */
+	int decodeSymbol(BitReader br) throws IOException {
+		HuffmanTreeNode node = root;
+		while (!node.isLeaf()) {
+			node = (br.readBit() == 0) ? node.getLeft() : node.getRight();
+		}
+		return node.getOrdValue();
+	}
 		
 
 	/**
@@ -0,0 +1,78 @@
+import java.io.IOException;
+
+/**
+ * The Class HuffmanDecodeTable. A table-driven Huffman decoder: the next
+ * tableBits bits of input index a table whose entry gives the decoded
+ * character and its code length, so most characters are decoded with one
+ * peek, one lookup and one consume instead of a walk down the tree.
+ *
+ * Codes longer than tableBits are not in the table; for those the decoder
+ * falls back to walking the tree a bit at a time.
+ */
+public class HuffmanDecodeTable {
+
+	/** The default number of bits used to index the table (a 2K entry table). */
+	static final int DEFAULT_TABLE_BITS = 11;
+
+	/** The number of bits used to index the table. */
+	private final int tableBits;
+
+	/** The table: (character << 8) | code length, or 0 if the code is longer than tableBits. */
+	private final int[] table;
+
+	/** The root of the Huffman tree, for codes that are not in the table. */
+	private final HuffmanTreeNode root;
+
+	/**
+	 * Instantiates a new decode table.
+	 *
+	 * @param root the root of the Huffman tree
+	 * @param codes the code table built from the same tree
+	 * @param tableBits the number of bits used to index the table, 1 to BitReader.MAX_BITS
+	 */
+	public HuffmanDecodeTable(HuffmanTreeNode root, CodeTable codes, int tableBits) {
+		this.root = root;
+		this.tableBits = tableBits;
+		table = new int[1 << tableBits];
+		for (int c = 0; c < codes.size(); c++) {
+			int len = codes.getLength(c);
+			if (len < 0 || len > tableBits)
+				continue;
+			int first = (int) (codes.getBits(c) << (tableBits - len));
+			int entry = (c << 8) | len;
+			for (int i = 0; i < (1 << (tableBits - len)); i++) {
+				table[first + i] = entry;
+			}
+		}
+	}
+
+	/**
+	 * Decodes the next character from br.
+	 *
+	 * @param br the bit reader
+	 * @return the character
+	 * @throws IOException Signals that an I/O exception has occurred in the reader.
+	 */
+	int decode(BitReader br) throws IOException {
+		int entry = table[(int) br.peek(tableBits)];
+		if (entry == 0)
+			return walkTree(br);
+		br.consume(entry & 0xff);
+		return entry >>> 8;
+	}
+
+	/**
+	 * Decodes the next character by walking the tree - used for long codes.
+	 *
+	 * @param br the bit reader
+	 * @return the character
+	 * @throws IOException Signals that an I/O exception has occurred in the reader.
+	 */
+	private int walkTree(BitReader br) throws IOException {
+		HuffmanTreeNode node = root;
+		while (!node.isLeaf()) {
+			node = (br.readBit() == 0) ? node.getLeft() : node.getRight();
+		}
+		return node.getOrdValue();
+	}
+}
@@ -1,4 +1,5 @@
 import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Class HuffmanTreeNode. 
@@ -6,9 +7,10 @@ import java.util.Comparator;
 public class HuffmanTreeNode {
 	
 	/** The weight of this node. represents the character count if a leaf
-	 *  otherwise, it is the sum of the weights of the left and right children
+	 *  otherwise, it is the sum of the weights of the left and right children.
+	 *  A long, so that counts over very large corpora do not overflow.
 	 */
-	private int weight;
+	private long weight;
 	
 	/** The ord value: -1 if the node is not a leaf node */
 	private int ordValue;
@@ -16,11 +18,13 @@ public class HuffmanTreeNode {
 	/** The char value: valid if this is a leaf node; otherwise 0*/
 	private char charValue;
 	
-	/** STATIC version of the id used to initialize the instance id to a unique value for every node. */
-	private static int ID=0;
+	/** STATIC version of the id used to initialize the instance id to a unique value for every node.
+	 *  Atomic so that trees built concurrently (see BatchCompressor) still see increasing ids,
+	 *  and a long so that a long-running process never wraps it mid-tree and reverses the tie-break. */
+	private static final AtomicLong ID = new AtomicLong();
 	
 	/** The unique id for each instance - required to ensure consistent sorting in compareOrdWeights. */
-	private int id;
+	private long id;
 	
 	/** The left child of this Huffman Tree Node */
 	private HuffmanTreeNode left;
@@ -35,13 +39,13 @@ public class HuffmanTreeNode {
 	 * @param ordValue the ord value (the integer value of the character)
 	 * @param weight the weight (the frequency of occurrence of the character)
 	 */
-	public HuffmanTreeNode(int ordValue, int weight) {
+	public HuffmanTreeNode(int ordValue, long weight) {
 		this.weight = weight;
 		this.ordValue = ordValue;
 		this.charValue = (char) ordValue;
 		left = null;
 		right = null;
-		id = ID++;
+		id = ID.getAndIncrement();
 	}
 	
 	/**
@@ -54,13 +58,13 @@ public class HuffmanTreeNode {
 	 * @param left the left
 	 * @param right the right
 	 */
-	public HuffmanTreeNode(int weight, HuffmanTreeNode left, HuffmanTreeNode right) {
+	public HuffmanTreeNode(long weight, HuffmanTreeNode left, HuffmanTreeNode right) {
 		this.weight = weight;
 		this.ordValue = -1;
 		this.charValue = 0;
 		this.left = left;
 		this.right = right;
-		id = ID++;
+		id = ID.getAndIncrement();
 	}
 
 	// Getters - no Setters!
@@ -69,7 +73,7 @@ public class HuffmanTreeNode {
 	 *
 	 * @return the id
 	 */
-	public int getId() {
+	public long getId() {
 		return id;
 	}
 	
@@ -78,7 +82,7 @@ public class HuffmanTreeNode {
 	 *
 	 * @return the weight
 	 */
-	public int getWeight() {
+	public long getWeight() {
 		return weight;
 	}
 
@@ -123,7 +127,7 @@ public class HuffmanTreeNode {
 	 * Reset ID. If you are going to rebuild the tree - you must reset the ID....
 	 */
 	public void resetID() {
-		ID = 0;
+		ID.set(0);
 	}
 	
 	/**
@@ -145,19 +149,20 @@ public class HuffmanTreeNode {
 	 *  created first will be first (higher priority)
 	 * 
 	 *  This will be used by the Priority Queue to determine the ordering of 
-	 *  nodes in the queue. 
+	 *  nodes in the queue. The fields are compared rather than subtracted, since
+	 *  the difference of two large weights can overflow.
 	 */  
 	public static Comparator<HuffmanTreeNode> compareWeightOrd = new Comparator<HuffmanTreeNode>() {
 		@Override
 		public int compare(HuffmanTreeNode ht1, HuffmanTreeNode ht2) {
 			if (ht1.getWeight() == ht2.getWeight()) {
 				if (ht1.getOrdValue() == ht2.getOrdValue()) {
-					return ht1.getId() - ht2.getId();
+					return Long.compare(ht1.getId(), ht2.getId());
 				} else {
-					return ht1.getOrdValue() - ht2.getOrdValue();
+					return Integer.compare(ht1.getOrdValue(), ht2.getOrdValue());
 				}
 			}  else {
-				return ht1.getWeight() - ht2.getWeight();
+				return Long.compare(ht1.getWeight(), ht2.getWeight());
 			}
 		}
 	};
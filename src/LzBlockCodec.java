@@ -0,0 +1,412 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The Class LzBlockCodec. LZ77 followed by Huffman coding, in the style of
+ * deflate. A hash-chain match finder turns the block into literals and
+ * (length, distance) matches against earlier data in the block; literals and
+ * match lengths share one Huffman table of 272 symbols, and distances have a
+ * table of their own. Both trees come from HuffmanCompressionUtilities.
+ *
+ * Lengths (3-258) and distances are coded as a bucket plus extra bits: values
+ * 0-3 are their own bucket, and larger values v go in bucket 2*log2(v) plus the
+ * bit below the top bit, followed by the remaining log2(v)-1 low bits.
+ *
+ * The level (1-9) sets how hard the match finder works - how many earlier
+ * positions it tries, when it stops early, and (from level 4) whether it looks
+ * one byte ahead for a better match before taking one.
+ *
+ * Payload: literal/length counts, distance counts (sparse varints), then one bit stream.
+ */
+public class LzBlockCodec implements BlockCodec {
+
+	/** Literals are symbols 0-255 of the literal/length alphabet. */
+	static final int NUM_LITERALS = 256;
+
+	/** The number of length buckets (lengths 3-258). */
+	static final int NUM_LENGTH_CODES = 16;
+
+	/** The size of the literal/length alphabet. */
+	static final int NUM_LITLEN = NUM_LITERALS + NUM_LENGTH_CODES;
+
+	/** The largest window size, as a power of 2. */
+	static final int MAX_WINDOW_BITS = 22;
+
+	/** The number of distance buckets - enough for the largest window. */
+	static final int NUM_DIST_CODES = 2 * MAX_WINDOW_BITS;
+
+	/** The shortest match. */
+	static final int MIN_MATCH = 3;
+
+	/** The longest match. */
+	static final int MAX_MATCH = 258;
+
+	/** The default compression level. */
+	static final int DEFAULT_LEVEL = 6;
+
+	/** The default window size, as a power of 2 (32KB). */
+	static final int DEFAULT_WINDOW_BITS = 15;
+
+	/** The number of bits in a hash table index. */
+	private static final int HASH_BITS = 15;
+
+	/** The most earlier positions tried per match, for each level. */
+	private static final int[] MAX_CHAIN = {0, 4, 8, 16, 32, 64, 128, 256, 1024, 4096};
+
+	/** A match at least this long is taken without looking further, for each level. */
+	private static final int[] NICE_LENGTH = {0, 8, 16, 32, 32, 64, 128, 258, 258, 258};
+
+	/** The compression level. */
+	private final int level;
+
+	/** The window size, as a power of 2. */
+	private final int windowBits;
+
+	/** Builds the Huffman trees and codes. */
+	private HuffmanCompressionUtilities huffUtil;
+
+	/** Used to read and write the counts tables. */
+	private BinaryIO binUtil;
+
+	/** Match finder: the most recent position with each hash, or -1. */
+	private int[] head = new int[1 << HASH_BITS];
+
+	/** Match finder: the previous position with the same hash, indexed by position within the window. */
+	private int[] prev = new int[0];
+
+	/** The tokens of the block: a literal byte, or a match (see matchToken). */
+	private int[] tokens = new int[0];
+
+	/** The distance of the match last found by findMatch. */
+	private int matchDist;
+
+	/** The next position to add to the hash chains. */
+	private int inserted;
+
+	/**
+	 * Instantiates a new LZ block codec at the default level and window size.
+	 */
+	public LzBlockCodec() {
+		this(DEFAULT_LEVEL, DEFAULT_WINDOW_BITS);
+	}
+
+	/**
+	 * Instantiates a new LZ block codec.
+	 *
+	 * @param level the compression level, 1 (fastest) to 9 (smallest)
+	 * @param windowBits the window size as a power of 2, 8 to MAX_WINDOW_BITS
+	 */
+	public LzBlockCodec(int level, int windowBits) {
+		if (level < 1 || level > 9)
+			throw new IllegalArgumentException("level must be 1 to 9: "+level);
+		if (windowBits < 8 || windowBits > MAX_WINDOW_BITS)
+			throw new IllegalArgumentException("windowBits out of range: "+windowBits);
+		this.level = level;
+		this.windowBits = windowBits;
+		huffUtil = new HuffmanCompressionUtilities();
+		binUtil = new BinaryIO();
+	}
+
+	/**
+	 * Gets the bucket for a length or distance value (length - 3, or distance - 1).
+	 *
+	 * @param v the value
+	 * @return the bucket
+	 */
+	static int bucket(int v) {
+		if (v < 4)
+			return v;
+		int n = 31 - Integer.numberOfLeadingZeros(v);
+		return 2 * n + ((v >>> (n - 1)) & 1);
+	}
+
+	/**
+	 * Gets the number of extra bits that follow a bucket.
+	 *
+	 * @param bucket the bucket
+	 * @return the number of extra bits
+	 */
+	static int extraBits(int bucket) {
+		return (bucket < 4) ? 0 : (bucket >>> 1) - 1;
+	}
+
+	/**
+	 * Gets the smallest value in a bucket; the extra bits are added to it.
+	 *
+	 * @param bucket the bucket
+	 * @return the base value
+	 */
+	static int bucketBase(int bucket) {
+		return (bucket < 4) ? bucket : (2 | (bucket & 1)) << ((bucket >>> 1) - 1);
+	}
+
+	/**
+	 * Hashes the 3 bytes at pos.
+	 *
+	 * @param data the data
+	 * @param pos the position
+	 * @return the hash
+	 */
+	private static int hash(byte[] data, int pos) {
+		int v = ((data[pos] & 0xff) << 16) | ((data[pos + 1] & 0xff) << 8) | (data[pos + 2] & 0xff);
+		return (v * 0x9E3779B1) >>> (32 - HASH_BITS);
+	}
+
+	/**
+	 * Adds pos to the hash chains.
+	 *
+	 * @param data the data
+	 * @param pos the position; there must be at least 3 bytes from pos
+	 */
+	private void insert(byte[] data, int pos) {
+		int h = hash(data, pos);
+		prev[pos & ((1 << windowBits) - 1)] = head[h];
+		head[h] = pos;
+	}
+
+	/**
+	 * Adds every position up to and including pos to the hash chains, so that
+	 * positions inside matches can be matched against later.
+	 *
+	 * @param data the data
+	 * @param pos the last position to add; there must be at least 3 bytes from pos
+	 */
+	private void insertTo(byte[] data, int pos) {
+		while (inserted <= pos) {
+			insert(data, inserted++);
+		}
+	}
+
+	/**
+	 * Finds the longest match for the data at pos among earlier positions with the
+	 * same hash. pos must already have been inserted.
+	 *
+	 * @param data the data
+	 * @param pos the position to match
+	 * @param end the end of the block
+	 * @param start the start of the block
+	 * @return the match length, or 0 if there is no match of MIN_MATCH or more;
+	 *         the distance is left in matchDist
+	 */
+	private int findMatch(byte[] data, int pos, int end, int start) {
+		int mask = (1 << windowBits) - 1;
+		int maxLen = Math.min(MAX_MATCH, end - pos);
+		int limit = Math.max(start, pos - mask);
+		int best = MIN_MATCH - 1;
+		int bestDist = 0;
+		int cand = prev[pos & mask];
+		for (int chain = MAX_CHAIN[level]; chain > 0 && cand >= limit; chain--) {
+			if (data[cand + best] == data[pos + best] && data[cand] == data[pos]) {
+				int len = 1;
+				while (len < maxLen && data[cand + len] == data[pos + len]) {
+					len++;
+				}
+				if (len > best) {
+					best = len;
+					bestDist = pos - cand;
+					if (len >= NICE_LENGTH[level] || len == maxLen)
+						break;
+				}
+			}
+			int next = prev[cand & mask];
+			if (next >= cand)
+				break;
+			cand = next;
+		}
+		matchDist = bestDist;
+		return (best >= MIN_MATCH) ? best : 0;
+	}
+
+	/**
+	 * Packs a match into a token: the top bit set, length - MIN_MATCH in the next
+	 * 8 bits, and distance - 1 in the low MAX_WINDOW_BITS bits.
+	 *
+	 * @param length the match length
+	 * @param dist the match distance
+	 * @return the token
+	 */
+	static int matchToken(int length, int dist) {
+		return 0x80000000 | ((length - MIN_MATCH) << MAX_WINDOW_BITS) | (dist - 1);
+	}
+
+	/**
+	 * Parses the block into tokens.
+	 *
+	 * @param data the data
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @return the number of tokens
+	 */
+	private int parse(byte[] data, int off, int len) {
+		int end = off + len;
+		if (tokens.length < len)
+			tokens = new int[len];
+		if (prev.length != 1 << windowBits)
+			prev = new int[1 << windowBits];
+		Arrays.fill(head, -1);
+		int n = 0;
+		int pos = off;
+		int hashEnd = end - MIN_MATCH;
+		inserted = off;
+		while (pos < end) {
+			int mlen = 0;
+			if (pos <= hashEnd) {
+				insertTo(data, pos);
+				mlen = findMatch(data, pos, end, off);
+				if (mlen != 0 && level >= 4 && mlen < NICE_LENGTH[level] && pos + 1 <= hashEnd) {
+					// Lazy matching: if the next position has a longer match, emit a literal instead
+					int dist = matchDist;
+					insertTo(data, pos + 1);
+					int next = findMatch(data, pos + 1, end, off);
+					if (next > mlen) {
+						tokens[n++] = data[pos] & 0xff;
+						pos++;
+						mlen = next;
+					} else {
+						matchDist = dist;
+					}
+				}
+			}
+			if (mlen == 0) {
+				tokens[n++] = data[pos] & 0xff;
+				pos++;
+			} else {
+				tokens[n++] = matchToken(mlen, matchDist);
+				pos += mlen;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Builds the Huffman codes for the given counts; afterwards huffUtil holds the tree.
+	 *
+	 * @param wts the counts
+	 * @return the code table
+	 */
+	private CodeTable buildCodes(int[] wts) {
+		huffUtil.setWeights(wts);
+		huffUtil.buildHuffmanTree(true);
+		huffUtil.createHuffmanCodes(huffUtil.getTreeRoot(), "", 0);
+		return huffUtil.getCodeTable();
+	}
+
+	/**
+	 * Encodes the block.
+	 *
+	 * @param data the data to encode
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @return the payload
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public byte[] encodeBlock(byte[] data, int off, int len) throws IOException {
+		int n = parse(data, off, len);
+		int[] litlenCounts = new int[NUM_LITLEN];
+		int[] distCounts = new int[NUM_DIST_CODES];
+		boolean anyMatch = false;
+		for (int i = 0; i < n; i++) {
+			int t = tokens[i];
+			if (t >= 0) {
+				litlenCounts[t]++;
+			} else {
+				litlenCounts[NUM_LITERALS + bucket((t >>> MAX_WINDOW_BITS) & 0xff)]++;
+				distCounts[bucket(t & ((1 << MAX_WINDOW_BITS) - 1))]++;
+				anyMatch = true;
+			}
+		}
+		ByteArrayOutputStream out = new ByteArrayOutputStream(len / 2 + 256);
+		binUtil.writeSparseWeights(out, litlenCounts);
+		binUtil.writeSparseWeights(out, distCounts);
+		CodeTable litlen = buildCodes(litlenCounts);
+		CodeTable dist = anyMatch ? buildCodes(distCounts) : null;
+
+		ByteArraySink sink = new ByteArraySink(len / 2);
+		BitWriter bw = new BitWriter(sink.getBuffer(), sink);
+		for (int i = 0; i < n; i++) {
+			int t = tokens[i];
+			if (t >= 0) {
+				bw.writeSymbol(litlen, t);
+			} else {
+				int lv = (t >>> MAX_WINDOW_BITS) & 0xff;
+				int dv = t & ((1 << MAX_WINDOW_BITS) - 1);
+				int lb = bucket(lv);
+				int db = bucket(dv);
+				bw.writeSymbol(litlen, NUM_LITERALS + lb);
+				bw.writeBits(lv - bucketBase(lb), extraBits(lb));
+				bw.writeSymbol(dist, db);
+				bw.writeBits(dv - bucketBase(db), extraBits(db));
+			}
+		}
+		bw.flush();
+		out.write(sink.toByteArray());
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes the block.
+	 *
+	 * @param payload the buffer holding the payload
+	 * @param off the offset of the payload
+	 * @param len the length of the payload
+	 * @param dst the buffer to decode into
+	 * @param dstOff the offset in dst of the first decoded byte
+	 * @param rawLen the number of bytes to decode
+	 * @throws IOException if the payload is corrupt
+	 */
+	@Override
+	public void decodeBlock(byte[] payload, int off, int len, byte[] dst, int dstOff, int rawLen) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(payload, off, len);
+		int[] litlenCounts = binUtil.readSparseWeights(bb, NUM_LITLEN);
+		int[] distCounts = binUtil.readSparseWeights(bb, NUM_DIST_CODES);
+		CodeTable codes = buildCodes(litlenCounts);
+		HuffmanDecodeTable litlen = new HuffmanDecodeTable(huffUtil.getTreeRoot(), codes, HuffmanDecodeTable.DEFAULT_TABLE_BITS);
+		HuffmanDecodeTable dist = null;
+		for (int c : distCounts) {
+			if (c != 0) {
+				codes = buildCodes(distCounts);
+				dist = new HuffmanDecodeTable(huffUtil.getTreeRoot(), codes, HuffmanDecodeTable.DEFAULT_TABLE_BITS);
+				break;
+			}
+		}
+
+		BitReader br = new BitReader(payload, bb.position(), bb.remaining());
+		int pos = dstOff;
+		int end = dstOff + rawLen;
+		while (pos < end) {
+			int sym = litlen.decode(br);
+			if (sym < NUM_LITERALS) {
+				dst[pos++] = (byte) sym;
+				continue;
+			}
+			int lb = sym - NUM_LITERALS;
+			int mlen = bucketBase(lb) + (int) readExtra(br, extraBits(lb)) + MIN_MATCH;
+			if (dist == null)
+				throw new IOException("Corrupt LZ block: match with no distance table");
+			int db = dist.decode(br);
+			int d = bucketBase(db) + (int) readExtra(br, extraBits(db)) + 1;
+			if (d > pos - dstOff || mlen > end - pos || br.isOverrun())
+				throw new IOException("Corrupt LZ block: bad match at "+(pos - dstOff));
+			for (int i = 0; i < mlen; i++, pos++) {
+				dst[pos] = dst[pos - d];
+			}
+		}
+		if (br.isOverrun())
+			throw new IOException("Corrupt LZ block: coded data too short");
+	}
+
+	/**
+	 * Reads n extra bits; none if n is 0.
+	 *
+	 * @param br the bit reader
+	 * @param n the number of bits
+	 * @return the bits
+	 * @throws IOException Signals that an I/O exception has occurred in the reader.
+	 */
+	private long readExtra(BitReader br, int n) throws IOException {
+		return (n == 0) ? 0 : br.readBits(n);
+	}
+}
@@ -0,0 +1,259 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The Class Order1BlockCodec. Order-1 context-modeled Huffman coding of container
+ * blocks: each byte is coded with a Huffman table chosen by the byte before it,
+ * so that (for example) the letter after a 'q' costs far fewer bits than it would
+ * with one table for the whole block.
+ *
+ * A table per preceding byte would cost more to store than it saves, so contexts
+ * are clustered: the most frequent contexts each seed a cluster, every other
+ * context joins the cluster whose distribution codes it most cheaply, and one
+ * Huffman table is built per cluster from the merged counts of its members.
+ *
+ * Payload: number of tables (1 byte), the cluster of each of the 256 contexts
+ * (1 byte each), the counts of each table (sparse varints), then one bit stream.
+ * The first byte of a block is coded in context 0.
+ */
+public class Order1BlockCodec implements BlockCodec {
+
+	/** The alphabet size - every byte value. */
+	static final int NUM_SYMBOLS = 256;
+
+	/** The default maximum number of tables (clusters) per block. */
+	static final int DEFAULT_MAX_TABLES = 16;
+
+	/** The maximum number of tables per block. */
+	private final int maxTables;
+
+	/** Builds the Huffman tree and codes for each table. */
+	private HuffmanCompressionUtilities huffUtil;
+
+	/** Used to read and write the counts tables. */
+	private BinaryIO binUtil;
+
+	/**
+	 * Instantiates a new order-1 block codec with the default number of tables.
+	 */
+	public Order1BlockCodec() {
+		this(DEFAULT_MAX_TABLES);
+	}
+
+	/**
+	 * Instantiates a new order-1 block codec.
+	 *
+	 * @param maxTables the maximum number of tables per block, 1 to 255
+	 */
+	public Order1BlockCodec(int maxTables) {
+		if (maxTables < 1 || maxTables > 255)
+			throw new IllegalArgumentException("maxTables out of range: "+maxTables);
+		this.maxTables = maxTables;
+		huffUtil = new HuffmanCompressionUtilities();
+		binUtil = new BinaryIO();
+	}
+
+	/**
+	 * Counts each byte in the context of the byte before it.
+	 *
+	 * @param data the data
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @return counts[prev][cur]
+	 */
+	static int[][] countPairs(byte[] data, int off, int len) {
+		int[][] counts = new int[NUM_SYMBOLS][NUM_SYMBOLS];
+		int prev = 0;
+		for (int i = off; i < off + len; i++) {
+			int cur = data[i] & 0xff;
+			counts[prev][cur]++;
+			prev = cur;
+		}
+		return counts;
+	}
+
+	/**
+	 * Assigns each context to a cluster. The maxTables most frequent contexts
+	 * seed the clusters; each remaining context joins the seed whose (smoothed)
+	 * distribution would code its counts in the fewest bits.
+	 *
+	 * @param counts counts[prev][cur]
+	 * @param maxTables the maximum number of clusters
+	 * @return the cluster of each context
+	 */
+	static int[] cluster(int[][] counts, int maxTables) {
+		long[] totals = new long[NUM_SYMBOLS];
+		Integer[] order = new Integer[NUM_SYMBOLS];
+		for (int c = 0; c < NUM_SYMBOLS; c++) {
+			for (int n : counts[c]) {
+				totals[c] += n;
+			}
+			order[c] = c;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(totals[b], totals[a]));
+		int seeds = 0;
+		while (seeds < maxTables && totals[order[seeds]] > 0) {
+			seeds++;
+		}
+		int[] map = new int[NUM_SYMBOLS];
+		if (seeds <= 1)
+			return map;
+
+		// Code length, in bits, of each symbol under each seed's distribution,
+		// with half a count added to every symbol so that unseen symbols are
+		// expensive rather than impossible.
+		double[][] cost = new double[seeds][NUM_SYMBOLS];
+		double ln2 = Math.log(2);
+		for (int k = 0; k < seeds; k++) {
+			int[] seed = counts[order[k]];
+			double total = totals[order[k]] + 0.5 * NUM_SYMBOLS;
+			for (int s = 0; s < NUM_SYMBOLS; s++) {
+				cost[k][s] = -Math.log((seed[s] + 0.5) / total) / ln2;
+			}
+			map[order[k]] = k;
+		}
+		for (int i = seeds; i < NUM_SYMBOLS; i++) {
+			int c = order[i];
+			if (totals[c] == 0)
+				continue;
+			int best = 0;
+			double bestBits = Double.MAX_VALUE;
+			for (int k = 0; k < seeds; k++) {
+				double bits = 0;
+				for (int s = 0; s < NUM_SYMBOLS; s++) {
+					if (counts[c][s] != 0)
+						bits += counts[c][s] * cost[k][s];
+				}
+				if (bits < bestBits) {
+					bestBits = bits;
+					best = k;
+				}
+			}
+			map[c] = best;
+		}
+		return map;
+	}
+
+	/**
+	 * Builds the Huffman codes for the given counts; afterwards huffUtil holds the tree.
+	 *
+	 * @param wts the counts
+	 * @return the code table
+	 */
+	private CodeTable buildCodes(int[] wts) {
+		huffUtil.setWeights(wts);
+		huffUtil.buildHuffmanTree(true);
+		huffUtil.createHuffmanCodes(huffUtil.getTreeRoot(), "", 0);
+		return huffUtil.getCodeTable();
+	}
+
+	/**
+	 * Encodes the block.
+	 *
+	 * @param data the data to encode
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @return the payload
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public byte[] encodeBlock(byte[] data, int off, int len) throws IOException {
+		int[][] counts = countPairs(data, off, len);
+		int[] map = cluster(counts, maxTables);
+		int tables = 0;
+		for (int k : map) {
+			tables = Math.max(tables, k + 1);
+		}
+		int[][] merged = new int[tables][NUM_SYMBOLS];
+		for (int c = 0; c < NUM_SYMBOLS; c++) {
+			for (int s = 0; s < NUM_SYMBOLS; s++) {
+				merged[map[c]][s] += counts[c][s];
+			}
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(len / 2 + 1024);
+		out.write(tables);
+		for (int k : map) {
+			out.write(k);
+		}
+		CodeTable[] codes = new CodeTable[NUM_SYMBOLS];
+		CodeTable[] byTable = new CodeTable[tables];
+		for (int k = 0; k < tables; k++) {
+			binUtil.writeSparseWeights(out, merged[k]);
+			boolean empty = true;
+			for (int n : merged[k]) {
+				empty &= (n == 0);
+			}
+			byTable[k] = empty ? null : buildCodes(merged[k]);
+		}
+		for (int c = 0; c < NUM_SYMBOLS; c++) {
+			codes[c] = byTable[map[c]];
+		}
+
+		ByteArraySink sink = new ByteArraySink(len / 2);
+		BitWriter bw = new BitWriter(sink.getBuffer(), sink);
+		int prev = 0;
+		for (int i = off; i < off + len; i++) {
+			int cur = data[i] & 0xff;
+			bw.writeSymbol(codes[prev], cur);
+			prev = cur;
+		}
+		bw.flush();
+		out.write(sink.toByteArray());
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes the block.
+	 *
+	 * @param payload the buffer holding the payload
+	 * @param off the offset of the payload
+	 * @param len the length of the payload
+	 * @param dst the buffer to decode into
+	 * @param dstOff the offset in dst of the first decoded byte
+	 * @param rawLen the number of bytes to decode
+	 * @throws IOException if the payload is corrupt
+	 */
+	@Override
+	public void decodeBlock(byte[] payload, int off, int len, byte[] dst, int dstOff, int rawLen) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(payload, off, len);
+		if (bb.remaining() < 1 + NUM_SYMBOLS)
+			throw new IOException("Truncated order-1 header");
+		int tables = bb.get() & 0xff;
+		int[] map = new int[NUM_SYMBOLS];
+		for (int c = 0; c < NUM_SYMBOLS; c++) {
+			map[c] = bb.get() & 0xff;
+			if (map[c] >= tables)
+				throw new IOException("Bad order-1 context map");
+		}
+		HuffmanDecodeTable[] byTable = new HuffmanDecodeTable[tables];
+		for (int k = 0; k < tables; k++) {
+			int[] wts = binUtil.readSparseWeights(bb, NUM_SYMBOLS);
+			boolean empty = true;
+			for (int n : wts) {
+				empty &= (n == 0);
+			}
+			if (!empty) {
+				CodeTable codes = buildCodes(wts);
+				byTable[k] = new HuffmanDecodeTable(huffUtil.getTreeRoot(), codes, HuffmanDecodeTable.DEFAULT_TABLE_BITS);
+			}
+		}
+		HuffmanDecodeTable[] dt = new HuffmanDecodeTable[NUM_SYMBOLS];
+		for (int c = 0; c < NUM_SYMBOLS; c++) {
+			dt[c] = byTable[map[c]];
+		}
+
+		BitReader br = new BitReader(payload, bb.position(), bb.remaining());
+		int prev = 0;
+		for (int i = dstOff; i < dstOff + rawLen; i++) {
+			if (dt[prev] == null)
+				throw new IOException("Corrupt order-1 block: no table for context "+prev);
+			prev = dt[prev].decode(br);
+			dst[i] = (byte) prev;
+		}
+		if (br.isOverrun())
+			throw new IOException("Corrupt order-1 block: coded data too short");
+	}
+}
@@ -0,0 +1,297 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The Class PipelinedEncoder. Encodes a file in three overlapping stages:
+ * a reader thread fills large input buffers, the calling thread encodes them
+ * with a BitWriter, and a writer thread writes the encoded buffers out.
+ *
+ * The stages are connected by bounded queues, and buffers are recycled through
+ * a free queue for each side, so memory use is fixed at (depth * bufferSize)
+ * for input and for output no matter how large the file is. With depth 2 this
+ * is classic double buffering; larger depths smooth out uneven disk latency.
+ *
+ * The output is identical to EncodeDecode's single threaded encode: the codes
+ * for each character, then the EOF code, padded with 0's to a whole byte.
+ */
+public class PipelinedEncoder {
+
+	/** The default size of each input and output buffer. */
+	static final int DEFAULT_BUFFER_SIZE = 1 << 18;
+
+	/** The default number of buffers on each side of the encoder. */
+	static final int DEFAULT_DEPTH = 4;
+
+	/** How long a stage waits on a queue before checking whether another stage failed. */
+	private final long POLL_MS = 100;
+
+	/** Marks the end of the input - a chunk with no data. */
+	private final Chunk END_OF_INPUT = new Chunk(new byte[0]);
+
+	/** Marks the end of the output - a buffer with no data. */
+	private final ByteBuffer END_OF_OUTPUT = ByteBuffer.allocate(0);
+
+	/** The code table used to encode each character. */
+	private CodeTable codes;
+
+	/** The size of each buffer. */
+	private int bufferSize;
+
+	/** The number of buffers on each side of the encoder. */
+	private int depth;
+
+	/** Optional listener for progress reporting and cancellation. */
+	private ProgressListener progress;
+
+	/** The first exception thrown by the reader or writer thread; checked by every stage. */
+	private volatile Throwable failure;
+
+	/**
+	 * The Class Chunk - an input buffer and the number of bytes read into it.
+	 */
+	private static class Chunk {
+		final byte[] data;
+		int length;
+
+		Chunk(byte[] data) {
+			this.data = data;
+		}
+	}
+
+	/**
+	 * Instantiates a new pipelined encoder with the default buffer size and depth.
+	 *
+	 * @param codes the code table
+	 */
+	public PipelinedEncoder(CodeTable codes) {
+		this(codes, DEFAULT_BUFFER_SIZE, DEFAULT_DEPTH);
+	}
+
+	/**
+	 * Instantiates a new pipelined encoder.
+	 *
+	 * @param codes the code table
+	 * @param bufferSize the size of each buffer, in bytes (at least 64)
+	 * @param depth the number of buffers on each side of the encoder (at least 2)
+	 */
+	public PipelinedEncoder(CodeTable codes, int bufferSize, int depth) {
+		this.codes = codes;
+		this.bufferSize = Math.max(64, bufferSize);
+		this.depth = Math.max(2, depth);
+	}
+
+	/**
+	 * Sets the progress listener. Progress is reported once per input buffer.
+	 *
+	 * @param progress the progress listener, or null
+	 */
+	void setProgressListener(ProgressListener progress) {
+		this.progress = progress;
+	}
+
+	/**
+	 * Encodes inFile into binFile.
+	 *
+	 * @param inFile the text file to encode
+	 * @param binFile the compressed file to write
+	 * @return the number of bytes written
+	 * @throws IOException if any stage fails; InterruptedIOException if cancelled
+	 */
+	long encode(File inFile, File binFile) throws IOException {
+		BlockingQueue<Chunk> freeIn = new ArrayBlockingQueue<Chunk>(depth);
+		BlockingQueue<Chunk> fullIn = new ArrayBlockingQueue<Chunk>(depth + 1);
+		BlockingQueue<ByteBuffer> freeOut = new ArrayBlockingQueue<ByteBuffer>(depth);
+		BlockingQueue<ByteBuffer> fullOut = new ArrayBlockingQueue<ByteBuffer>(depth + 1);
+		for (int i = 0; i < depth; i++) {
+			freeIn.add(new Chunk(new byte[bufferSize]));
+			freeOut.add(ByteBuffer.allocateDirect(bufferSize));
+		}
+		failure = null;
+
+		try (FileInputStream fis = new FileInputStream(inFile);
+			 FileOutputStream fos = new FileOutputStream(binFile)) {
+			Thread reader = new Thread(() -> readStage(fis, freeIn, fullIn), "huff-reader");
+			Thread writer = new Thread(() -> writeStage(fos.getChannel(), freeOut, fullOut), "huff-writer");
+			reader.setDaemon(true);
+			writer.setDaemon(true);
+			reader.start();
+			writer.start();
+			try {
+				encodeStage(inFile.length(), freeIn, fullIn, freeOut, fullOut);
+				put(fullOut, END_OF_OUTPUT);
+				join(writer);
+			} catch (IOException | RuntimeException e) {
+				if (failure == null)
+					failure = e;
+				throw e;
+			} finally {
+				reader.interrupt();
+				writer.interrupt();
+			}
+			checkFailure();
+			return binFile.length();
+		}
+	}
+
+	/**
+	 * The encoder stage: takes each input chunk, encodes it into the output buffers
+	 * and recycles it. Ends by writing the EOF code and padding.
+	 *
+	 * @param total the input file length, for progress reporting
+	 * @param freeIn the queue of empty input chunks
+	 * @param fullIn the queue of filled input chunks
+	 * @param freeOut the queue of empty output buffers
+	 * @param fullOut the queue of filled output buffers
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void encodeStage(long total, BlockingQueue<Chunk> freeIn, BlockingQueue<Chunk> fullIn,
+			                 BlockingQueue<ByteBuffer> freeOut, BlockingQueue<ByteBuffer> fullOut) throws IOException {
+		BitWriter bw = new BitWriter(take(freeOut), full -> {
+			put(fullOut, full);
+			ByteBuffer next = take(freeOut);
+			next.clear();
+			return next;
+		});
+		long done = 0;
+		Chunk chunk;
+		while ((chunk = take(fullIn)) != END_OF_INPUT) {
+			byte[] data = chunk.data;
+			bw.writeSymbols(codes, data, 0, chunk.length);
+			done += chunk.length;
+			put(freeIn, chunk);
+			if (progress != null) {
+				if (progress.isCancelled())
+					throw new InterruptedIOException("Cancelled");
+				progress.progress(done, total);
+			}
+		}
+		bw.writeSymbol(codes, 0);
+		bw.flush();
+	}
+
+	/**
+	 * The reader stage: fills free chunks from the input file and queues them for the
+	 * encoder, followed by END_OF_INPUT.
+	 *
+	 * @param fis the input file
+	 * @param freeIn the queue of empty input chunks
+	 * @param fullIn the queue of filled input chunks
+	 */
+	private void readStage(FileInputStream fis, BlockingQueue<Chunk> freeIn, BlockingQueue<Chunk> fullIn) {
+		try {
+			while (true) {
+				Chunk chunk = take(freeIn);
+				int n = fis.readNBytes(chunk.data, 0, chunk.data.length);
+				if (n <= 0)
+					break;
+				chunk.length = n;
+				put(fullIn, chunk);
+			}
+			put(fullIn, END_OF_INPUT);
+		} catch (IOException | RuntimeException e) {
+			if (failure == null)
+				failure = e;
+		}
+	}
+
+	/**
+	 * The writer stage: writes each full output buffer to the channel and recycles it,
+	 * until END_OF_OUTPUT is received.
+	 *
+	 * @param ch the output channel
+	 * @param freeOut the queue of empty output buffers
+	 * @param fullOut the queue of filled output buffers
+	 */
+	private void writeStage(FileChannel ch, BlockingQueue<ByteBuffer> freeOut, BlockingQueue<ByteBuffer> fullOut) {
+		try {
+			ByteBuffer buf;
+			while ((buf = take(fullOut)) != END_OF_OUTPUT) {
+				buf.flip();
+				while (buf.hasRemaining()) {
+					ch.write(buf);
+				}
+				buf.clear();
+				put(freeOut, buf);
+			}
+		} catch (IOException | RuntimeException e) {
+			if (failure == null)
+				failure = e;
+		}
+	}
+
+	/**
+	 * Takes the next item from q, waiting if necessary. Gives up if another
+	 * stage has failed.
+	 *
+	 * @param q the queue
+	 * @return the item
+	 * @throws IOException if another stage failed or the thread was interrupted
+	 */
+	private <T> T take(BlockingQueue<T> q) throws IOException {
+		try {
+			T item;
+			while ((item = q.poll(POLL_MS, TimeUnit.MILLISECONDS)) == null) {
+				checkFailure();
+			}
+			return item;
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Pipeline interrupted");
+		}
+	}
+
+	/**
+	 * Puts item on q, waiting for space if necessary. Gives up if another
+	 * stage has failed.
+	 *
+	 * @param q the queue
+	 * @param item the item
+	 * @throws IOException if another stage failed or the thread was interrupted
+	 */
+	private <T> void put(BlockingQueue<T> q, T item) throws IOException {
+		try {
+			while (!q.offer(item, POLL_MS, TimeUnit.MILLISECONDS)) {
+				checkFailure();
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Pipeline interrupted");
+		}
+	}
+
+	/**
+	 * Waits for a stage thread to finish.
+	 *
+	 * @param th the thread
+	 * @throws IOException if the stage failed or the wait was interrupted
+	 */
+	private void join(Thread th) throws IOException {
+		try {
+			while (th.isAlive()) {
+				th.join(POLL_MS);
+				checkFailure();
+			}
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException("Pipeline interrupted");
+		}
+	}
+
+	/**
+	 * Throws the failure from another stage, if there has been one.
+	 *
+	 * @throws IOException the failure, wrapped if it was not an IOException
+	 */
+	private void checkFailure() throws IOException {
+		Throwable t = failure;
+		if (t instanceof IOException)
+			throw (IOException) t;
+		if (t != null)
+			throw new IOException("Pipeline stage failed", t);
+	}
+}
@@ -0,0 +1,24 @@
+/**
+ * The Interface ProgressListener. Lets a long-running GenWeights or EncodeDecode
+ * operation report how far it has got, and lets the caller cancel it. The GUI
+ * implements this with a javafx.concurrent.Task, so the methods are called on
+ * the worker thread - implementations must not touch GUI controls directly.
+ */
+public interface ProgressListener {
+
+	/**
+	 * Called periodically while a file is being processed.
+	 *
+	 * @param done the number of input bytes processed so far
+	 * @param total the total number of input bytes
+	 */
+	void progress(long done, long total);
+
+	/**
+	 * Checks if the operation has been cancelled. When this returns true the engine
+	 * stops at the next progress point, removes any partial output and returns.
+	 *
+	 * @return true, if the operation should stop
+	 */
+	boolean isCancelled();
+}
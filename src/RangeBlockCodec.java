@@ -0,0 +1,194 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The Class RangeBlockCodec. Static range (arithmetic) coding of container
+ * blocks, for when compressed size matters more than speed. Each byte costs
+ * -log2(p) bits to within a small rounding loss, so a block comes out within a
+ * fraction of a percent of its order-0 entropy plus its frequency table.
+ *
+ * The block's byte counts (from GenWeights.countBytes) are scaled to sum to
+ * 2^16. The coder is the carry-propagating byte-oriented range coder used by
+ * LZMA: a 32-bit range, a 33-bit low whose carry is resolved by shiftLow, and
+ * renormalization a byte at a time whenever the range falls below 2^24.
+ *
+ * Payload: scaled frequencies (sparse varints), then the coded bytes.
+ */
+public class RangeBlockCodec implements BlockCodec {
+
+	/** The alphabet size - every byte value. */
+	static final int NUM_SYMBOLS = 256;
+
+	/** The scaled frequencies sum to 2^FREQ_BITS. */
+	static final int FREQ_BITS = 16;
+
+	/** Renormalize when the range falls below this. */
+	private static final long TOP = 1L << 24;
+
+	/** Used to count the block's byte values. */
+	private GenWeights gw;
+
+	/** Used to read and write the frequency table. */
+	private BinaryIO binUtil;
+
+	/** Encoder: the low end of the interval (33 bits; bit 32 is a pending carry). */
+	private long low;
+
+	/** The width of the interval (32 bits). */
+	private long range;
+
+	/** Encoder: the last byte shifted out of low, held back in case a carry reaches it. */
+	private int cache;
+
+	/** Encoder: the number of bytes held back - cache, plus any 0xFF bytes after it. */
+	private long cacheSize;
+
+	/** Encoder: the coded output. */
+	private ByteArrayOutputStream out;
+
+	/** Decoder: the coded value, relative to low. */
+	private long code;
+
+	/** Decoder: the coded bytes. */
+	private byte[] in;
+
+	/** Decoder: the next coded byte to read. */
+	private int inPos;
+
+	/** Decoder: the end of the coded bytes. */
+	private int inEnd;
+
+	/**
+	 * Instantiates a new range block codec.
+	 */
+	public RangeBlockCodec() {
+		gw = new GenWeights(null);
+		binUtil = new BinaryIO();
+	}
+
+	/**
+	 * Encodes the block.
+	 *
+	 * @param data the data to encode
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @return the payload
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public byte[] encodeBlock(byte[] data, int off, int len) throws IOException {
+		int[] freq = TansBlockCodec.normalize(gw.countBytes(data, off, len, new int[NUM_SYMBOLS]), FREQ_BITS);
+		int[] cum = new int[NUM_SYMBOLS];
+		for (int s = 1; s < NUM_SYMBOLS; s++) {
+			cum[s] = cum[s - 1] + freq[s - 1];
+		}
+		out = new ByteArrayOutputStream(len / 2 + 64);
+		binUtil.writeSparseWeights(out, freq);
+		low = 0;
+		range = 0xFFFFFFFFL;
+		cache = 0;
+		cacheSize = 1;
+		for (int i = off; i < off + len; i++) {
+			int s = data[i] & 0xff;
+			range >>>= FREQ_BITS;
+			low += cum[s] * range;
+			range *= freq[s];
+			while (range < TOP) {
+				range <<= 8;
+				shiftLow();
+			}
+		}
+		for (int i = 0; i < 5; i++) {
+			shiftLow();
+		}
+		byte[] payload = out.toByteArray();
+		out = null;
+		return payload;
+	}
+
+	/**
+	 * Shifts the top byte out of low. The byte cannot be written yet if it is 0xFF
+	 * (a later carry would change it) so bytes are held back in cache/cacheSize
+	 * until a byte below 0xFF, or a carry, settles them.
+	 */
+	private void shiftLow() {
+		if (low < 0xFF000000L || low > 0xFFFFFFFFL) {
+			int carry = (int) (low >>> 32);
+			int b = cache;
+			do {
+				out.write((b + carry) & 0xff);
+				b = 0xff;
+			} while (--cacheSize != 0);
+			cache = (int) ((low >>> 24) & 0xff);
+		}
+		cacheSize++;
+		low = (low & 0x00FFFFFFL) << 8;
+	}
+
+	/**
+	 * Decodes the block.
+	 *
+	 * @param payload the buffer holding the payload
+	 * @param off the offset of the payload
+	 * @param len the length of the payload
+	 * @param dst the buffer to decode into
+	 * @param dstOff the offset in dst of the first decoded byte
+	 * @param rawLen the number of bytes to decode
+	 * @throws IOException if the payload is corrupt
+	 */
+	@Override
+	public void decodeBlock(byte[] payload, int off, int len, byte[] dst, int dstOff, int rawLen) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(payload, off, len);
+		int[] freq = binUtil.readSparseWeights(bb, NUM_SYMBOLS);
+		int[] cum = new int[NUM_SYMBOLS + 1];
+		for (int s = 0; s < NUM_SYMBOLS; s++) {
+			cum[s + 1] = cum[s] + freq[s];
+		}
+		if (cum[NUM_SYMBOLS] != 1 << FREQ_BITS)
+			throw new IOException("Bad range coder frequencies: sum "+cum[NUM_SYMBOLS]);
+		// Which symbol each of the 2^FREQ_BITS scaled values belongs to
+		byte[] lookup = new byte[1 << FREQ_BITS];
+		for (int s = 0; s < NUM_SYMBOLS; s++) {
+			for (int v = cum[s]; v < cum[s + 1]; v++) {
+				lookup[v] = (byte) s;
+			}
+		}
+		in = payload;
+		inPos = bb.position();
+		inEnd = off + len;
+		range = 0xFFFFFFFFL;
+		code = 0;
+		for (int i = 0; i < 5; i++) {
+			code = (code << 8) | nextByte();
+		}
+		code &= 0xFFFFFFFFL;
+		for (int i = dstOff; i < dstOff + rawLen; i++) {
+			range >>>= FREQ_BITS;
+			long v = code / range;
+			if (v >= 1 << FREQ_BITS)
+				throw new IOException("Corrupt range coded block");
+			int s = lookup[(int) v] & 0xff;
+			dst[i] = (byte) s;
+			code -= cum[s] * range;
+			range *= freq[s];
+			while (range < TOP) {
+				range <<= 8;
+				code = ((code << 8) | nextByte()) & 0xFFFFFFFFL;
+			}
+		}
+		if (inPos > inEnd)
+			throw new IOException("Corrupt range coded block: coded data too short");
+		in = null;
+	}
+
+	/**
+	 * Reads the next coded byte; 0 past the end (inPos keeps counting so that an
+	 * overrun can be detected).
+	 *
+	 * @return the byte
+	 */
+	private int nextByte() {
+		return (inPos < inEnd) ? in[inPos++] & 0xff : (inPos++ & 0);
+	}
+}
@@ -0,0 +1,148 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The Class SharedTableBlockCodec. Huffman coding of container blocks with a
+ * shared, pre-trained table from a TableRegistry. The payload records only the
+ * table's id and fingerprint, so the cost of a table is paid once for a whole
+ * corpus of small files rather than once per file. Ids are numbered from 1 in
+ * each registry, so the fingerprint is checked on decoding, to catch a block
+ * being decoded with another registry's table of the same id.
+ *
+ * Each table is loaded and its codes built the first time it is used; after
+ * that, coding a block needs no tree building at all.
+ *
+ * Payload: table id (varint), table fingerprint (4 bytes, big-endian), then
+ * one bit stream.
+ */
+public class SharedTableBlockCodec implements BlockCodec {
+
+	/** The registry that tables are loaded from. */
+	private final TableRegistry registry;
+
+	/** The id of the table that blocks are encoded with. */
+	private final int tableId;
+
+	/** The code table of each table loaded so far. */
+	private Map<Integer, CodeTable> codes;
+
+	/** The fingerprint of each table loaded so far. */
+	private Map<Integer, Integer> fingerprints;
+
+	/** The decode table of each table loaded so far. */
+	private Map<Integer, HuffmanDecodeTable> decoders;
+
+	/** Builds the Huffman tree and codes. */
+	private HuffmanCompressionUtilities huffUtil;
+
+	/** Used to read and write the table id. */
+	private BinaryIO binUtil;
+
+	/**
+	 * Instantiates a new shared table block codec.
+	 *
+	 * @param registry the registry that tables are loaded from
+	 * @param tableId the id of the table to encode with
+	 */
+	public SharedTableBlockCodec(TableRegistry registry, int tableId) {
+		this.registry = registry;
+		this.tableId = tableId;
+		codes = new HashMap<Integer, CodeTable>();
+		fingerprints = new HashMap<Integer, Integer>();
+		decoders = new HashMap<Integer, HuffmanDecodeTable>();
+		huffUtil = new HuffmanCompressionUtilities();
+		binUtil = new BinaryIO();
+	}
+
+	/**
+	 * Loads a table, if it has not been loaded yet, and builds its codes.
+	 *
+	 * @param id the table id
+	 * @throws IOException if the table cannot be loaded
+	 */
+	private void loadTable(int id) throws IOException {
+		if (codes.containsKey(id))
+			return;
+		int[] wts = registry.load(id);
+		huffUtil.setWeights(wts);
+		huffUtil.buildHuffmanTree(true);
+		huffUtil.createHuffmanCodes(huffUtil.getTreeRoot(), "", 0);
+		CodeTable ct = huffUtil.getCodeTable();
+		codes.put(id, ct);
+		fingerprints.put(id, TableRegistry.fingerprint(wts));
+		decoders.put(id, new HuffmanDecodeTable(huffUtil.getTreeRoot(), ct, HuffmanDecodeTable.DEFAULT_TABLE_BITS));
+	}
+
+	/**
+	 * Loads a table, and checks that it is the one a block was coded with.
+	 *
+	 * @param id the table id
+	 * @param fingerprint the fingerprint recorded in the block
+	 * @throws IOException if the table cannot be loaded, or is not the block's table
+	 */
+	private void loadTable(int id, int fingerprint) throws IOException {
+		loadTable(id);
+		if (fingerprints.get(id) != fingerprint)
+			throw new IOException("Shared table "+id+" does not match the one the block was coded with");
+	}
+
+	/**
+	 * Encodes the block.
+	 *
+	 * @param data the data to encode
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @return the payload
+	 * @throws IOException if the table cannot be loaded
+	 */
+	@Override
+	public byte[] encodeBlock(byte[] data, int off, int len) throws IOException {
+		loadTable(tableId);
+		CodeTable ct = codes.get(tableId);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(len / 2 + 8);
+		binUtil.writeVarint(out, tableId);
+		int fp = fingerprints.get(tableId);
+		out.write(fp >>> 24);
+		out.write(fp >>> 16);
+		out.write(fp >>> 8);
+		out.write(fp);
+		ByteArraySink sink = new ByteArraySink(len / 2 + 8);
+		BitWriter bw = new BitWriter(sink.getBuffer(), sink);
+		bw.writeSymbols(ct, data, off, len);
+		bw.flush();
+		out.write(sink.toByteArray());
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes the block.
+	 *
+	 * @param payload the buffer holding the payload
+	 * @param off the offset of the payload
+	 * @param len the length of the payload
+	 * @param dst the buffer to decode into
+	 * @param dstOff the offset in dst of the first decoded byte
+	 * @param rawLen the number of bytes to decode
+	 * @throws IOException if the payload is corrupt, or its table cannot be loaded or does not match
+	 */
+	@Override
+	public void decodeBlock(byte[] payload, int off, int len, byte[] dst, int dstOff, int rawLen) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(payload, off, len);
+		long id = binUtil.readVarint(bb);
+		if (id > Integer.MAX_VALUE)
+			throw new IOException("Bad table id: "+id);
+		if (bb.remaining() < 4)
+			throw new IOException("Corrupt shared-table block: no table fingerprint");
+		loadTable((int) id, bb.getInt());
+		HuffmanDecodeTable dt = decoders.get((int) id);
+		BitReader br = new BitReader(payload, bb.position(), bb.remaining());
+		for (int i = dstOff; i < dstOff + rawLen; i++) {
+			dst[i] = (byte) dt.decode(br);
+		}
+		if (br.isOverrun())
+			throw new IOException("Corrupt shared-table block: coded data too short");
+	}
+}
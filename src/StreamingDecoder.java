@@ -0,0 +1,166 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The Class StreamingDecoder. A push decoder for the original encoded format:
+ * the encoded bytes are passed in as they arrive, in chunks of any size, and
+ * the decoder keeps its position in the Huffman tree from one byte (and one
+ * chunk) to the next. Each input byte is looked at exactly once and the memory
+ * used does not depend on the length of the input.
+ *
+ * Rather than walking the tree a bit at a time, the decoder uses a transition
+ * table built from the tree: for every internal node and every input byte, the
+ * characters completed by those 8 bits and the node reached at the end. So
+ * each input byte costs one table lookup. Decoding stops at the EOF character
+ * (0); the padding after it is ignored.
+ */
+public class StreamingDecoder {
+
+	/** The EOF character, which ends the encoded data. */
+	static final int EOF = 0;
+
+	/** Flag in the count table: the EOF character was reached within the byte. */
+	private static final int EOF_FLAG = 0x80;
+
+	/** For each (node, byte): the node reached after the byte. */
+	private final short[] next;
+
+	/** For each (node, byte): the characters completed, 8 slots each. */
+	private final byte[] chars;
+
+	/** For each (node, byte): the number of characters completed, plus EOF_FLAG. */
+	private final byte[] counts;
+
+	/** Output buffer, so the characters are written in bulk. */
+	private final byte[] pending;
+
+	/** The number of characters in pending. */
+	private int numPending;
+
+	/** The current node (the index of an internal node). */
+	private int node;
+
+	/** True once the EOF character has been decoded. */
+	private boolean finished;
+
+	/** The number of characters decoded, not counting EOF. */
+	private long decoded;
+
+	/**
+	 * Instantiates a new streaming decoder for the given Huffman tree.
+	 *
+	 * @param root the root of the Huffman tree; characters must be 0-255
+	 */
+	public StreamingDecoder(HuffmanTreeNode root) {
+		Map<HuffmanTreeNode, Integer> internal = new IdentityHashMap<HuffmanTreeNode, Integer>();
+		collect(root, internal);
+		HuffmanTreeNode[] nodes = new HuffmanTreeNode[internal.size()];
+		for (Map.Entry<HuffmanTreeNode, Integer> e : internal.entrySet()) {
+			nodes[e.getValue()] = e.getKey();
+		}
+		if (internal.size() > Short.MAX_VALUE)
+			throw new IllegalArgumentException("Tree too large");
+		int n = Math.max(1, internal.size());
+		next = new short[n * 256];
+		chars = new byte[n * 256 * 8];
+		counts = new byte[n * 256];
+		pending = new byte[1 << 14];
+		if (root.isLeaf()) {
+			// A one-character tree has no codes: only the EOF character can be "decoded"
+			finished = (root.getOrdValue() == EOF);
+			return;
+		}
+		for (int i = 0; i < nodes.length; i++) {
+			for (int b = 0; b < 256; b++) {
+				int entry = i * 256 + b;
+				HuffmanTreeNode cur = nodes[i];
+				int count = 0;
+				for (int bit = 7; bit >= 0; bit--) {
+					cur = (((b >>> bit) & 1) == 0) ? cur.getLeft() : cur.getRight();
+					if (cur.isLeaf()) {
+						if (cur.getOrdValue() == EOF) {
+							count |= EOF_FLAG;
+							cur = root;
+							break;
+						}
+						chars[entry * 8 + count++] = (byte) cur.getOrdValue();
+						cur = root;
+					}
+				}
+				counts[entry] = (byte) count;
+				next[entry] = internal.get(cur).shortValue();
+			}
+		}
+	}
+
+	/**
+	 * Numbers the internal nodes of the tree, the root first, and checks the characters.
+	 *
+	 * @param node the subtree
+	 * @param internal receives the number of each internal node
+	 */
+	private static void collect(HuffmanTreeNode node, Map<HuffmanTreeNode, Integer> internal) {
+		if (node.isLeaf()) {
+			if (node.getOrdValue() < 0 || node.getOrdValue() > 255)
+				throw new IllegalArgumentException("Character out of range: "+node.getOrdValue());
+			return;
+		}
+		internal.put(node, internal.size());
+		collect(node.getLeft(), internal);
+		collect(node.getRight(), internal);
+	}
+
+	/**
+	 * Decodes a chunk of encoded bytes, writing the decoded characters to os.
+	 * Decoding stops at the EOF character; any bytes after it are not used.
+	 *
+	 * @param buf the encoded bytes
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @param os the stream to write the decoded characters to
+	 * @return the number of bytes used
+	 * @throws IOException Signals that an I/O exception has occurred writing to os.
+	 */
+	int push(byte[] buf, int off, int len, OutputStream os) throws IOException {
+		int i = off;
+		int cur = node;
+		while (i < off + len && !finished) {
+			int entry = (cur << 8) | (buf[i++] & 0xff);
+			int count = counts[entry] & 0xff;
+			if (numPending > pending.length - 8) {
+				os.write(pending, 0, numPending);
+				numPending = 0;
+			}
+			int n = count & ~EOF_FLAG;
+			System.arraycopy(chars, entry << 3, pending, numPending, n);
+			numPending += n;
+			decoded += n;
+			finished = (count & EOF_FLAG) != 0;
+			cur = next[entry];
+		}
+		node = cur;
+		os.write(pending, 0, numPending);
+		numPending = 0;
+		return i - off;
+	}
+
+	/**
+	 * Checks whether the EOF character has been decoded.
+	 *
+	 * @return true, if the encoded data is complete
+	 */
+	boolean isFinished() {
+		return finished;
+	}
+
+	/**
+	 * Gets the number of characters decoded so far, not counting EOF.
+	 *
+	 * @return the count
+	 */
+	long getDecoded() {
+		return decoded;
+	}
+}
@@ -0,0 +1,181 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Iterator;
+
+/**
+ * The Class StreamingWeightCounter. Counts byte weights over a stream of any
+ * length, such as a log that keeps growing: data is fed in as chunks or read
+ * from a channel, and the memory used is the same however much has been read.
+ *
+ * Every snapshotInterval bytes, the counts are published as a new
+ * WeightHistogram through a volatile reference. Other threads can take
+ * snapshots at any time without locking: the counting thread only ever writes
+ * its own counts, and a published histogram is never changed afterwards.
+ *
+ * A decay factor can be set, so that at each snapshot the counts are aged
+ * (WeightHistogram.decay) and the table follows changes in the stream.
+ *
+ * Only one thread may feed the counter.
+ */
+public class StreamingWeightCounter {
+
+	/** The default number of bytes between snapshots. */
+	static final int DEFAULT_SNAPSHOT_INTERVAL = 1 << 20;
+
+	/** The size of the buffer used to read from a channel. */
+	private static final int READ_BUFFER_SIZE = 1 << 16;
+
+	/** The counts, written only by the counting thread. */
+	private final WeightHistogram counts;
+
+	/** The number of bytes between snapshots. */
+	private final long snapshotInterval;
+
+	/** The factor the counts are decayed by at each snapshot; 1 for no decay. */
+	private double decayFactor;
+
+	/** The number of bytes counted since the last snapshot. */
+	private long sinceSnapshot;
+
+	/** The number of bytes counted in all. */
+	private long bytesCounted;
+
+	/** The most recently published counts. */
+	private volatile WeightHistogram snapshot;
+
+	/** The buffer used to read from a channel, allocated on first use. */
+	private ByteBuffer readBuffer;
+
+	/**
+	 * Instantiates a new streaming counter.
+	 *
+	 * @param snapshotInterval the number of bytes between snapshots, 1 or more
+	 */
+	public StreamingWeightCounter(long snapshotInterval) {
+		if (snapshotInterval < 1)
+			throw new IllegalArgumentException("Bad snapshot interval: "+snapshotInterval);
+		this.snapshotInterval = snapshotInterval;
+		counts = new WeightHistogram(256);
+		decayFactor = 1;
+		snapshot = counts.copy();
+	}
+
+	/**
+	 * Sets the factor the counts are decayed by at each snapshot.
+	 *
+	 * @param decayFactor the decay factor, greater than 0 and at most 1 (1 for no decay)
+	 */
+	void setDecay(double decayFactor) {
+		if (!(decayFactor > 0 && decayFactor <= 1))
+			throw new IllegalArgumentException("Bad decay factor: "+decayFactor);
+		this.decayFactor = decayFactor;
+	}
+
+	/**
+	 * Counts a chunk of data, publishing a snapshot each time snapshotInterval bytes have been counted.
+	 *
+	 * @param data the data
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 */
+	void update(byte[] data, int off, int len) {
+		while (len > 0) {
+			int n = (int) Math.min(len, snapshotInterval - sinceSnapshot);
+			counts.addBytes(data, off, n);
+			off += n;
+			len -= n;
+			sinceSnapshot += n;
+			bytesCounted += n;
+			if (sinceSnapshot == snapshotInterval)
+				publish();
+		}
+	}
+
+	/**
+	 * Counts the remaining bytes of a buffer.
+	 *
+	 * @param buf the buffer; its position is moved to its limit
+	 */
+	void update(ByteBuffer buf) {
+		if (buf.hasArray()) {
+			update(buf.array(), buf.arrayOffset() + buf.position(), buf.remaining());
+			buf.position(buf.limit());
+			return;
+		}
+		byte[] tmp = new byte[Math.min(buf.remaining(), READ_BUFFER_SIZE)];
+		while (buf.hasRemaining()) {
+			int n = Math.min(buf.remaining(), tmp.length);
+			buf.get(tmp, 0, n);
+			update(tmp, 0, n);
+		}
+	}
+
+	/**
+	 * Counts chunks until there are no more.
+	 *
+	 * @param chunks the chunks
+	 */
+	void consume(Iterator<byte[]> chunks) {
+		while (chunks.hasNext()) {
+			byte[] chunk = chunks.next();
+			update(chunk, 0, chunk.length);
+		}
+	}
+
+	/**
+	 * Reads and counts a channel until it ends (or the thread is interrupted,
+	 * if the channel is interruptible). Only one READ_BUFFER_SIZE buffer is used.
+	 *
+	 * @param ch the channel
+	 * @return the number of bytes read
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	long consume(ReadableByteChannel ch) throws IOException {
+		if (readBuffer == null)
+			readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		long read = 0;
+		int n;
+		while ((n = ch.read(readBuffer)) >= 0) {
+			readBuffer.flip();
+			update(readBuffer);
+			readBuffer.clear();
+			read += n;
+		}
+		return read;
+	}
+
+	/**
+	 * Publishes the current counts as the snapshot (and then applies the decay, if any).
+	 * Called by the counting thread; it is done automatically every snapshotInterval bytes.
+	 *
+	 * @return the published snapshot
+	 */
+	WeightHistogram publish() {
+		WeightHistogram h = counts.copy();
+		snapshot = h;
+		if (decayFactor < 1)
+			counts.decay(decayFactor);
+		sinceSnapshot = 0;
+		return h;
+	}
+
+	/**
+	 * Gets the most recently published counts. May be called from any thread,
+	 * while the counter is being fed. The histogram must not be modified; copy it first.
+	 *
+	 * @return the snapshot
+	 */
+	WeightHistogram getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * Gets the number of bytes counted in all. Only meaningful on the counting thread.
+	 *
+	 * @return the count
+	 */
+	long getBytesCounted() {
+		return bytesCounted;
+	}
+}
@@ -0,0 +1,166 @@
+import java.util.Arrays;
+
+/**
+ * The Class SuffixArray. Linear-time suffix array construction by induced
+ * sorting (SA-IS, Nong, Zhang and Chan). Used by the Burrows-Wheeler transform.
+ */
+public class SuffixArray {
+
+	/**
+	 * Builds the suffix array of s, which must end with a unique smallest
+	 * character 0 (the sentinel) and otherwise hold values 1 to k-1.
+	 *
+	 * @param s the text, ending with the sentinel
+	 * @param k the alphabet size
+	 * @return the suffix array: the start of each suffix, in sorted order
+	 */
+	static int[] build(int[] s, int k) {
+		int[] sa = new int[s.length];
+		sais(s, sa, s.length, k);
+		return sa;
+	}
+
+	/**
+	 * Fills bkt with the start (or end) index of each character's bucket.
+	 *
+	 * @param s the text
+	 * @param bkt the bucket array, k entries
+	 * @param n the text length
+	 * @param k the alphabet size
+	 * @param end if true, the end of each bucket (exclusive), otherwise the start
+	 */
+	private static void getBuckets(int[] s, int[] bkt, int n, int k, boolean end) {
+		Arrays.fill(bkt, 0);
+		for (int i = 0; i < n; i++) {
+			bkt[s[i]]++;
+		}
+		int sum = 0;
+		for (int i = 0; i < k; i++) {
+			sum += bkt[i];
+			bkt[i] = end ? sum : sum - bkt[i];
+		}
+	}
+
+	/**
+	 * Checks whether position i is a leftmost S-type position.
+	 *
+	 * @param t the type of each position (true = S-type)
+	 * @param i the position
+	 * @return true, if i is an LMS position
+	 */
+	private static boolean isLms(boolean[] t, int i) {
+		return i > 0 && t[i] && !t[i - 1];
+	}
+
+	/**
+	 * Induces the order of the L-type suffixes from the sorted LMS suffixes,
+	 * then the S-type suffixes from the L-type ones.
+	 *
+	 * @param s the text
+	 * @param sa the suffix array being built
+	 * @param t the type of each position
+	 * @param bkt the bucket array
+	 * @param n the text length
+	 * @param k the alphabet size
+	 */
+	private static void induce(int[] s, int[] sa, boolean[] t, int[] bkt, int n, int k) {
+		getBuckets(s, bkt, n, k, false);
+		for (int i = 0; i < n; i++) {
+			int j = sa[i] - 1;
+			if (sa[i] > 0 && !t[j])
+				sa[bkt[s[j]]++] = j;
+		}
+		getBuckets(s, bkt, n, k, true);
+		for (int i = n - 1; i >= 0; i--) {
+			int j = sa[i] - 1;
+			if (sa[i] > 0 && t[j])
+				sa[--bkt[s[j]]] = j;
+		}
+	}
+
+	/**
+	 * The SA-IS recursion: sorts the LMS substrings by induction, names them, sorts
+	 * the string of names (recursively if any names repeat), and induces the full
+	 * suffix array from the sorted LMS suffixes.
+	 *
+	 * @param s the text, ending with a unique smallest character
+	 * @param sa the suffix array to fill, n entries
+	 * @param n the text length
+	 * @param k the alphabet size
+	 */
+	private static void sais(int[] s, int[] sa, int n, int k) {
+		boolean[] t = new boolean[n];
+		t[n - 1] = true;
+		for (int i = n - 2; i >= 0; i--) {
+			t[i] = s[i] < s[i + 1] || (s[i] == s[i + 1] && t[i + 1]);
+		}
+		int[] bkt = new int[k];
+
+		// Stage 1: sort the LMS substrings
+		getBuckets(s, bkt, n, k, true);
+		Arrays.fill(sa, 0, n, -1);
+		for (int i = 1; i < n; i++) {
+			if (isLms(t, i))
+				sa[--bkt[s[i]]] = i;
+		}
+		induce(s, sa, t, bkt, n, k);
+
+		// Compact the sorted LMS substrings into the front of sa, and name them
+		int n1 = 0;
+		for (int i = 0; i < n; i++) {
+			if (isLms(t, sa[i]))
+				sa[n1++] = sa[i];
+		}
+		Arrays.fill(sa, n1, n, -1);
+		int name = 0;
+		int prev = -1;
+		for (int i = 0; i < n1; i++) {
+			int pos = sa[i];
+			boolean diff = false;
+			for (int d = 0; d < n; d++) {
+				if (prev == -1 || s[pos + d] != s[prev + d] || t[pos + d] != t[prev + d]) {
+					diff = true;
+					break;
+				} else if (d > 0 && (isLms(t, pos + d) || isLms(t, prev + d))) {
+					break;
+				}
+			}
+			if (diff) {
+				name++;
+				prev = pos;
+			}
+			sa[n1 + pos / 2] = name - 1;
+		}
+		int[] s1 = new int[n1];
+		for (int i = n - 1, j = n1 - 1; i >= n1; i--) {
+			if (sa[i] >= 0)
+				s1[j--] = sa[i];
+		}
+
+		// Stage 2: sort the LMS suffixes, recursing if the names are not unique
+		int[] sa1 = new int[n1];
+		if (name < n1) {
+			sais(s1, sa1, n1, name);
+		} else {
+			for (int i = 0; i < n1; i++) {
+				sa1[s1[i]] = i;
+			}
+		}
+
+		// Stage 3: induce the full suffix array from the sorted LMS suffixes
+		for (int i = 1, j = 0; i < n; i++) {
+			if (isLms(t, i))
+				s1[j++] = i;
+		}
+		for (int i = 0; i < n1; i++) {
+			sa1[i] = s1[sa1[i]];
+		}
+		Arrays.fill(sa, 0, n, -1);
+		getBuckets(s, bkt, n, k, true);
+		for (int i = n1 - 1; i >= 0; i--) {
+			int j = sa1[i];
+			sa[--bkt[s[j]]] = j;
+		}
+		induce(s, sa, t, bkt, n, k);
+	}
+}
@@ -0,0 +1,198 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The Class TableRegistry. A directory of shared, pre-trained byte weight
+ * tables, for coding small files: a table is trained once from a sample
+ * corpus and saved under a numeric id, and a small file is then coded with
+ * the table's codes and records only the id, instead of carrying a weights
+ * table that may be bigger than the file itself.
+ *
+ * Table n is saved as table-n.hfw, in the binary weights file format, so that
+ * loading it is one bulk read; a table-n.csv in the text weights format is
+ * also accepted. Id 0 is built in, so it needs no file and can always be
+ * decoded: a rough English text table, from the order of BUILTIN_TEXT.
+ */
+public class TableRegistry {
+
+	/** The default registry directory. */
+	static final String DEFAULT_DIR = "tables";
+
+	/** The id of the built-in table. */
+	static final int BUILTIN_ID = 0;
+
+	/** The number of entries in a table - every byte value. */
+	static final int NUM_SYMBOLS = 256;
+
+	/** The characters of the built-in table, most common first; other bytes get weight 1. */
+	private static final String BUILTIN_TEXT =
+			" etaoinsrhldcumwfgypb,.\nvkI'T\"AS-HWMBCE?!xjqzNOLYDGRPF;:J0123456789KUV()QXZ\r";
+
+	/** The largest total weight a trained table is scaled down to. */
+	private static final long MAX_TOTAL = 1 << 28;
+
+	/** The directory holding the tables. */
+	private final File dir;
+
+	/**
+	 * Instantiates a new registry over the given directory. The directory is
+	 * created when the first table is saved.
+	 *
+	 * @param dir the directory holding the tables
+	 */
+	public TableRegistry(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Gets the file that holds a table: the binary file, unless there is only a text one.
+	 *
+	 * @param id the table id
+	 * @return the file
+	 */
+	File getFile(int id) {
+		File f = new File(dir, "table-" + id + GenWeights.BINARY_WEIGHTS_EXT);
+		File csv = new File(dir, "table-" + id + ".csv");
+		return (!f.isFile() && csv.isFile()) ? csv : f;
+	}
+
+	/**
+	 * Lists the ids of the saved tables, in increasing order. The built-in table is not listed.
+	 *
+	 * @return the ids
+	 */
+	int[] ids() {
+		String[] names = dir.list();
+		if (names == null)
+			return new int[0];
+		int[] ids = new int[names.length];
+		int n = 0;
+		for (String name : names) {
+			if (name.matches("table-[1-9][0-9]{0,8}\\.(hfw|csv)"))
+				ids[n++] = Integer.parseInt(name.substring(6, name.length() - 4));
+		}
+		ids = Arrays.stream(ids, 0, n).distinct().toArray();
+		Arrays.sort(ids);
+		return ids;
+	}
+
+	/**
+	 * Loads a table.
+	 *
+	 * @param id the table id
+	 * @return the weights, NUM_SYMBOLS entries, each 1 or more
+	 * @throws IOException if there is no such table, or it is not valid
+	 */
+	int[] load(int id) throws IOException {
+		if (id == BUILTIN_ID) {
+			int[] wts = new int[NUM_SYMBOLS];
+			Arrays.fill(wts, 1);
+			for (int i = 0; i < BUILTIN_TEXT.length(); i++) {
+				wts[BUILTIN_TEXT.charAt(i)] = Math.max(2, (int) (20000 * Math.pow(0.88, i)));
+			}
+			return wts;
+		}
+		File f = getFile(id);
+		if (id < 0 || !f.isFile())
+			throw new IOException("Unknown table "+id+" (no "+f.getPath()+")");
+		int[] wts = new BinaryIO().parseWeights(Files.readAllBytes(f.toPath()), NUM_SYMBOLS);
+		if (wts.length != NUM_SYMBOLS)
+			throw new IOException("Bad table file "+f.getPath()+": "+wts.length+" weights");
+		for (int w : wts) {
+			if (w < 1)
+				throw new IOException("Bad table file "+f.getPath()+": every byte needs a weight");
+		}
+		return wts;
+	}
+
+	/**
+	 * Gets a table's fingerprint: the CRC32 of its weights, as 4-byte
+	 * big-endian values. Ids are only unique within one registry, so a coded
+	 * block records the fingerprint next to the id, and a decoder can tell
+	 * when it has been given a different registry's table of the same id.
+	 *
+	 * @param wts the weights
+	 * @return the fingerprint
+	 */
+	static int fingerprint(int[] wts) {
+		ByteBuffer bb = ByteBuffer.allocate(4 * wts.length);
+		bb.asIntBuffer().put(wts);
+		CRC32 crc = new CRC32();
+		crc.update(bb.array());
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Saves a table under the next free id.
+	 *
+	 * @param wts the weights, NUM_SYMBOLS entries, each 1 or more
+	 * @return the new table's id
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	int save(int[] wts) throws IOException {
+		if (wts.length != NUM_SYMBOLS)
+			throw new IllegalArgumentException("A table needs "+NUM_SYMBOLS+" weights");
+		Files.createDirectories(dir.toPath());
+		int[] ids = ids();
+		int id = (ids.length == 0) ? 1 : ids[ids.length - 1] + 1;
+		new GenWeights(null).writeWeights(getFile(id), wts);
+		return id;
+	}
+
+	/**
+	 * Trains a table from sample files and saves it. Directories are searched
+	 * (not recursively) for their files. Every byte is given at least weight 1,
+	 * so that any file can be coded with the table, and large totals are
+	 * scaled down.
+	 *
+	 * @param samples the sample files and directories
+	 * @return the new table's id
+	 * @throws IOException if there are no samples, or an I/O exception occurred
+	 */
+	int train(List<File> samples) throws IOException {
+		List<File> files = new ArrayList<File>();
+		for (File f : samples) {
+			File[] inDir = f.listFiles(File::isFile);
+			if (inDir != null) {
+				Arrays.sort(inDir);
+				files.addAll(Arrays.asList(inDir));
+			} else if (f.isFile()) {
+				files.add(f);
+			} else {
+				throw new IOException("No such file: "+f.getPath());
+			}
+		}
+		if (files.isEmpty())
+			throw new IOException("No sample files");
+		long[] counts = new long[NUM_SYMBOLS];
+		int[] chunk = new int[NUM_SYMBOLS];
+		GenWeights gw = new GenWeights(null);
+		for (File f : files) {
+			byte[] data = Files.readAllBytes(f.toPath());
+			Arrays.fill(chunk, 0);
+			gw.countBytes(data, 0, data.length, chunk);
+			for (int i = 0; i < NUM_SYMBOLS; i++) {
+				counts[i] += chunk[i];
+			}
+		}
+		long total = 0;
+		for (long c : counts) {
+			total += c;
+		}
+		int shift = 0;
+		while ((total >> shift) > MAX_TOTAL) {
+			shift++;
+		}
+		int[] wts = new int[NUM_SYMBOLS];
+		for (int i = 0; i < NUM_SYMBOLS; i++) {
+			wts[i] = (int) Math.max(1, counts[i] >> shift);
+		}
+		return save(wts);
+	}
+}
@@ -0,0 +1,245 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * The Class TansBlockCodec. Table-based asymmetric numeral systems (tANS, as
+ * used by FSE) coding of container blocks. Where Huffman spends a whole number
+ * of bits on each character, ANS spends close to -log2(p) bits, which matters
+ * when a few characters are very frequent.
+ *
+ * The block's byte counts (from GenWeights.countBytes) are normalized to sum to
+ * 2^tableLog, and each character gets that many slots in the state table,
+ * spread across it with the FSE step. The encoder works backwards through the
+ * block; the bits it emits for each character are stored so they can be written
+ * out in forward order, which lets the decoder read forwards with a BitReader.
+ *
+ * Payload: tableLog (1 byte), normalized counts (sparse varints), final encoder
+ * state (tableLog bits), then the bits for each character in order.
+ */
+public class TansBlockCodec implements BlockCodec {
+
+	/** The alphabet size - every byte value. */
+	static final int NUM_SYMBOLS = 256;
+
+	/** The default table size, as a power of 2 (4096 states). */
+	static final int DEFAULT_TABLE_LOG = 12;
+
+	/** The largest table size allowed in a payload. */
+	static final int MAX_TABLE_LOG = 15;
+
+	/** The table size used for encoding, as a power of 2. */
+	private final int tableLog;
+
+	/** Used to count the block's byte values. */
+	private GenWeights gw;
+
+	/** Used to read and write the counts table. */
+	private BinaryIO binUtil;
+
+	/** Scratch: the bits emitted for each character of the block. */
+	private int[] outBits = new int[0];
+
+	/** Scratch: the number of bits emitted for each character of the block. */
+	private byte[] outLens = new byte[0];
+
+	/**
+	 * Instantiates a new tANS block codec with the default table size.
+	 */
+	public TansBlockCodec() {
+		this(DEFAULT_TABLE_LOG);
+	}
+
+	/**
+	 * Instantiates a new tANS block codec.
+	 *
+	 * @param tableLog the table size as a power of 2, 9 to MAX_TABLE_LOG
+	 */
+	public TansBlockCodec(int tableLog) {
+		if (tableLog < 9 || tableLog > MAX_TABLE_LOG)
+			throw new IllegalArgumentException("tableLog out of range: "+tableLog);
+		this.tableLog = tableLog;
+		gw = new GenWeights(null);
+		binUtil = new BinaryIO();
+	}
+
+	/**
+	 * Scales counts so that they sum to exactly 2^tableLog, keeping every non-zero
+	 * count at least 1. Rounding errors are taken from (or given to) the largest
+	 * counts, where they cost the least.
+	 *
+	 * @param counts the counts; at least one must be non-zero, and at most 2^tableLog
+	 *               may be non-zero
+	 * @param tableLog the table size as a power of 2
+	 * @return the normalized counts
+	 */
+	static int[] normalize(int[] counts, int tableLog) {
+		int size = 1 << tableLog;
+		long total = 0;
+		for (int c : counts) {
+			total += c;
+		}
+		int[] norm = new int[counts.length];
+		int sum = 0;
+		for (int s = 0; s < counts.length; s++) {
+			if (counts[s] > 0) {
+				norm[s] = (int) Math.max(1, (counts[s] * (long) size + total / 2) / total);
+				sum += norm[s];
+			}
+		}
+		while (sum != size) {
+			int big = 0;
+			for (int s = 1; s < norm.length; s++) {
+				if (norm[s] > norm[big])
+					big = s;
+			}
+			if (sum < size) {
+				norm[big] += size - sum;
+				sum = size;
+			} else {
+				int take = Math.min(sum - size, Math.max(1, (norm[big] - 1) / 2));
+				norm[big] -= take;
+				sum -= take;
+			}
+		}
+		return norm;
+	}
+
+	/**
+	 * Fills the state table: each character gets norm[s] slots, spread with the
+	 * FSE step so that a character's slots are scattered rather than adjacent.
+	 *
+	 * @param norm the normalized counts
+	 * @param tableLog the table size as a power of 2
+	 * @return the character in each slot
+	 */
+	static int[] spread(int[] norm, int tableLog) {
+		int size = 1 << tableLog;
+		int mask = size - 1;
+		int step = (size >>> 1) + (size >>> 3) + 3;
+		int[] slots = new int[size];
+		int pos = 0;
+		for (int s = 0; s < norm.length; s++) {
+			for (int i = 0; i < norm[s]; i++) {
+				slots[pos] = s;
+				pos = (pos + step) & mask;
+			}
+		}
+		return slots;
+	}
+
+	/**
+	 * Encodes the block.
+	 *
+	 * @param data the data to encode
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @return the payload
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public byte[] encodeBlock(byte[] data, int off, int len) throws IOException {
+		int size = 1 << tableLog;
+		int[] norm = normalize(gw.countBytes(data, off, len, new int[NUM_SYMBOLS]), tableLog);
+		int[] slots = spread(norm, tableLog);
+
+		// For each character: its range in nextState, the most bits one step can
+		// emit, and the state below which one bit fewer is emitted.
+		int[] start = new int[NUM_SYMBOLS];
+		int[] maxBits = new int[NUM_SYMBOLS];
+		int[] threshold = new int[NUM_SYMBOLS];
+		int cumul = 0;
+		for (int s = 0; s < NUM_SYMBOLS; s++) {
+			start[s] = cumul;
+			cumul += norm[s];
+			if (norm[s] > 0) {
+				maxBits[s] = tableLog - (31 - Integer.numberOfLeadingZeros(norm[s]));
+				threshold[s] = norm[s] << maxBits[s];
+			}
+		}
+		// nextState[start[s] + x - norm[s]] is the state whose decode yields s and sub-state x
+		int[] nextState = new int[size];
+		int[] seen = new int[NUM_SYMBOLS];
+		for (int u = 0; u < size; u++) {
+			int s = slots[u];
+			nextState[start[s] + seen[s]++] = u + size;
+		}
+
+		if (outBits.length < len) {
+			outBits = new int[len];
+			outLens = new byte[len];
+		}
+		int state = size;
+		for (int i = len - 1; i >= 0; i--) {
+			int s = data[off + i] & 0xff;
+			int nb = maxBits[s] - ((state - threshold[s]) >>> 31);
+			outBits[i] = state & ((1 << nb) - 1);
+			outLens[i] = (byte) nb;
+			state = nextState[start[s] + (state >>> nb) - norm[s]];
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(len / 2 + 64);
+		out.write(tableLog);
+		binUtil.writeSparseWeights(out, norm);
+		ByteArraySink sink = new ByteArraySink(len / 2);
+		BitWriter bw = new BitWriter(sink.getBuffer(), sink);
+		bw.writeBits(state - size, tableLog);
+		for (int i = 0; i < len; i++) {
+			bw.writeBits(outBits[i], outLens[i]);
+		}
+		bw.flush();
+		out.write(sink.toByteArray());
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes the block.
+	 *
+	 * @param payload the buffer holding the payload
+	 * @param off the offset of the payload
+	 * @param len the length of the payload
+	 * @param out the buffer to decode into
+	 * @param outOff the offset in out of the first decoded byte
+	 * @param rawLen the number of bytes to decode
+	 * @throws IOException if the payload is corrupt
+	 */
+	@Override
+	public void decodeBlock(byte[] payload, int off, int len, byte[] out, int outOff, int rawLen) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(payload, off, len);
+		if (!bb.hasRemaining())
+			throw new IOException("Empty tANS payload");
+		int log = bb.get();
+		if (log < 9 || log > MAX_TABLE_LOG)
+			throw new IOException("Bad tANS table size: "+log);
+		int size = 1 << log;
+		int[] norm = binUtil.readSparseWeights(bb, NUM_SYMBOLS);
+		long sum = 0;
+		for (int n : norm) {
+			sum += n;
+		}
+		if (sum != size)
+			throw new IOException("Bad tANS counts: sum "+sum+", expected "+size);
+		int[] slots = spread(norm, log);
+
+		// Decode table entry: (base of next state << 16) | (bits to read << 8) | character
+		int[] table = new int[size];
+		int[] next = norm.clone();
+		for (int u = 0; u < size; u++) {
+			int s = slots[u];
+			int x = next[s]++;
+			int nb = log - (31 - Integer.numberOfLeadingZeros(x));
+			table[u] = (((x << nb) - size) << 16) | (nb << 8) | s;
+		}
+
+		BitReader br = new BitReader(payload, bb.position(), bb.remaining());
+		int state = (int) br.readBits(log);
+		for (int i = outOff; i < outOff + rawLen; i++) {
+			int e = table[state];
+			out[i] = (byte) e;
+			int nb = (e >>> 8) & 0xff;
+			state = (e >>> 16) + (nb == 0 ? 0 : (int) br.readBits(nb));
+		}
+		if (state != 0 || br.isOverrun())
+			throw new IOException("Corrupt tANS block");
+	}
+}
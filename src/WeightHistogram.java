@@ -0,0 +1,286 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The Class WeightHistogram. A set of character weights that can be combined:
+ * histograms from several files or streams can be merged, a document can be
+ * subtracted out again, and the whole table can be scaled or decayed. This lets
+ * a corpus-wide weights table be kept up to date as documents arrive, without
+ * rescanning the documents already counted; decaying before each update makes
+ * the table track the recent documents more closely than the old ones.
+ *
+ * Counts are kept as longs, so large corpora do not overflow. The Huffman
+ * tree builder and the weights files take the long counts directly
+ * (toLongWeights); normalize rescales them into a bounded range when a smaller
+ * table is wanted, and toWeights converts them to int weights.
+ *
+ * The mutating methods return this, so that updates can be chained.
+ */
+public class WeightHistogram {
+
+	/** The count of each character. */
+	private final long[] counts;
+
+	/**
+	 * Instantiates a new, empty histogram.
+	 *
+	 * @param size the number of characters
+	 */
+	public WeightHistogram(int size) {
+		counts = new long[size];
+	}
+
+	/**
+	 * Instantiates a new histogram holding the given weights.
+	 *
+	 * @param weights the weights
+	 * @return the histogram
+	 */
+	static WeightHistogram of(int[] weights) {
+		WeightHistogram h = new WeightHistogram(weights.length);
+		for (int i = 0; i < weights.length; i++) {
+			h.counts[i] = weights[i];
+		}
+		return h;
+	}
+
+	/**
+	 * Instantiates a new histogram holding the given long weights.
+	 *
+	 * @param weights the weights
+	 * @return the histogram
+	 */
+	static WeightHistogram of(long[] weights) {
+		WeightHistogram h = new WeightHistogram(weights.length);
+		System.arraycopy(weights, 0, h.counts, 0, weights.length);
+		return h;
+	}
+
+	/**
+	 * Makes a copy of this histogram.
+	 *
+	 * @return the copy
+	 */
+	WeightHistogram copy() {
+		WeightHistogram h = new WeightHistogram(counts.length);
+		System.arraycopy(counts, 0, h.counts, 0, counts.length);
+		return h;
+	}
+
+	/**
+	 * Gets the number of characters.
+	 *
+	 * @return the size
+	 */
+	int size() {
+		return counts.length;
+	}
+
+	/**
+	 * Gets the count of a character.
+	 *
+	 * @param c the character
+	 * @return the count
+	 */
+	long get(int c) {
+		return counts[c];
+	}
+
+	/**
+	 * Gets the sum of the counts.
+	 *
+	 * @return the total
+	 */
+	long getTotal() {
+		long total = 0;
+		for (long n : counts) {
+			total += n;
+		}
+		return total;
+	}
+
+	/**
+	 * Adds n to the count of a character.
+	 *
+	 * @param c the character
+	 * @param n the amount to add
+	 * @return this histogram
+	 */
+	WeightHistogram add(int c, long n) {
+		counts[c] += n;
+		return this;
+	}
+
+	/**
+	 * Counts the byte values in len bytes of data. The histogram must have 256 entries.
+	 *
+	 * @param data the data
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @return this histogram
+	 */
+	WeightHistogram addBytes(byte[] data, int off, int len) {
+		int[] local = ByteCounter.count(data, off, len, new int[256]);
+		for (int c = 0; c < 256; c++) {
+			counts[c] += local[c];
+		}
+		return this;
+	}
+
+	/**
+	 * Checks that other has the same number of characters as this histogram.
+	 *
+	 * @param other the other histogram
+	 */
+	private void checkSize(WeightHistogram other) {
+		if (other.counts.length != counts.length)
+			throw new IllegalArgumentException("Histogram sizes differ: "+counts.length+" and "+other.counts.length);
+	}
+
+	/**
+	 * Adds the counts of another histogram to this one.
+	 *
+	 * @param other the histogram to add
+	 * @return this histogram
+	 */
+	WeightHistogram merge(WeightHistogram other) {
+		checkSize(other);
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] += other.counts[i];
+		}
+		return this;
+	}
+
+	/**
+	 * Merges several histograms into a new one.
+	 *
+	 * @param parts the histograms, all the same size
+	 * @return the merged histogram
+	 */
+	static WeightHistogram mergeAll(List<WeightHistogram> parts) {
+		if (parts.isEmpty())
+			throw new IllegalArgumentException("Nothing to merge");
+		WeightHistogram h = new WeightHistogram(parts.get(0).size());
+		for (WeightHistogram p : parts) {
+			h.merge(p);
+		}
+		return h;
+	}
+
+	/**
+	 * Takes the counts of another histogram (such as a document that is being
+	 * dropped from the corpus) out of this one. Counts do not go below 0.
+	 *
+	 * @param other the histogram to subtract
+	 * @return this histogram
+	 */
+	WeightHistogram subtract(WeightHistogram other) {
+		checkSize(other);
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = Math.max(0, counts[i] - other.counts[i]);
+		}
+		return this;
+	}
+
+	/**
+	 * Multiplies every count by factor, rounding to the nearest integer.
+	 *
+	 * @param factor the factor, 0 or more
+	 * @return this histogram
+	 */
+	WeightHistogram scale(double factor) {
+		if (!(factor >= 0))
+			throw new IllegalArgumentException("Bad scale factor: "+factor);
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = Math.round(counts[i] * factor);
+		}
+		return this;
+	}
+
+	/**
+	 * Ages the counts before new data is merged in: every count is multiplied
+	 * by factor, but a character that has been seen keeps a count of at least 1,
+	 * so it never loses its code. A factor of 0.5 per update gives the counts a
+	 * half-life of one update.
+	 *
+	 * @param factor the decay factor, greater than 0 and at most 1
+	 * @return this histogram
+	 */
+	WeightHistogram decay(double factor) {
+		if (!(factor > 0 && factor <= 1))
+			throw new IllegalArgumentException("Bad decay factor: "+factor);
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0)
+				counts[i] = Math.max(1, Math.round(counts[i] * factor));
+		}
+		return this;
+	}
+
+	/**
+	 * Rescales the counts so that they total at most maxTotal, for a table of
+	 * bounded size. Nothing is changed if the total is already small enough.
+	 * Otherwise every count is multiplied by the same factor and rounded to the
+	 * nearest integer, and a character that has a count keeps at least 1. The
+	 * scaling keeps the order of the counts (a larger count never becomes
+	 * smaller than a smaller one), so the Huffman codes built from the result
+	 * differ from the optimal ones only where rounding makes counts tie or
+	 * changes which of two nearly equal subtrees is merged first.
+	 *
+	 * @param maxTotal the largest total wanted; at least the number of nonzero counts
+	 * @return this histogram
+	 */
+	WeightHistogram normalize(long maxTotal) {
+		long total = getTotal();
+		if (total <= maxTotal)
+			return this;
+		int nonZero = 0;
+		for (long n : counts) {
+			if (n > 0)
+				nonZero++;
+		}
+		if (maxTotal < nonZero)
+			throw new IllegalArgumentException("Cannot fit "+nonZero+" counts in a total of "+maxTotal);
+		// each count rounds up by less than 1, so leave room for one extra per character
+		double factor = (double) (maxTotal - nonZero) / total;
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0)
+				counts[i] = Math.max(1, Math.round(counts[i] * factor));
+		}
+		return this;
+	}
+
+	/**
+	 * Converts the counts to int weights. If the total is more than half of
+	 * Integer.MAX_VALUE (so that the tree's sums could overflow), the counts are
+	 * first rescaled as by normalize; this histogram is not changed.
+	 *
+	 * @return the weights
+	 */
+	int[] toWeights() {
+		long[] scaled = copy().normalize(Integer.MAX_VALUE / 2).counts;
+		int[] wts = new int[counts.length];
+		for (int i = 0; i < counts.length; i++) {
+			wts[i] = (int) scaled[i];
+		}
+		return wts;
+	}
+
+	/**
+	 * Gets a copy of the counts, as long weights.
+	 *
+	 * @return the weights
+	 */
+	long[] toLongWeights() {
+		return counts.clone();
+	}
+
+	/**
+	 * Returns the counts, for debugging.
+	 *
+	 * @return the string
+	 */
+	@Override
+	public String toString() {
+		return Arrays.toString(counts);
+	}
+}
@@ -0,0 +1,223 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The Class WordBlockCodec. Word-level Huffman coding of container blocks, for
+ * natural-language text: the block is split into word and separator tokens
+ * (GenWeights.tokenize), and each token that repeats is coded as one symbol,
+ * so a common word such as " the " costs a few bits instead of a few bits per
+ * letter.
+ *
+ * The alphabet is the 256 byte values followed by the block's vocabulary.
+ * Tokens that occur only once, and single bytes, are not worth a dictionary
+ * entry; they are escaped to character coding by writing their bytes as
+ * byte symbols. Since decoding only appends bytes, no escape marker is needed.
+ *
+ * The vocabulary is stored front-coded: sorted, with each word written as the
+ * length of the prefix it shares with the word before it and the rest of its bytes.
+ *
+ * Payload: number of words (varint), the words (prefix length varint, suffix
+ * length varint, suffix bytes), symbol counts (sparse varints), then one bit stream.
+ */
+public class WordBlockCodec implements BlockCodec {
+
+	/** The number of byte (character) symbols, which come before the word symbols. */
+	static final int NUM_LITERALS = 256;
+
+	/** The longest token; longer runs are split. */
+	static final int MAX_WORD_LEN = 32;
+
+	/** The fewest occurrences for a token to get its own symbol. */
+	static final int MIN_COUNT = 2;
+
+	/** The most words in a block's vocabulary; the most frequent are kept. */
+	static final int MAX_WORDS = 1 << 16;
+
+	/** Splits the block into tokens. */
+	private GenWeights genWeights;
+
+	/** Builds the Huffman tree and codes. */
+	private HuffmanCompressionUtilities huffUtil;
+
+	/** Used to read and write the dictionary and counts. */
+	private BinaryIO binUtil;
+
+	/**
+	 * Instantiates a new word block codec.
+	 */
+	public WordBlockCodec() {
+		genWeights = new GenWeights(null);
+		huffUtil = new HuffmanCompressionUtilities();
+		binUtil = new BinaryIO();
+	}
+
+	/**
+	 * Builds the Huffman codes for the given counts; afterwards huffUtil holds the tree.
+	 *
+	 * @param wts the counts
+	 * @return the code table
+	 */
+	private CodeTable buildCodes(int[] wts) {
+		huffUtil.setWeights(wts);
+		huffUtil.buildHuffmanTree(true);
+		huffUtil.createHuffmanCodes(huffUtil.getTreeRoot(), "", 0);
+		return huffUtil.getCodeTable();
+	}
+
+	/**
+	 * Chooses the vocabulary: tokens of 2 or more bytes seen at least MIN_COUNT
+	 * times, at most MAX_WORDS of them, in unsigned byte order.
+	 *
+	 * @param vocab the tokens of the block
+	 * @param data the block data
+	 * @return the chosen entries of vocab
+	 */
+	static Integer[] chooseWords(WordVocabulary vocab, byte[] data) {
+		Integer[] words = new Integer[vocab.size()];
+		int n = 0;
+		for (int e = 0; e < vocab.size(); e++) {
+			if (vocab.getCount(e) >= MIN_COUNT && vocab.getLength(e) >= 2)
+				words[n++] = e;
+		}
+		words = Arrays.copyOf(words, n);
+		if (n > MAX_WORDS) {
+			Arrays.sort(words, (a, b) -> Integer.compare(vocab.getCount(b), vocab.getCount(a)));
+			words = Arrays.copyOf(words, MAX_WORDS);
+		}
+		Arrays.sort(words, (a, b) -> Arrays.compareUnsigned(
+				data, vocab.getOffset(a), vocab.getOffset(a) + vocab.getLength(a),
+				data, vocab.getOffset(b), vocab.getOffset(b) + vocab.getLength(b)));
+		return words;
+	}
+
+	/**
+	 * Encodes the block.
+	 *
+	 * @param data the data to encode
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @return the payload
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	@Override
+	public byte[] encodeBlock(byte[] data, int off, int len) throws IOException {
+		int[] ends = new int[len];
+		int n = genWeights.tokenize(data, off, len, MAX_WORD_LEN, ends);
+		WordVocabulary vocab = new WordVocabulary(data);
+		int[] tokens = new int[n];
+		for (int t = 0, start = off; t < n; start = ends[t++]) {
+			tokens[t] = vocab.add(start, ends[t] - start);
+		}
+		Integer[] words = chooseWords(vocab, data);
+		int[] symbolOf = new int[vocab.size()];
+		Arrays.fill(symbolOf, -1);
+		for (int i = 0; i < words.length; i++) {
+			symbolOf[words[i]] = NUM_LITERALS + i;
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(len / 3 + 1024);
+		binUtil.writeVarint(out, words.length);
+		int prevOff = 0;
+		int prevLen = 0;
+		for (int e : words) {
+			int wOff = vocab.getOffset(e);
+			int wLen = vocab.getLength(e);
+			int prefix = 0;
+			while (prefix < prevLen && prefix < wLen && data[prevOff + prefix] == data[wOff + prefix]) {
+				prefix++;
+			}
+			binUtil.writeVarint(out, prefix);
+			binUtil.writeVarint(out, wLen - prefix);
+			out.write(data, wOff + prefix, wLen - prefix);
+			prevOff = wOff;
+			prevLen = wLen;
+		}
+
+		int[] counts = new int[NUM_LITERALS + words.length];
+		for (int t = 0, start = off; t < n; start = ends[t++]) {
+			int sym = symbolOf[tokens[t]];
+			if (sym >= 0) {
+				counts[sym]++;
+			} else {
+				genWeights.countBytes(data, start, ends[t] - start, counts);
+			}
+		}
+		binUtil.writeSparseWeights(out, counts);
+		CodeTable codes = buildCodes(counts);
+		ByteArraySink sink = new ByteArraySink(len / 3);
+		BitWriter bw = new BitWriter(sink.getBuffer(), sink);
+		for (int t = 0, start = off; t < n; start = ends[t++]) {
+			int sym = symbolOf[tokens[t]];
+			if (sym >= 0) {
+				bw.writeSymbol(codes, sym);
+			} else {
+				for (int i = start; i < ends[t]; i++) {
+					bw.writeSymbol(codes, data[i] & 0xff);
+				}
+			}
+		}
+		bw.flush();
+		out.write(sink.toByteArray());
+		return out.toByteArray();
+	}
+
+	/**
+	 * Decodes the block.
+	 *
+	 * @param payload the buffer holding the payload
+	 * @param off the offset of the payload
+	 * @param len the length of the payload
+	 * @param dst the buffer to decode into
+	 * @param dstOff the offset in dst of the first decoded byte
+	 * @param rawLen the number of bytes to decode
+	 * @throws IOException if the payload is corrupt
+	 */
+	@Override
+	public void decodeBlock(byte[] payload, int off, int len, byte[] dst, int dstOff, int rawLen) throws IOException {
+		ByteBuffer bb = ByteBuffer.wrap(payload, off, len);
+		long numWords = binUtil.readVarint(bb);
+		if (numWords > MAX_WORDS)
+			throw new IOException("Bad word count: "+numWords);
+		int words = (int) numWords;
+		byte[] pool = new byte[words * MAX_WORD_LEN];
+		int[] wordOff = new int[words];
+		int[] wordLen = new int[words];
+		int used = 0;
+		for (int w = 0; w < words; w++) {
+			long prefix = binUtil.readVarint(bb);
+			long suffix = binUtil.readVarint(bb);
+			if (prefix > (w == 0 ? 0 : wordLen[w - 1]) || prefix + suffix > MAX_WORD_LEN || suffix > bb.remaining())
+				throw new IOException("Corrupt word dictionary");
+			wordOff[w] = used;
+			wordLen[w] = (int) (prefix + suffix);
+			if (prefix > 0)
+				System.arraycopy(pool, wordOff[w - 1], pool, used, (int) prefix);
+			bb.get(pool, used + (int) prefix, (int) suffix);
+			used += wordLen[w];
+		}
+		int[] counts = binUtil.readSparseWeights(bb, NUM_LITERALS + words);
+		CodeTable codes = buildCodes(counts);
+		if (huffUtil.getTreeRoot() == null && rawLen > 0)
+			throw new IOException("Corrupt word block: empty code table");
+		HuffmanDecodeTable dt = new HuffmanDecodeTable(huffUtil.getTreeRoot(), codes, HuffmanDecodeTable.DEFAULT_TABLE_BITS);
+		BitReader br = new BitReader(payload, bb.position(), bb.remaining());
+
+		int end = dstOff + rawLen;
+		for (int i = dstOff; i < end; ) {
+			int sym = dt.decode(br);
+			if (sym < NUM_LITERALS) {
+				dst[i++] = (byte) sym;
+			} else {
+				int w = sym - NUM_LITERALS;
+				if (wordLen[w] > end - i)
+					throw new IOException("Corrupt word block: word runs past the block");
+				System.arraycopy(pool, wordOff[w], dst, i, wordLen[w]);
+				i += wordLen[w];
+			}
+		}
+		if (br.isOverrun())
+			throw new IOException("Corrupt word block: coded data too short");
+	}
+}
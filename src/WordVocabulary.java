@@ -0,0 +1,191 @@
+import java.util.Arrays;
+
+/**
+ * The Class WordVocabulary. Counts the distinct tokens (byte strings) of a block
+ * for word-level coding. Tokens are not copied: each entry records where the
+ * token first occurred in the caller's data.
+ *
+ * Lookup is by open addressing on a 64-bit hash of the token, kept as a
+ * primitive long beside each entry, so a probe compares longs and only looks at
+ * the bytes when the hashes match.
+ */
+public class WordVocabulary {
+
+	/** The initial number of slots (a power of 2). */
+	private static final int INITIAL_SLOTS = 1 << 12;
+
+	/** The data the tokens were taken from. */
+	private final byte[] data;
+
+	/** The entry in each slot, or -1 if the slot is empty. */
+	private int[] slots;
+
+	/** The hash of each entry's token. */
+	private long[] hashes;
+
+	/** The offset in data of each entry's token. */
+	private int[] offsets;
+
+	/** The length of each entry's token. */
+	private int[] lengths;
+
+	/** The number of times each entry's token was added. */
+	private int[] counts;
+
+	/** The number of entries. */
+	private int size;
+
+	/**
+	 * Instantiates a new, empty vocabulary over the given data.
+	 *
+	 * @param data the data the tokens will be taken from
+	 */
+	public WordVocabulary(byte[] data) {
+		this.data = data;
+		slots = new int[INITIAL_SLOTS];
+		Arrays.fill(slots, -1);
+		hashes = new long[INITIAL_SLOTS / 2];
+		offsets = new int[INITIAL_SLOTS / 2];
+		lengths = new int[INITIAL_SLOTS / 2];
+		counts = new int[INITIAL_SLOTS / 2];
+	}
+
+	/**
+	 * Hashes len bytes of b (FNV-1a, with a final mix so the low bits are usable as an index).
+	 *
+	 * @param b the bytes
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @return the hash
+	 */
+	static long hash(byte[] b, int off, int len) {
+		long h = 0xcbf29ce484222325L;
+		for (int i = off; i < off + len; i++) {
+			h = (h ^ (b[i] & 0xff)) * 0x100000001b3L;
+		}
+		h ^= h >>> 29;
+		h *= 0xbf58476d1ce4e5b9L;
+		return h ^ (h >>> 32);
+	}
+
+	/**
+	 * Finds the slot holding the token, or the empty slot where it belongs.
+	 *
+	 * @param h the token's hash
+	 * @param b the bytes holding the token
+	 * @param off the offset of the token
+	 * @param len the length of the token
+	 * @return the slot
+	 */
+	private int probe(long h, byte[] b, int off, int len) {
+		int mask = slots.length - 1;
+		int slot = (int) h & mask;
+		while (true) {
+			int e = slots[slot];
+			if (e < 0)
+				return slot;
+			if (hashes[e] == h && lengths[e] == len
+					&& Arrays.equals(data, offsets[e], offsets[e] + len, b, off, off + len))
+				return slot;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Adds one occurrence of the token data[off..off+len).
+	 *
+	 * @param off the offset of the token in data
+	 * @param len the length of the token
+	 * @return the token's entry number
+	 */
+	int add(int off, int len) {
+		long h = hash(data, off, len);
+		int slot = probe(h, data, off, len);
+		int e = slots[slot];
+		if (e < 0) {
+			if (size == hashes.length) {
+				grow();
+				slot = probe(h, data, off, len);
+			}
+			e = size++;
+			slots[slot] = e;
+			hashes[e] = h;
+			offsets[e] = off;
+			lengths[e] = len;
+		}
+		counts[e]++;
+		return e;
+	}
+
+	/**
+	 * Looks up a token, which need not come from this vocabulary's data.
+	 *
+	 * @param b the bytes holding the token
+	 * @param off the offset of the token
+	 * @param len the length of the token
+	 * @return the token's entry number, or -1 if it has not been added
+	 */
+	int find(byte[] b, int off, int len) {
+		return slots[probe(hash(b, off, len), b, off, len)];
+	}
+
+	/**
+	 * Doubles the slot table (keeping it at most half full) and the entry arrays.
+	 */
+	private void grow() {
+		int n = hashes.length * 2;
+		hashes = Arrays.copyOf(hashes, n);
+		offsets = Arrays.copyOf(offsets, n);
+		lengths = Arrays.copyOf(lengths, n);
+		counts = Arrays.copyOf(counts, n);
+		slots = new int[n * 2];
+		Arrays.fill(slots, -1);
+		int mask = slots.length - 1;
+		for (int e = 0; e < size; e++) {
+			int slot = (int) hashes[e] & mask;
+			while (slots[slot] >= 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = e;
+		}
+	}
+
+	/**
+	 * Gets the number of distinct tokens.
+	 *
+	 * @return the size
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of times a token was added.
+	 *
+	 * @param e the entry number
+	 * @return the count
+	 */
+	int getCount(int e) {
+		return counts[e];
+	}
+
+	/**
+	 * Gets the offset in data of a token.
+	 *
+	 * @param e the entry number
+	 * @return the offset
+	 */
+	int getOffset(int e) {
+		return offsets[e];
+	}
+
+	/**
+	 * Gets the length of a token.
+	 *
+	 * @param e the entry number
+	 * @return the length
+	 */
+	int getLength(int e) {
+		return lengths[e];
+	}
+}
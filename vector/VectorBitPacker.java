@@ -0,0 +1,87 @@
+import java.io.IOException;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The Class VectorBitPacker. A Vector API kernel for BitWriter.writeSymbols.
+ *
+ * The input is taken LANES bytes at a time. The code bits of the group and the
+ * running total of its code lengths (where each code ends) are looked up into
+ * two small arrays; as a vector, each code is then shifted left by the number
+ * of bits that follow it in the group, and OR-ing the lanes together gives the
+ * whole group as one right-aligned bit string, which is passed to
+ * BitWriter.writeBits in one call. A group whose codes add up to more than
+ * BitWriter.MAX_BITS (or that holds a byte with no packable code) is written
+ * one symbol at a time instead, so the output is exactly the same as the
+ * scalar writeSymbol loop.
+ *
+ * The lookups and the running total are done with scalar code: the gather
+ * form of LongVector.fromArray crashed the C2 compiler of JDK 21.0.1, and a
+ * vector prefix sum (unslice and add) was slower than the scalar one.
+ *
+ * This class needs the jdk.incubator.vector module (--add-modules
+ * jdk.incubator.vector), so it is kept out of the default build and only
+ * compiled with gradle -Pvector. BitWriter looks it up by name, and only uses
+ * it when the module is present.
+ */
+final class VectorBitPacker implements BitWriter.SymbolPacker {
+
+	/** The widest long vector the CPU has: 8 lanes with AVX-512, 4 with AVX2. */
+	private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+
+	/** The number of bytes packed per group. */
+	static final int LANES = SPECIES.length();
+
+	/**
+	 * Instantiates a new vector bit packer; called by BitWriter.
+	 */
+	VectorBitPacker() {
+	}
+
+	/**
+	 * Writes the codes of the whole groups of LANES bytes in data[off, off + len).
+	 * The caller writes the remaining bytes, if any.
+	 *
+	 * @param bw the writer
+	 * @param codes the code table
+	 * @param data the data
+	 * @param off the offset of the first byte
+	 * @param len the number of bytes
+	 * @return the number of bytes written
+	 * @throws IOException if a byte has no code, or an I/O exception occurred in the sink
+	 */
+	@Override
+	public int pack(BitWriter bw, CodeTable codes, byte[] data, int off, int len) throws IOException {
+		long[] bits = codes.getPackBits();
+		long[] lengths = codes.getPackLengths();
+		int[] idx = new int[LANES];
+		long[] groupBits = new long[LANES];
+		long[] groupEnds = new long[LANES];
+		int end = off + len - LANES;
+		int i = off;
+		for (; i <= end; i += LANES) {
+			long total = 0;
+			for (int k = 0; k < LANES; k++) {
+				int c = data[i + k] & 0xff;
+				idx[k] = c;
+				groupBits[k] = bits[c];
+				total += lengths[c];
+				groupEnds[k] = total;
+			}
+			if (total > BitWriter.MAX_BITS) {
+				for (int k = 0; k < LANES; k++) {
+					bw.writeSymbol(codes, idx[k]);
+				}
+				continue;
+			}
+			LongVector ends = LongVector.fromArray(SPECIES, groupEnds, 0);
+			long word = LongVector.fromArray(SPECIES, groupBits, 0)
+					.lanewise(VectorOperators.LSHL, ends.neg().add(total))
+					.reduceLanes(VectorOperators.OR);
+			bw.writeBits(word, (int) total);
+		}
+		return i - off;
+	}
+}